@@ -0,0 +1,25 @@
+package de.smetzger.bigpoint.gasstation;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** a gas station that can take purchases without blocking the calling thread until the customer is served */
+public interface AsyncGasStation extends GasStation {
+
+	/**
+	 * Simulates a customer wanting to buy a specific amount of gas, without waiting for him to be served.
+	 *
+	 * @param type
+	 *            The type of gas the customer wants to buy
+	 * @param amountInLiters
+	 *            The amount of gas the customer wants to buy. Nothing less than this amount is acceptable!
+	 * @param maxPricePerLiter
+	 *            The maximum price the customer is willing to pay per liter
+	 * @return a future completed with the price the customer has to pay for this transaction,
+	 *         or exceptionally with a NotEnoughGasException or GasTooExpensiveException
+	 */
+	CompletableFuture<Double> buyGasAsync(GasType type, double amountInLiters, double maxPricePerLiter);
+
+}
@@ -0,0 +1,136 @@
+package de.smetzger.bigpoint.gasstation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** measures how often critical sections are entered, how long threads wait to get the lock
+ *  and how long they hold it, to find the lock that limits the throughput.
+ *
+ *  a critical section is instrumented like this:
+ *  <pre>
+ *  long requested=section.request();
+ *  synchronized(lock){
+ *      long acquired=section.acquired(requested);
+ *      try{
+ *          ...
+ *      }finally{
+ *          section.released(acquired);
+ *      }
+ *  }
+ *  </pre>
+ *  a thread calling wait() inside the section reports the hold time up to the wait with {@link Section#released(long)}
+ *  and continues with the timestamp of {@link Section#resumed(long)}, so waiting for a condition does not count as holding the lock
+ *  (nor as waiting for it, as the time to get the monitor back cannot be told apart from the time waiting for the notification).
+ *
+ *  while switched off (the default) a section costs a single volatile read,
+ *  switched on it costs two calls to System.nanoTime() and a few uncontended adds per acquisition.
+ */
+public class LockMonitor {
+
+	/** one instrumented critical section */
+	public class Section {
+		protected final String name;
+		private final LongAdder acquisitions=new LongAdder();
+		private final LongAdder waitNanos=new LongAdder();
+		private final LongAdder holdNanos=new LongAdder();
+		private final LongAccumulator maxWaitNanos=new LongAccumulator(Math::max, 0);
+
+		protected Section(String name){
+			this.name=name;
+		}
+
+		/** to be called right before entering the section
+		 *  @return the time the lock was requested, 0 if measuring is switched off */
+		public long request(){
+			return enabled?System.nanoTime():0;
+		}
+
+		/** to be called first thing inside the section
+		 *  @return the time the lock was acquired, 0 if not measured */
+		public long acquired(long requested){
+			if(requested==0)
+				return 0;
+			long now=System.nanoTime();
+			long waited=now-requested;
+			acquisitions.increment();
+			waitNanos.add(waited);
+			maxWaitNanos.accumulate(waited);
+			return now;
+		}
+
+		/** to be called when leaving the section (or before waiting inside it) */
+		public void released(long acquired){
+			if(acquired!=0)
+				holdNanos.add(System.nanoTime()-acquired);
+		}
+
+		/** to be called after waiting inside the section
+		 *  @return the time holding the lock continues, 0 if not measured */
+		public long resumed(long acquired){
+			return (acquired!=0)?System.nanoTime():0;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		protected LockStatistics getStatistics(){
+			return new LockStatistics(name, acquisitions.sum(), waitNanos.sum(), maxWaitNanos.get(), holdNanos.sum());
+		}
+
+		protected void reset(){
+			acquisitions.reset();
+			waitNanos.reset();
+			holdNanos.reset();
+			maxWaitNanos.reset();
+		}
+	}
+
+	private final List<Section> sections=new CopyOnWriteArrayList<Section>();
+	private volatile boolean enabled=false;
+
+	/** @return the section with the given name, created if it does not exist yet */
+	synchronized public Section section(String name){
+		for(Section s:sections)
+			if(s.name.equals(name))
+				return s;
+		Section s=new Section(name);
+		sections.add(s);
+		return s;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** switches measuring on or off; sections entered before switching on are not counted */
+	public void setEnabled(boolean enabled) {
+		this.enabled=enabled;
+	}
+
+	/** @return the figures of all sections, the one threads waited for longest in total first */
+	public List<LockStatistics> getStatistics(){
+		List<LockStatistics> statistics=new ArrayList<LockStatistics>();
+		for(Section s:sections)
+			statistics.add(s.getStatistics());
+		Collections.sort(statistics, new Comparator<LockStatistics>(){
+			@Override
+			public int compare(LockStatistics o1, LockStatistics o2) {
+				return Long.compare(o2.getWaitNanos(), o1.getWaitNanos());
+			}
+		});
+		return statistics;
+	}
+
+	/** sets all figures back to 0 */
+	public void reset(){
+		for(Section s:sections)
+			s.reset();
+	}
+
+}
@@ -0,0 +1,56 @@
+package de.smetzger.bigpoint.gasstation;
+
+/** the figures of one critical section measured by a {@link LockMonitor} (all times in nanoseconds) */
+public final class LockStatistics {
+
+	private final String section;
+	private final long acquisitions;
+	private final long waitNanos;
+	private final long maxWaitNanos;
+	private final long holdNanos;
+
+	public LockStatistics(String section, long acquisitions, long waitNanos, long maxWaitNanos, long holdNanos){
+		this.section=section;
+		this.acquisitions=acquisitions;
+		this.waitNanos=waitNanos;
+		this.maxWaitNanos=maxWaitNanos;
+		this.holdNanos=holdNanos;
+	}
+
+	public String getSection() {
+		return section;
+	}
+
+	public long getAcquisitions() {
+		return acquisitions;
+	}
+
+	/** @return total time threads waited to enter the section */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	public long getMaxWaitNanos() {
+		return maxWaitNanos;
+	}
+
+	/** @return total time the lock was held in the section */
+	public long getHoldNanos() {
+		return holdNanos;
+	}
+
+	public double getAverageWaitNanos() {
+		return acquisitions==0?0:(double)waitNanos/acquisitions;
+	}
+
+	public double getAverageHoldNanos() {
+		return acquisitions==0?0:(double)holdNanos/acquisitions;
+	}
+
+	@Override
+	public String toString(){
+		return "["+section+": "+acquisitions+" acquisitions, wait "+waitNanos/1000+"us (avg "+(long)getAverageWaitNanos()
+				+"ns, max "+maxWaitNanos/1000+"us), hold "+holdNanos/1000+"us (avg "+(long)getAverageHoldNanos()+"ns)]";
+	}
+
+}
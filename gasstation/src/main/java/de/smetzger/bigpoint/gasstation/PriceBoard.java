@@ -0,0 +1,92 @@
+package de.smetzger.bigpoint.gasstation;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** holds the current prices of all gas types in an immutable, versioned snapshot.
+ *  reading a price is a single volatile read (wait-free, never blocks behind a station lock),
+ *  an update publishes a complete new snapshot with an incremented version in one atomic step.
+ */
+public class PriceBoard {
+
+	/** an immutable set of prices for all gas types, tagged with the version it was published as */
+	public static final class Snapshot {
+		private final long version;
+		private final double[] prices;
+
+		private Snapshot(long version, double[] prices){
+			this.version=version;
+			this.prices=prices;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public double getPrice(GasType type) {
+			return prices[type.ordinal()];
+		}
+
+		@Override
+		public String toString(){
+			StringBuilder sb=new StringBuilder("[version: "+version);
+			for(GasType type:GasType.values())
+				sb.append(", "+type+": "+prices[type.ordinal()]);
+			return sb.append("]").toString();
+		}
+	}
+
+	private final AtomicReference<Snapshot> current;
+	
+	/** creates a board with all prices 0 */
+	public PriceBoard(){
+		this(0, new double[GasType.values().length]);
+	}
+	
+	/** creates a board continuing from a previously published version (e.g. when restoring a station)
+	 *  @param prices	the prices indexed by gas type ordinal */
+	public PriceBoard(long version, double[] prices){
+		if(prices.length!=GasType.values().length)
+			throw new IllegalArgumentException("one price per gas type expected");
+		current=new AtomicReference<Snapshot>(new Snapshot(version, prices.clone()));
+	}
+
+	/** @return the currently published prices (never null) */
+	public Snapshot getSnapshot(){
+		return current.get();
+	}
+
+	public double getPrice(GasType type){
+		return current.get().getPrice(type);
+	}
+
+	/** publishes a new snapshot in which only the price of the given type differs */
+	public Snapshot setPrice(GasType type, double price){
+		Snapshot old, updated;
+		do{
+			old=current.get();
+			double[] prices=old.prices.clone();
+			prices[type.ordinal()]=price;
+			updated=new Snapshot(old.version+1, prices);
+		}while(!current.compareAndSet(old, updated));
+		return updated;
+	}
+
+	/** publishes all given prices at once,
+	 *  i.e. no reader will ever see a mix of old and new prices of this update;
+	 *  gas types not contained in the map keep their price */
+	public Snapshot setPrices(Map<GasType, Double> newPrices){
+		Snapshot old, updated;
+		do{
+			old=current.get();
+			double[] prices=old.prices.clone();
+			for(Map.Entry<GasType, Double> e:newPrices.entrySet())
+				prices[e.getKey().ordinal()]=e.getValue();
+			updated=new Snapshot(old.version+1, prices);
+		}while(!current.compareAndSet(old, updated));
+		return updated;
+	}
+
+}
@@ -7,16 +7,23 @@ import net.bigpoint.assessment.gasstation.GasType;
 
 /** encapsulates GasPump,
  * provides an indicator whether GasPump in use and
- * rememebrs the price for the user currently served.  
+ * rememebrs the price (and its version) for the user currently served.  
  */
 public class PumpAttendant {
 	
 	protected GasPump pump=null;
+	protected int id; //the id of the pump within the station
 	protected boolean busy=false;	
 	private double pricePerLiterForCurrentCustomer;
+	private long priceVersionForCurrentCustomer;
 	
-	public PumpAttendant (GasPump pump){
+	public PumpAttendant (GasPump pump, int id){
 		this.pump=pump;	
+		this.id=id;
+	}
+	
+	public int getId(){
+		return id;
 	}
 	
 	public boolean isBusy(){
@@ -28,15 +35,21 @@ public class PumpAttendant {
 	}
 	
 	
-	public void reserveForCustomer(double litersToBeTaken, double currentPrice){
+	public void reserveForCustomer(double litersToBeTaken, GasType type, PriceBoard.Snapshot currentPrices){
 		busy=true;		
-		pricePerLiterForCurrentCustomer=currentPrice;
+		pricePerLiterForCurrentCustomer=currentPrices.getPrice(type);
+		priceVersionForCurrentCustomer=currentPrices.getVersion();
 	}
 	
 	public double getAgreedPrice(){
 		return pricePerLiterForCurrentCustomer;
 	}
 	
+	/** @return the version of the price board the agreed price was taken from */
+	public long getAgreedPriceVersion(){
+		return priceVersionForCurrentCustomer;
+	}
+	
 	public double getRemainingAmount() {
 		return pump.getRemainingAmount();		
 	}
@@ -0,0 +1,192 @@
+package de.smetzger.bigpoint.gasstation;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** the state of all pumps of a station in primitive arrays, indexed by pump id:
+ *  gas type, remaining amount, projected remaining amount (after all reserved or queued customers are served),
+ *  busy flag and queue length.
+ *
+ *  scans for a matching pump run as tight sequential loops over these arrays
+ *  instead of chasing pointers through attendant, pump and customer objects.
+ *  the owners of the pumps (attendants or station) write their row whenever their state changes,
+ *  every row has a single writer at a time (the owner holds its own lock), so rows are written without locking the table:
+ *  each slot is written with release and read with acquire semantics, scans never block and are never blocked.
+ *  a scan may see a row in the middle of an update (e.g. the new remaining amount with the old projected one),
+ *  so its result is a hint the caller checks again holding the lock of the pump owner.
+ *  only adding pumps is serialized, growing the arrays is announced by a sequence number
+ *  (odd while copying), writers that raced with it write their row again into the new arrays.
+ */
+public class PumpStateTable {
+
+	/** returned by {@link #findIdle(GasType, double)} if only busy pumps match */
+	public static final int ALL_BUSY=-2;
+	/** returned by the searches if no pump matches */
+	public static final int NONE=-1;
+
+	//approximate size of an array header in bytes (object header and length)
+	static final int ARRAY_HEADER=16;
+	//bytes per pump: type, remaining, projected, busy, queue length
+	static final int BYTES_PER_PUMP=1+8+8+1+4;
+
+	private static final GasType[] types=GasType.values();
+
+	private static final VarHandle BYTES=MethodHandles.arrayElementVarHandle(byte[].class);
+	private static final VarHandle DOUBLES=MethodHandles.arrayElementVarHandle(double[].class);
+	private static final VarHandle BOOLEANS=MethodHandles.arrayElementVarHandle(boolean[].class);
+	private static final VarHandle INTS=MethodHandles.arrayElementVarHandle(int[].class);
+
+	/** the columns, replaced as a whole when the table grows */
+	private static final class Rows {
+		final byte[] gasType;
+		final double[] remaining;
+		final double[] projected;
+		final boolean[] busy;
+		final int[] queueLength;
+
+		Rows(int capacity){
+			gasType=new byte[capacity];
+			remaining=new double[capacity];
+			projected=new double[capacity];
+			busy=new boolean[capacity];
+			queueLength=new int[capacity];
+		}
+	}
+
+	private volatile Rows rows;
+	private volatile int size=0;
+	private volatile int resizes=0; //odd while the arrays are copied
+
+	/** constructor
+	 *  @param initialCapacity	number of pumps to reserve room for (grows when needed) */
+	public PumpStateTable(int initialCapacity){
+		rows=new Rows(Math.max(1, initialCapacity));
+	}
+
+	public PumpStateTable(){
+		this(16);
+	}
+
+	/** adds the row of a new pump (ids are expected to be handed out densely from 0) */
+	synchronized public void add(int id, GasType type, double amount){
+		Rows r=rows;
+		if(id>=r.gasType.length){
+			resizes++;
+			VarHandle.fullFence(); //writers see the odd number before the columns are copied
+			Rows grown=new Rows(Math.max(id+1, r.gasType.length*2));
+			for(int i=0;i<size;i++){
+				grown.gasType[i]=(byte)BYTES.getAcquire(r.gasType, i);
+				grown.remaining[i]=(double)DOUBLES.getAcquire(r.remaining, i);
+				grown.projected[i]=(double)DOUBLES.getAcquire(r.projected, i);
+				grown.busy[i]=(boolean)BOOLEANS.getAcquire(r.busy, i);
+				grown.queueLength[i]=(int)INTS.getAcquire(r.queueLength, i);
+			}
+			rows=grown;
+			resizes++;
+			r=grown;
+		}
+		BYTES.setRelease(r.gasType, id, (byte)type.ordinal());
+		write(r, id, amount, amount, false, 0);
+		size=Math.max(size, id+1);
+	}
+
+	private static void write(Rows r, int id, double remainingAmount, double projectedAmount, boolean isBusy, int queued){
+		DOUBLES.setRelease(r.remaining, id, remainingAmount);
+		DOUBLES.setRelease(r.projected, id, projectedAmount);
+		BOOLEANS.setRelease(r.busy, id, isBusy);
+		INTS.setRelease(r.queueLength, id, queued);
+	}
+
+	/** overwrites the (changing part of the) row of a pump, without locking */
+	public void update(int id, double remainingAmount, double projectedAmount, boolean isBusy, int queued){
+		while(true){
+			int before=resizes;
+			if((before&1)==0){
+				write(rows, id, remainingAmount, projectedAmount, isBusy, queued);
+				VarHandle.fullFence(); //the row is written before checking that no copy has started meanwhile
+				if(resizes==before)
+					return;
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	/** marks a pump busy with a customer wanting the given amount (projected amount drops accordingly) */
+	public void reserve(int id, double liters){
+		double remainingAmount=getRemainingAmount(id);
+		update(id, remainingAmount, remainingAmount-liters, true, getQueueLength(id));
+	}
+
+	/** marks a pump idle again, with the amount it has left now */
+	public void release(int id, double remainingAmount){
+		update(id, remainingAmount, remainingAmount, false, getQueueLength(id));
+	}
+
+	/** @return the first idle pump of the given type with at least the given amount remaining,
+	 *          {@link #ALL_BUSY} if there are such pumps but all are busy, {@link #NONE} if there is no such pump */
+	public int findIdle(GasType type, double liters){
+		byte t=(byte)type.ordinal();
+		int result=NONE;
+		int n=size;
+		Rows r=rows;
+		for(int i=0;i<n;i++)
+			if((byte)BYTES.getAcquire(r.gasType, i)==t && (double)DOUBLES.getAcquire(r.remaining, i)>=liters){
+				if(!(boolean)BOOLEANS.getAcquire(r.busy, i))
+					return i;
+				result=ALL_BUSY;
+			}
+		return result;
+	}
+
+	/** @return the busy pump of the given type (other than the excluded one) with customers waiting
+	 *          and the most liters queued, or {@link #NONE} */
+	public int findMostQueued(GasType type, int excludedId){
+		byte t=(byte)type.ordinal();
+		int result=NONE;
+		double max=0;
+		int n=size;
+		Rows r=rows;
+		for(int i=0;i<n;i++)
+			if((byte)BYTES.getAcquire(r.gasType, i)==t && (boolean)BOOLEANS.getAcquire(r.busy, i)
+					&& (int)INTS.getAcquire(r.queueLength, i)>0 && i!=excludedId){
+				double queued=(double)DOUBLES.getAcquire(r.remaining, i)-(double)DOUBLES.getAcquire(r.projected, i);
+				if(queued>max){
+					result=i;
+					max=queued;
+				}
+			}
+		return result;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public GasType getGasType(int id){
+		return types[(byte)BYTES.getAcquire(rows.gasType, id)];
+	}
+
+	public double getRemainingAmount(int id){
+		return (double)DOUBLES.getAcquire(rows.remaining, id);
+	}
+
+	public double getProjectedAmount(int id){
+		return (double)DOUBLES.getAcquire(rows.projected, id);
+	}
+
+	public boolean isBusy(int id){
+		return (boolean)BOOLEANS.getAcquire(rows.busy, id);
+	}
+
+	public int getQueueLength(int id){
+		return (int)INTS.getAcquire(rows.queueLength, id);
+	}
+
+	/** @return the (approximate) number of bytes the table occupies, including the room reserved for growth */
+	public long getMemoryFootprint(){
+		return 5L*ARRAY_HEADER+(long)rows.gasType.length*BYTES_PER_PUMP;
+	}
+
+}
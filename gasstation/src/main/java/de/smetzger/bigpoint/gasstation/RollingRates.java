@@ -0,0 +1,136 @@
+package de.smetzger.bigpoint.gasstation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** rolling rates per gas type over sliding windows: arrivals, sales, liters sold and rejections per second.
+ *
+ *  time is cut into buckets of fixed length, kept in a ring that covers the longest window that can be asked for.
+ *  every bucket holds one counter per gas type and figure, all in one {@link AtomicLongArray},
+ *  so recording is a few atomic operations without locks or allocations.
+ *  the first writer entering a new bucket claims it (compare and set of the bucket's number) and clears it;
+ *  a concurrent writer may still count into the old contents at that instant, so single events at a bucket boundary
+ *  may get lost. readers just sum up the buckets of the window and never block writers.
+ */
+public class RollingRates {
+
+	/** length of a bucket if not configured otherwise */
+	public static final long DEFAULT_BUCKET_MILLIS=100;
+	/** number of buckets if not configured otherwise (i.e. windows up to one minute) */
+	public static final int DEFAULT_BUCKETS=600;
+
+	//the figures counted per gas type
+	static final int ARRIVALS=0, SALES=1, MILLILITERS=2, REJECTIONS=3;
+	static final int FIGURES=4;
+
+	private static final int TYPES=GasType.values().length;
+
+	protected final long bucketNanos;
+	protected final int buckets;
+	protected final long created=System.nanoTime();
+
+	//counters, indexed by (bucket*TYPES+type)*FIGURES+figure
+	private final AtomicLongArray counts;
+	//number of the time bucket (nanos since creation / bucket length) each slot currently holds
+	private final AtomicLongArray epochs;
+
+	public RollingRates(){
+		this(DEFAULT_BUCKET_MILLIS, DEFAULT_BUCKETS);
+	}
+
+	/** constructor
+	 *  @param bucketMillis	resolution of the rates
+	 *  @param buckets		number of buckets, the longest window is (buckets-1)*bucketMillis */
+	public RollingRates(long bucketMillis, int buckets){
+		if(bucketMillis<1 || buckets<2)
+			throw new IllegalArgumentException("at least 2 buckets of at least 1ms needed");
+		this.bucketNanos=bucketMillis*1000000;
+		this.buckets=buckets;
+		counts=new AtomicLongArray(buckets*TYPES*FIGURES);
+		epochs=new AtomicLongArray(buckets);
+	}
+
+	public void recordArrival(GasType type){
+		add(type, ARRIVALS, 1);
+	}
+
+	public void recordSale(GasType type, double liters){
+		long epoch=currentEpoch();
+		int slot=slotFor(epoch);
+		add(slot, type, SALES, 1);
+		add(slot, type, MILLILITERS, Math.round(liters*1000));
+	}
+
+	public void recordRejection(GasType type){
+		add(type, REJECTIONS, 1);
+	}
+
+	/** @return arrivals (purchase requests) per second within the last windowMillis */
+	public double getArrivalRate(GasType type, long windowMillis){
+		return rate(type, ARRIVALS, windowMillis);
+	}
+
+	/** @return sales per second within the last windowMillis */
+	public double getSalesRate(GasType type, long windowMillis){
+		return rate(type, SALES, windowMillis);
+	}
+
+	/** @return liters sold per second within the last windowMillis */
+	public double getLitersRate(GasType type, long windowMillis){
+		return rate(type, MILLILITERS, windowMillis)/1000;
+	}
+
+	/** @return rejections (not enough gas or too expensive) per second within the last windowMillis */
+	public double getRejectionRate(GasType type, long windowMillis){
+		return rate(type, REJECTIONS, windowMillis);
+	}
+
+	/** @return the longest window that can be asked for */
+	public long getMaxWindowMillis(){
+		return (buckets-1)*bucketNanos/1000000;
+	}
+
+	private long currentEpoch(){
+		return (System.nanoTime()-created)/bucketNanos;
+	}
+
+	/** @return the slot of the given bucket number, cleared first if it still holds an older bucket */
+	private int slotFor(long epoch){
+		int slot=(int)(epoch%buckets);
+		long held=epochs.get(slot);
+		if(held<epoch && epochs.compareAndSet(slot, held, epoch)){
+			int base=slot*TYPES*FIGURES;
+			for(int i=0;i<TYPES*FIGURES;i++)
+				counts.set(base+i, 0);
+		}
+		return slot;
+	}
+
+	private void add(GasType type, int figure, long amount){
+		add(slotFor(currentEpoch()), type, figure, amount);
+	}
+
+	private void add(int slot, GasType type, int figure, long amount){
+		counts.addAndGet((slot*TYPES+type.ordinal())*FIGURES+figure, amount);
+	}
+
+	/** sums up the figure over the buckets of the window (the current one included, as far as it has passed)
+	 *  @return the sum per second */
+	protected double rate(GasType type, int figure, long windowMillis){
+		long now=System.nanoTime()-created;
+		long epoch=now/bucketNanos;
+		int n=(int)Math.min(buckets-1, Math.max(1, (windowMillis*1000000+bucketNanos-1)/bucketNanos));
+		long sum=0;
+		for(long e=Math.max(0, epoch-n+1);e<=epoch;e++){
+			int slot=(int)(e%buckets);
+			long value=counts.get((slot*TYPES+type.ordinal())*FIGURES+figure);
+			if(epochs.get(slot)==e) //the slot may still hold an older bucket (nobody recorded in e)
+				sum+=value;
+		}
+		//full buckets before the current one, plus the part of the current one that has passed
+		long covered=Math.min(now, (n-1)*bucketNanos+now%bucketNanos);
+		return (covered<=0)?0:sum/(covered/1e9);
+	}
+
+}
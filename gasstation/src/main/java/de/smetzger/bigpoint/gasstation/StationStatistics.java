@@ -0,0 +1,147 @@
+package de.smetzger.bigpoint.gasstation;
+
+import java.lang.invoke.VarHandle;
+
+/** the sales figures of a station (sales, liters, revenue, cancellations, customers that left),
+ *  readable as a consistent {@link Snapshot}, i.e. all figures from the same instant.
+ *
+ *  writers are serialized by the (briefly held) monitor of this object,
+ *  readers do not lock at all: the figures are guarded by a sequence number (seqlock),
+ *  which is odd while a writer is changing them. a reader copies the figures
+ *  and retries if the sequence number was odd or changed meanwhile, so readers never block writers
+ *  and an uncontended read costs a few volatile reads.
+ */
+public class StationStatistics {
+
+	/** the figures of a station at one instant */
+	public static final class Snapshot {
+		private final int sales;
+		private final double liters;
+		private final double revenue;
+		private final int cancellationsNoGas;
+		private final int cancellationsTooExpensive;
+		private final int abandoned;
+
+		public Snapshot(int sales, double liters, double revenue, int cancellationsNoGas, int cancellationsTooExpensive,
+				int abandoned){
+			this.sales=sales;
+			this.liters=liters;
+			this.revenue=revenue;
+			this.cancellationsNoGas=cancellationsNoGas;
+			this.cancellationsTooExpensive=cancellationsTooExpensive;
+			this.abandoned=abandoned;
+		}
+
+		public int getNumberOfSales() {
+			return sales;
+		}
+
+		/** @return liters sold */
+		public double getLiters() {
+			return liters;
+		}
+
+		public double getRevenue() {
+			return revenue;
+		}
+
+		public int getNumberOfCancellationsNoGas() {
+			return cancellationsNoGas;
+		}
+
+		public int getNumberOfCancellationsTooExpensive() {
+			return cancellationsTooExpensive;
+		}
+
+		/** @return number of customers that left before being served */
+		public int getNumberOfAbandonedPurchases() {
+			return abandoned;
+		}
+
+		@Override
+		public String toString(){
+			return "[sales: "+sales+", liters: "+liters+", revenue: "+revenue+", no gas: "+cancellationsNoGas
+					+", too expensive: "+cancellationsTooExpensive+", abandoned: "+abandoned+"]";
+		}
+	}
+
+	//even while the figures are stable, odd while a writer changes them
+	private volatile long sequence=0;
+
+	//the figures (plain fields, guarded by the sequence number)
+	private int sales;
+	private double liters;
+	private double revenue;
+	private int cancellationsNoGas;
+	private int cancellationsTooExpensive;
+	private int abandoned;
+
+	/** to be called by a writer (holding the monitor) before changing the figures */
+	private void beginWrite(){
+		sequence++;
+		VarHandle.storeStoreFence(); //the odd number becomes visible before any of the changes
+	}
+
+	/** to be called by a writer (holding the monitor) after changing the figures */
+	private void endWrite(){
+		sequence++; //volatile write, publishes the changes before the even number
+	}
+
+	synchronized public void recordSale(double litersSold, double cost){
+		beginWrite();
+		sales++;
+		liters+=litersSold;
+		revenue+=cost;
+		endWrite();
+	}
+
+	synchronized public void recordCancellationNoGas(){
+		beginWrite();
+		cancellationsNoGas++;
+		endWrite();
+	}
+
+	synchronized public void recordCancellationTooExpensive(){
+		beginWrite();
+		cancellationsTooExpensive++;
+		endWrite();
+	}
+
+	synchronized public void recordAbandoned(){
+		beginWrite();
+		abandoned++;
+		endWrite();
+	}
+
+	/** replaces all figures (e.g. when restoring a station) */
+	synchronized public void restore(Snapshot figures){
+		beginWrite();
+		sales=figures.sales;
+		liters=figures.liters;
+		revenue=figures.revenue;
+		cancellationsNoGas=figures.cancellationsNoGas;
+		cancellationsTooExpensive=figures.cancellationsTooExpensive;
+		abandoned=figures.abandoned;
+		endWrite();
+	}
+
+	/** @return all figures from the same instant, without locking */
+	public Snapshot snapshot(){
+		while(true){
+			long before=sequence;
+			if((before&1)==0){
+				Snapshot figures=new Snapshot(sales, liters, revenue, cancellationsNoGas, cancellationsTooExpensive, abandoned);
+				VarHandle.loadLoadFence(); //the figures are read before the sequence number is checked again
+				if(sequence==before)
+					return figures;
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	/** @return the number of times a writer changed the figures so far */
+	public long getNumberOfUpdates(){
+		return sequence/2;
+	}
+
+}
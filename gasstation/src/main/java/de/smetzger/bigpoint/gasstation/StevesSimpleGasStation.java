@@ -3,9 +3,14 @@ package de.smetzger.bigpoint.gasstation;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
+import de.smetzger.bigpoint.gasstation.jfr.PurchaseEvent;
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal;
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal.Kind;
+
 import net.bigpoint.assessment.gasstation.GasPump;
 import net.bigpoint.assessment.gasstation.GasStation;
 import net.bigpoint.assessment.gasstation.GasType;
@@ -18,22 +23,29 @@ public class StevesSimpleGasStation implements GasStation{
 	protected List<GasPump> pumps=new ArrayList<GasPump>();
 	//and their attendants (each attendant is responsible for a single pump)
 	protected List<PumpAttendant> attendants=new ArrayList<PumpAttendant>();
+	//type, gas left and busy flag of all pumps, scanned to find a matching attendant (changed holding the station lock)
+	protected final PumpStateTable pumpStates=new PumpStateTable();
 	
 	//statistics attributes
-	protected volatile double revenue=0;
-	protected AtomicInteger cancelledTooExpensive=new AtomicInteger();
-	protected AtomicInteger cancelledAllOutaGas=new AtomicInteger();
-	protected AtomicInteger sold=new AtomicInteger();
-	//the prices
-	protected double[] prices=new double[GasType.values().length];
+	protected final StationStatistics statistics=new StationStatistics();
+	protected volatile RollingRates rates=new RollingRates();
+	//the prices (read without locking, updated by publishing a new version)
+	protected PriceBoard prices=new PriceBoard();
+	
+	//optional journal recording every sale and cancellation
+	protected volatile TransactionJournal journal=null;
+	protected final AtomicInteger journalFailures=new AtomicInteger(); //transactions the journal could not take
+	
+	//measures contention on the station lock (switched off by default)
+	protected final LockMonitor locks=new LockMonitor();
+	protected final LockMonitor.Section acquireSection=locks.section("station.acquireMatchingPumpAttendant");
+	protected final LockMonitor.Section freeSection=locks.section("station.freeAttendant");
 	
 	//how long to sleep before trying again to match an attendant to the current request
 	protected final static int sleepTime=100;
 	
 	/** constructor */
 	public StevesSimpleGasStation(){
-		for(int i=0;i<prices.length;i++)
-			prices[i]=0;
 	}
 	
 
@@ -46,8 +58,9 @@ public class StevesSimpleGasStation implements GasStation{
 	 *            the gas pump
 	 */
 	public void addGasPump(GasPump pump) {
+		pumpStates.add(pumps.size(), pump.getGasType(), pump.getRemainingAmount());
+		attendants.add(new PumpAttendant(pump, pumps.size()));
 		pumps.add(pump);	
-		attendants.add(new PumpAttendant(pump));
 	}
 
 	/**
@@ -82,15 +95,23 @@ public class StevesSimpleGasStation implements GasStation{
 			GasTooExpensiveException {
 		
 		PumpAttendant attendant=null;
+		PurchaseEvent event=new PurchaseEvent();
+		event.begin();
+		rates.recordArrival(type);
 		
 		// we continuously try to find an attendant that can handle the current request
 		// until one is found or none can possibly handle the request 
-		while((attendant=acquireMatchingPumpAttendant(type,amountInLiters))==null){				
-			try {
-				Thread.sleep(sleepTime);
-			} catch (InterruptedException e) {
-				// ignore
-			}			
+		try {
+			while((attendant=acquireMatchingPumpAttendant(type,amountInLiters))==null){				
+				try {
+					Thread.sleep(sleepTime);
+				} catch (InterruptedException e) {
+					// ignore
+				}			
+			}
+		} catch (NotEnoughGasException e) {
+			event.finish(type, amountInLiters, maxPricePerLiter, 0, TransactionJournal.NO_PUMP, PurchaseEvent.NOT_ENOUGH_GAS);
+			throw e;
 		}
 		
 		/* retrieves the price (which has been fixed and 
@@ -100,27 +121,32 @@ public class StevesSimpleGasStation implements GasStation{
 		double price=attendant.getAgreedPrice();
 		
 		if(maxPricePerLiter<price){ //check that price is agreeable
-			cancelledTooExpensive.incrementAndGet();
-			freeAttendant(attendant);
+			statistics.recordCancellationTooExpensive();
+			rates.recordRejection(type);
+			try {
+				journal(Kind.CANCELLED_TOO_EXPENSIVE, type, amountInLiters, price, attendant.getAgreedPriceVersion(), attendant.getId());
+			} finally {
+				freeAttendant(attendant);
+			}
+			event.finish(type, amountInLiters, maxPricePerLiter, price, attendant.getId(), PurchaseEvent.TOO_EXPENSIVE);
 			throw new GasTooExpensiveException();
 		}		
 		
-		attendant.pumpGas(amountInLiters);		
-		sold.incrementAndGet();	
-		
-		freeAttendant(attendant);
+		try {
+			attendant.pumpGas(amountInLiters);
+			journal(Kind.SALE, type, amountInLiters, price, attendant.getAgreedPriceVersion(), attendant.getId());
+		} finally { //the attendant never stays busy, or the buyers of his pump wait forever
+			freeAttendant(attendant);
+		}
 		
 		double cost=price*amountInLiters;
-		addRevenue(cost);
+		statistics.recordSale(amountInLiters, cost);
+		rates.recordSale(type, amountInLiters);
+		event.finish(type, amountInLiters, maxPricePerLiter, price, attendant.getId(), PurchaseEvent.SOLD);
 		
 		return cost;
 	}
 	
-	/** adds the cost of a gas purchase to the overall revenue */
-	synchronized protected void addRevenue(double purchaseCost){
-		revenue+=purchaseCost;
-	}
-
 	/** tries to acquire an attendant responsible for a pump 
 	 *  that has enough gas for the given requirements 
 	 *  @return an attendant that can satisfy the customers needs 
@@ -133,35 +159,84 @@ public class StevesSimpleGasStation implements GasStation{
 	 *         still it will eventually throw the exception, 
 	 *         but may wait in some cases until all previous customers 
 	 *         (for the same gas type) are dealt with */
-	synchronized  protected PumpAttendant acquireMatchingPumpAttendant(GasType type, double amountInLiters) 
+	protected PumpAttendant acquireMatchingPumpAttendant(GasType type, double amountInLiters) 
 			throws NotEnoughGasException{
-		//flag that indicates that there is a potentially matching attendant 
-		//that is currently busy with another customer request
-		boolean possibleMatchBusy=false; 
-		
-		for(PumpAttendant attendant:attendants){ //simply check all attendants if they match gas type and have enough gas left
-			if(attendant.getGasType()==type && attendant.getRemainingAmount()>=amountInLiters){				
-				if(attendant.isBusy())  //oh, a match, but he is busy...
-					possibleMatchBusy=true;
-				else{ //oh a match, and available, take it 
-					attendant.reserveForCustomer(amountInLiters,prices[type.ordinal()]);
+		long requested=acquireSection.request();
+		synchronized(this){
+			long acquired=acquireSection.acquired(requested);
+			try{
+				//simply check all pumps if they match gas type and have enough gas left (one scan over the state table)
+				int id=pumpStates.findIdle(type, amountInLiters);
+				if(id>=0){ //oh a match, and available, take it 
+					PumpAttendant attendant=attendants.get(id);
+					attendant.reserveForCustomer(amountInLiters,type,prices.getSnapshot());
+					pumpStates.reserve(id, amountInLiters);
 					return attendant;
-				}				
+				}
+				if(id==PumpStateTable.NONE){ //no match, not even one that is busy, well than we do not have what the customer needs
+					statistics.recordCancellationNoGas();
+					rates.recordRejection(type);
+					PriceBoard.Snapshot currentPrices=prices.getSnapshot();
+					journal(Kind.CANCELLED_NO_GAS, type, amountInLiters, currentPrices.getPrice(type), currentPrices.getVersion(), TransactionJournal.NO_PUMP);
+					throw new NotEnoughGasException();
+				}			
+				else 
+					return null;
+			}finally{
+				acquireSection.released(acquired);
 			}
 		}
-		if(!possibleMatchBusy){ //no match, not even one that is busy, well than we do not have what the customer needs
-			cancelledAllOutaGas.incrementAndGet();
-			throw new NotEnoughGasException();
-		}			
-		else 
-			return null;
+	}
+	
+	/** @return the state table of the pumps (e.g. to measure its memory footprint) */
+	public PumpStateTable getPumpStateTable(){
+		return pumpStates;
+	}
+	
+	/** switches measuring the lock contention on or off */
+	public void setLockMonitoring(boolean enabled){
+		locks.setEnabled(enabled);
+	}
+	
+	/** @return acquisitions, wait and hold times of the critical sections, the most contended first
+	 *  (all 0 unless lock monitoring is switched on) */
+	public List<LockStatistics> getLockStatistics(){
+		return locks.getStatistics();
+	}
+	
+	/** sets a journal that records every sale and cancellation from now on (null switches journaling off) */
+	public void setJournal(TransactionJournal journal){
+		this.journal=journal;
+	}
+	
+	/** appends a transaction to the journal, if there is one.
+	 *  a journal that fails (closed or cannot be extended) does not fail the purchase, the failure is only counted */
+	protected void journal(Kind kind, GasType type, double liters, double price, long priceVersion, int pump){
+		TransactionJournal j=journal;
+		if(j!=null)
+			try {
+				j.append(kind, type, liters, price, priceVersion, pump);
+			} catch (IllegalStateException e) {
+				journalFailures.incrementAndGet();
+			}
+	}
+	
+	/** @return number of transactions that could not be appended to the journal */
+	public int getNumberOfJournalFailures(){
+		return journalFailures.get();
 	}
 	
 	/** frees up an attendant after he served a customer 
 	 *  (or after the customer aborted the service since the gas was too expensive) 
 	 */
-	synchronized protected void freeAttendant(PumpAttendant attendant){
-		attendant.setBusy(false);
+	protected void freeAttendant(PumpAttendant attendant){
+		long requested=freeSection.request();
+		synchronized(this){
+			long acquired=freeSection.acquired(requested);
+			attendant.setBusy(false);
+			pumpStates.release(attendant.getId(), attendant.getRemainingAmount());
+			freeSection.released(acquired);
+		}
 	}
 	
 	
@@ -169,7 +244,7 @@ public class StevesSimpleGasStation implements GasStation{
 	 * @return the total revenue generated
 	 */
 	public double getRevenue() {
-		return revenue;
+		return statistics.snapshot().getRevenue();
 	}
 
 	/**
@@ -178,14 +253,14 @@ public class StevesSimpleGasStation implements GasStation{
 	 * @return the number of sales that were successful
 	 */
 	public int getNumberOfSales() {
-		return sold.get();
+		return statistics.snapshot().getNumberOfSales();
 	}
 
 	/**
 	 * @return the number of cancelled transactions due to not enough gas being available
 	 */
 	public int getNumberOfCancellationsNoGas() {
-		return cancelledAllOutaGas.get();
+		return statistics.snapshot().getNumberOfCancellationsNoGas();
 	}
 
 	/**
@@ -194,7 +269,22 @@ public class StevesSimpleGasStation implements GasStation{
 	 * @return the number of cancelled transactions
 	 */
 	public int getNumberOfCancellationsTooExpensive() {
-		return cancelledTooExpensive.get();
+		return statistics.snapshot().getNumberOfCancellationsTooExpensive();
+	}
+	
+	/** @return all sales figures from the same instant (without locking) */
+	public StationStatistics.Snapshot getStatistics() {
+		return statistics.snapshot();
+	}
+	
+	/** @return arrivals, sales, liters and rejections per second and gas type over sliding windows */
+	public RollingRates getRollingRates() {
+		return rates;
+	}
+	
+	/** replaces the rolling rates by empty ones with the given resolution and longest window */
+	public void setRollingRates(long bucketMillis, int buckets) {
+		rates=new RollingRates(bucketMillis, buckets);
 	}
 
 	
@@ -205,8 +295,8 @@ public class StevesSimpleGasStation implements GasStation{
 	 *            the type of gas
 	 * @return the price per liter for this type of gas
 	 */
-	synchronized public double getPrice(GasType type) {
-		return prices[type.ordinal()];
+	public double getPrice(GasType type) {
+		return prices.getPrice(type);
 	}
 
 	
@@ -218,8 +308,19 @@ public class StevesSimpleGasStation implements GasStation{
 	 * @param price
 	 *            the new price per liter for this type of gas
 	 */
-	synchronized public void setPrice(GasType type, double price) {
-		prices[type.ordinal()]=price;		
+	public void setPrice(GasType type, double price) {
+		prices.setPrice(type, price);		
+	}
+	
+	/** sets the prices of several gas types in one atomic update
+	 *  (customers either see all old or all new prices) */
+	public void setPrices(Map<GasType, Double> newPrices) {
+		prices.setPrices(newPrices);
+	}
+	
+	/** @return the currently valid prices including their version */
+	public PriceBoard.Snapshot getPriceSnapshot() {
+		return prices.getSnapshot();
 	}
 
 	
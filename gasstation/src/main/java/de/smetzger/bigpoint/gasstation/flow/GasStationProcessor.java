@@ -0,0 +1,301 @@
+package de.smetzger.bigpoint.gasstation.flow;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+
+import de.smetzger.bigpoint.gasstation.AsyncGasStation;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/** connects a station to a stream of purchases:
+ *  subscribes to a publisher of {@link PurchaseRequest}s, hands them to the station without blocking a thread per purchase
+ *  and publishes a {@link PurchaseResult} for each of them (in the order the purchases finish).
+ *
+ *  demand is signalled according to the free queue capacity of the station:
+ *  every pump takes up to a given number of purchases at a time, so a gas type has (pumps of that type x slots) slots.
+ *  a purchase occupies a slot of its gas type from its arrival until its result was passed on downstream.
+ *  as the gas type of the next purchase is not known in advance, only as many purchases are requested
+ *  as the gas type with the fewest free slots could take; a slow or missing downstream subscriber stops the intake as well.
+ *  gas types without any pump are not limited, the station rejects those purchases right away.
+ *  the slots are calculated from the pumps the station has whenever more purchases may be requested
+ *  (so pumps added later count as well), pumps that ran dry take none. they only bound the purchases of this processor,
+ *  customers the station gets from elsewhere are not accounted for.
+ *  a purchase the station refuses right away (e.g. while it is draining) is published as {@link Outcome#FAILED}.
+ */
+public class GasStationProcessor implements Flow.Processor<PurchaseRequest, PurchaseResult> {
+
+	/** default number of purchases a single pump takes at a time */
+	public static final int DEFAULT_SLOTS_PER_PUMP=4;
+
+	protected final AsyncGasStation station;
+	protected final int slotsPerPump;
+
+	//slots per gas type (0 if the station has no pump of that type), updated before requesting purchases
+	protected final int[] capacity=new int[GasType.values().length];
+	//purchases per gas type that were received but whose result was not passed on yet
+	protected final int[] pending=new int[GasType.values().length];
+
+	private Flow.Subscription upstream=null;
+	private long outstanding=0; //requested from upstream, not received yet
+	private boolean upstreamDone=false;
+	private Throwable upstreamError=null;
+
+	private Flow.Subscriber<? super PurchaseResult> downstream=null;
+	private long downstreamDemand=0;
+	private boolean cancelled=false;
+	private boolean terminated=false;
+	private Throwable violation=null; //downstream broke the rules
+	private final ArrayDeque<PurchaseResult> results=new ArrayDeque<PurchaseResult>();
+
+	//only one thread at a time signals subscribers, the others just leave a note
+	private boolean draining=false;
+	private boolean missed=false;
+
+	public GasStationProcessor(AsyncGasStation station){
+		this(station, DEFAULT_SLOTS_PER_PUMP);
+	}
+
+	/** constructor
+	 *  @param slotsPerPump	number of purchases every pump takes at a time */
+	public GasStationProcessor(AsyncGasStation station, int slotsPerPump){
+		if(slotsPerPump<1)
+			throw new IllegalArgumentException("at least one slot per pump needed");
+		this.station=station;
+		this.slotsPerPump=slotsPerPump;
+		updateCapacity();
+	}
+
+	/** counts the slots of the pumps of the station that still have gas (called holding the lock) */
+	private void updateCapacity(){
+		Arrays.fill(capacity, 0);
+		for(GasPump pump:station.getGasPumps())
+			if(pump.getRemainingAmount()>0)
+				capacity[pump.getGasType().ordinal()]+=slotsPerPump;
+	}
+
+	/** @return the index of the slots the purchase occupies, -1 if it has no gas type (it occupies none then) */
+	private static int slot(PurchaseRequest request){
+		return (request.getGasType()==null)?-1:request.getGasType().ordinal();
+	}
+
+	// ---- subscriber side (purchases coming in) ----
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		synchronized(this){
+			if(upstream==null && !cancelled){
+				upstream=subscription;
+				subscription=null;
+			}
+		}
+		if(subscription!=null){ //only one publisher at a time
+			subscription.cancel();
+			return;
+		}
+		drain();
+	}
+
+	@Override
+	public void onNext(final PurchaseRequest request) {
+		synchronized(this){
+			outstanding--;
+			if(slot(request)>=0)
+				pending[slot(request)]++;
+		}
+		CompletableFuture<Double> purchase;
+		try {
+			purchase=station.buyGasAsync(request.getGasType(), request.getLiters(), request.getMaxPricePerLiter());
+		} catch (RuntimeException e) { //refused right away, must not be thrown at the publisher
+			publish(new PurchaseResult(request, Outcome.FAILED, 0, e));
+			return;
+		}
+		purchase.whenComplete(new BiConsumer<Double, Throwable>(){
+			@Override
+			public void accept(Double cost, Throwable failure) {
+				publish(toResult(request, cost, failure));
+			}
+		});
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		synchronized(this){
+			upstreamDone=true;
+			upstreamError=throwable;
+		}
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		synchronized(this){
+			upstreamDone=true;
+		}
+		drain();
+	}
+
+	/** maps the outcome of the station's future to a result */
+	protected PurchaseResult toResult(PurchaseRequest request, Double cost, Throwable failure){
+		if(failure instanceof CompletionException && failure.getCause()!=null)
+			failure=failure.getCause();
+		if(failure==null)
+			return new PurchaseResult(request, Outcome.SOLD, cost, null);
+		if(failure instanceof NotEnoughGasException)
+			return new PurchaseResult(request, Outcome.NOT_ENOUGH_GAS, 0, null);
+		if(failure instanceof GasTooExpensiveException)
+			return new PurchaseResult(request, Outcome.TOO_EXPENSIVE, 0, null);
+		return new PurchaseResult(request, Outcome.FAILED, 0, failure);
+	}
+
+	private void publish(PurchaseResult result){
+		synchronized(this){
+			results.add(result);
+		}
+		drain();
+	}
+
+	// ---- publisher side (results going out) ----
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super PurchaseResult> subscriber) {
+		boolean accepted;
+		synchronized(this){
+			accepted=(downstream==null);
+			if(accepted)
+				downstream=subscriber;
+		}
+		if(!accepted){
+			subscriber.onSubscribe(new Flow.Subscription(){
+				public void request(long n) {}
+				public void cancel() {}
+			});
+			subscriber.onError(new IllegalStateException("only one subscriber supported"));
+			return;
+		}
+		subscriber.onSubscribe(new Flow.Subscription(){
+			@Override
+			public void request(long n) {
+				synchronized(GasStationProcessor.this){
+					if(n<=0)
+						violation=new IllegalArgumentException("non-positive request: "+n);
+					else
+						downstreamDemand=(downstreamDemand+n<0)?Long.MAX_VALUE:downstreamDemand+n;
+				}
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				Flow.Subscription up;
+				synchronized(GasStationProcessor.this){
+					cancelled=true;
+					results.clear();
+					up=upstream;
+				}
+				if(up!=null)
+					up.cancel();
+			}
+		});
+		drain();
+	}
+
+	/** @return number of purchases that were received but whose results were not passed on yet */
+	synchronized public int getNumberOfPendingPurchases(){
+		int count=0;
+		for(int p:pending)
+			count+=p;
+		return count;
+	}
+
+	/** @return how many more purchases may be requested from upstream right now */
+	private long freeSlots(){
+		updateCapacity();
+		long free=Long.MAX_VALUE;
+		boolean anyPump=false;
+		for(int i=0;i<capacity.length;i++)
+			if(capacity[i]>0){
+				anyPump=true;
+				free=Math.min(free, capacity[i]-pending[i]);
+			}
+		return anyPump?free:1;
+	}
+
+	/** passes results on as far as downstream asked for them, completes downstream at the end
+	 *  and requests more purchases from upstream as slots become free.
+	 *  subscribers are always called without holding the lock, and never by two threads at a time */
+	private void drain(){
+		synchronized(this){
+			if(draining){
+				missed=true;
+				return;
+			}
+			draining=true;
+		}
+		while(true){
+			Flow.Subscriber<? super PurchaseResult> subscriber;
+			Flow.Subscription up;
+			PurchaseResult next=null;
+			boolean terminate=false;
+			Throwable error=null;
+			long request=0;
+			synchronized(this){
+				subscriber=downstream;
+				up=upstream;
+				boolean active=(subscriber!=null && !cancelled && !terminated);
+				if(active && violation!=null){
+					terminated=terminate=true;
+					error=violation;
+				}
+				else if(active && downstreamDemand>0 && !results.isEmpty()){
+					next=results.poll();
+					downstreamDemand--;
+					if(slot(next.getRequest())>=0)
+						pending[slot(next.getRequest())]--;
+				}
+				else if(active && upstreamDone && getNumberOfPendingPurchases()==0){
+					terminated=terminate=true;
+					error=upstreamError;
+				}
+				else{
+					if(up!=null && !upstreamDone && !cancelled){
+						long free=freeSlots();
+						if(free>outstanding){
+							request=free-outstanding;
+							outstanding=free;
+						}
+					}
+					if(request==0){
+						if(!missed){
+							draining=false;
+							return;
+						}
+						missed=false;
+						continue;
+					}
+				}
+			}
+			if(next!=null)
+				subscriber.onNext(next);
+			else if(terminate){
+				if(error==null)
+					subscriber.onComplete();
+				else{
+					subscriber.onError(error);
+					if(up!=null)
+						up.cancel();
+				}
+			}
+			else
+				up.request(request);
+		}
+	}
+
+}
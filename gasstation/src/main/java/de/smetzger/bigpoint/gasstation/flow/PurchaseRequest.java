@@ -0,0 +1,43 @@
+package de.smetzger.bigpoint.gasstation.flow;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** a purchase as it arrives from a stream of messages */
+public class PurchaseRequest {
+
+	protected final long id;
+	protected final GasType gasType;
+	protected final double liters;
+	protected final double maxPricePerLiter;
+
+	/** constructor
+	 *  @param id	any id of the caller, handed back with the result (e.g. a message id) */
+	public PurchaseRequest(long id, GasType gasType, double liters, double maxPricePerLiter){
+		this.id=id;
+		this.gasType=gasType;
+		this.liters=liters;
+		this.maxPricePerLiter=maxPricePerLiter;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public GasType getGasType() {
+		return gasType;
+	}
+
+	public double getLiters() {
+		return liters;
+	}
+
+	public double getMaxPricePerLiter() {
+		return maxPricePerLiter;
+	}
+
+	@Override
+	public String toString(){
+		return "[#"+id+" gas: "+gasType+", liters: "+liters+", price: "+maxPricePerLiter+"]";
+	}
+
+}
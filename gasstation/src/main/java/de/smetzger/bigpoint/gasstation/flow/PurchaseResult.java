@@ -0,0 +1,43 @@
+package de.smetzger.bigpoint.gasstation.flow;
+
+/** the outcome of a {@link PurchaseRequest} */
+public class PurchaseResult {
+
+	public enum Outcome {SOLD, NOT_ENOUGH_GAS, TOO_EXPENSIVE, FAILED}
+
+	protected final PurchaseRequest request;
+	protected final Outcome outcome;
+	protected final double cost;
+	protected final Throwable failure;
+
+	public PurchaseResult(PurchaseRequest request, Outcome outcome, double cost, Throwable failure){
+		this.request=request;
+		this.outcome=outcome;
+		this.cost=cost;
+		this.failure=failure;
+	}
+
+	public PurchaseRequest getRequest() {
+		return request;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/** @return the price paid for the purchase (0 unless sold) */
+	public double getCost() {
+		return cost;
+	}
+
+	/** @return the unexpected exception of a FAILED purchase, null otherwise */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	@Override
+	public String toString(){
+		return "["+request+" -> "+outcome+(outcome==Outcome.SOLD?" "+cost:"")+"]";
+	}
+
+}
@@ -0,0 +1,105 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+import java.util.Arrays;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** decides per gas type whether the greedy station reorganizes its queues for a misfit (full optimization)
+ *  or simply rejects him like the simple station would do (first fit), to keep the reorganization latency bounded.
+ *
+ *  the latencies of the last reorganizations are sampled, when their 99th percentile exceeds the bound the gas type
+ *  switches to first fit, remembering how many customers the overloaded reorganizations had to consider.
+ *  it switches back (hysteresis) only after a minimal time and once the pending customers dropped well below that number.
+ *  while optimizing, a reorganization is not even started for as many customers as caused the overload before.
+ */
+public class AdaptiveStrategy {
+
+	public enum Mode {OPTIMIZE, FIRST_FIT}
+
+	protected static final int SAMPLES=128;
+
+	/** state per gas type */
+	protected static class TypeState {
+		Mode mode=Mode.OPTIMIZE;
+		long[] latencies=new long[SAMPLES];
+		int count=0;	//samples taken (the last SAMPLES are kept)
+		int overloadSize=Integer.MAX_VALUE; //customers considered when the bound was exceeded
+		long lastSwitch=0;
+		int switches=0;
+	}
+
+	protected final long latencyBoundNanos;
+	protected final double hysteresis;
+	protected final long minDwellNanos;
+	protected final TypeState[] states=new TypeState[GasType.values().length];
+
+	/** @param latencyBoundNanos	bound for the 99th percentile of the reorganization latency
+	 *  @param hysteresis			optimizing is resumed once the pending customers drop to this fraction of the overload size (0..1)
+	 *  @param minDwellMillis		minimal time spent in first fit mode */
+	public AdaptiveStrategy(long latencyBoundNanos, double hysteresis, long minDwellMillis){
+		if(latencyBoundNanos<=0 || hysteresis<=0 || hysteresis>=1)
+			throw new IllegalArgumentException("positive bound and hysteresis between 0 and 1 expected");
+		this.latencyBoundNanos=latencyBoundNanos;
+		this.hysteresis=hysteresis;
+		this.minDwellNanos=minDwellMillis*1000000;
+		for(int i=0;i<states.length;i++)
+			states[i]=new TypeState();
+	}
+
+	/** @param pendingCustomers	customers currently queued for the gas type (the misfit not included)
+	 *  @return true if the queues should be reorganized for a misfit, false if he should be rejected */
+	synchronized public boolean shouldOptimize(GasType type, int pendingCustomers){
+		TypeState state=states[type.ordinal()];
+		int size=pendingCustomers+1;
+		long now=System.nanoTime();
+		if(state.mode==Mode.OPTIMIZE && size>=state.overloadSize)
+			switchTo(state, Mode.FIRST_FIT, now);
+		else if(state.mode==Mode.FIRST_FIT && now-state.lastSwitch>=minDwellNanos && size<=state.overloadSize*hysteresis){
+			switchTo(state, Mode.OPTIMIZE, now);
+			state.count=0; //measure afresh
+		}
+		return state.mode==Mode.OPTIMIZE;
+	}
+
+	/** records the latency of a reorganization
+	 *  @param customersConsidered	customers that were (re)assigned */
+	synchronized public void recordReorganization(GasType type, int customersConsidered, long nanos){
+		TypeState state=states[type.ordinal()];
+		state.latencies[state.count%SAMPLES]=nanos;
+		state.count++;
+		if(state.mode==Mode.OPTIMIZE && percentile(state, 0.99)>latencyBoundNanos){
+			state.overloadSize=customersConsidered;
+			switchTo(state, Mode.FIRST_FIT, System.nanoTime());
+		}
+	}
+
+	private void switchTo(TypeState state, Mode mode, long now){
+		state.mode=mode;
+		state.lastSwitch=now;
+		state.switches++;
+	}
+
+	private static long percentile(TypeState state, double p){
+		int n=Math.min(state.count, SAMPLES);
+		if(n==0)
+			return 0;
+		long[] sorted=Arrays.copyOf(state.latencies, n);
+		Arrays.sort(sorted);
+		return sorted[Math.min(n-1, (int)Math.ceil(p*n)-1)];
+	}
+
+	synchronized public Mode getMode(GasType type){
+		return states[type.ordinal()].mode;
+	}
+
+	/** @return the 99th percentile of the sampled reorganization latencies in nanos */
+	synchronized public long getLatencyP99(GasType type){
+		return percentile(states[type.ordinal()], 0.99);
+	}
+
+	/** @return how often the mode of the gas type changed */
+	synchronized public int getNumberOfSwitches(GasType type){
+		return states[type.ordinal()].switches;
+	}
+
+}
@@ -0,0 +1,97 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+import java.util.Arrays;
+
+/** fully polynomial approximation scheme for selecting customers at a pump, 
+ *  i.e. the knapsack problem where the value of a customer equals the liters he takes.
+ *
+ *  the liters are scaled down by K=epsilon*maxLiters/n and rounded, then a dynamic program over the scaled values
+ *  computes the least liters needed for every reachable scaled value. the best value that fits is at least (1-epsilon) times
+ *  the optimum. running time and memory are O(n*Q) with Q <= min(n^2/epsilon, capacity/K).
+ *  customers too small to count after scaling are added afterwards, as long as they still fit.
+ */
+public class ApproximateKnapsack {
+
+	private ApproximateKnapsack(){
+	}
+
+	/** @param liters	the liters each customer wants
+	 *  @param capacity	the liters available at the pump
+	 *  @param epsilon	the accepted loss, 0 &lt; epsilon &lt; 1
+	 *  @return which customers are selected */
+	public static boolean[] solve(double[] liters, double capacity, double epsilon){
+		if(epsilon<=0 || epsilon>=1)
+			throw new IllegalArgumentException("epsilon has to be between 0 and 1");
+		int n=liters.length;
+		boolean[] selected=new boolean[n];
+
+		//customers that do not fit on their own are never selected
+		double max=0;
+		int fitting=0;
+		for(double l:liters)
+			if(l<=capacity && l>0){
+				max=Math.max(max, l);
+				fitting++;
+			}
+		if(fitting==0)
+			return selected;
+
+		double k=epsilon*max/fitting;
+		int[] scaled=new int[n];
+		long total=0;
+		for(int i=0;i<n;i++)
+			if(liters[i]<=capacity && liters[i]>0){
+				scaled[i]=(int)Math.floor(liters[i]/k);
+				total+=scaled[i];
+			}
+		//a set that fits has at most capacity/k scaled value
+		int q=(int)Math.min(total, (long)Math.floor(capacity/k));
+
+		//minLiters[v]: least liters needed to reach scaled value v, taken[i] marks values improved by customer i
+		double[] minLiters=new double[q+1];
+		Arrays.fill(minLiters, Double.MAX_VALUE);
+		minLiters[0]=0;
+		long[][] taken=new long[n][];
+		int reachable=0;
+		for(int i=0;i<n;i++){
+			if(scaled[i]==0) //does not fit or too small to count, see filling up below
+				continue;
+			taken[i]=new long[(q>>6)+1];
+			int s=scaled[i];
+			for(int v=Math.min(q, reachable+s);v>=s;v--){
+				double candidate=minLiters[v-s]+liters[i];
+				if(candidate<minLiters[v] && candidate<=capacity){
+					minLiters[v]=candidate;
+					taken[i][v>>6]|=1L<<(v&63);
+				}
+			}
+			reachable=Math.min(q, reachable+s);
+		}
+
+		//best reachable value, ties broken by fewer liters
+		int best=0;
+		for(int v=q;v>0;v--)
+			if(minLiters[v]<=capacity){
+				best=v;
+				break;
+			}
+
+		//walk back through the customers to recover the set
+		double used=minLiters[best];
+		for(int i=n-1;i>=0 && best>0;i--){
+			if(taken[i]==null || (taken[i][best>>6]&(1L<<(best&63)))==0)
+				continue;
+			selected[i]=true;
+			best-=scaled[i];
+		}
+		
+		//fill up the rest with customers whose liters were lost by rounding (or just did not make it)
+		for(int i=0;i<n;i++)
+			if(!selected[i] && liters[i]>0 && used+liters[i]<=capacity){
+				selected[i]=true;
+				used+=liters[i];
+			}
+		return selected;
+	}
+
+}
@@ -0,0 +1,179 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** the attendants of one gas type, kept in the order they were added.
+ *
+ *  for stations with thousands of pumps the registry answers capacity queries in O(log n) instead of scanning all attendants:
+ *  a segment tree holds the maximum remaining amount and the maximum amount left after queue processing,
+ *  so the largest amounts are read from the root and the first attendant that can take a customer is found by descending the tree.
+ *  attendants report every change of their amounts ({@link #update(int)}), which costs O(log n) under the (short) registry lock.
+ *  the largest amounts and the number of queued customers can also be read without any locking.
+ *
+ *  for reorganizations the registry provides a separate sorted view of the attendants ({@link #sortedForSolving()}),
+ *  the registration order itself never changes.
+ */
+public class AttendantRegistry implements Iterable<QueueingPumpAttendant> {
+
+	//all attendants in registration order (copy on write, as pumps are added rarely)
+	private volatile QueueingPumpAttendant[] members=new QueueingPumpAttendant[0];
+
+	//segment trees over the slots (leaves start at index 'leaves', unused leaves hold -1)
+	private int leaves=1;
+	private double[] maxRemaining=new double[]{-1, -1};
+	private double[] maxQueueable=new double[]{-1, -1};
+	//queue length per slot, to keep the total up to date
+	private int[] queueLengths=new int[1];
+
+	private volatile double rootRemaining=0;
+	private volatile double rootQueueable=0;
+	private volatile int queued=0;
+
+	//view for solving: reused slots, sorted by the amount left after queue processing at the time of sorting
+	private static final class Slot {
+		QueueingPumpAttendant attendant;
+		double key;
+	}
+	private Slot[] slots=new Slot[0];
+	private QueueingPumpAttendant[] sorted=new QueueingPumpAttendant[0];
+	private static final Comparator<Slot> byKey=new Comparator<Slot>(){
+		@Override
+		public int compare(Slot o1, Slot o2) {
+			return Double.compare(o1.key, o2.key);
+		}
+	};
+
+	/** adds an attendant and tells him his slot */
+	synchronized public void add(QueueingPumpAttendant attendant){
+		int slot=members.length;
+		if(slot==leaves)
+			grow();
+		QueueingPumpAttendant[] extended=Arrays.copyOf(members, slot+1);
+		extended[slot]=attendant;
+		members=extended;
+		attendant.register(this, slot);
+		update(slot);
+	}
+
+	/** doubles the number of leaves and rebuilds the trees */
+	private void grow(){
+		int oldLeaves=leaves;
+		leaves*=2;
+		double[] remaining=new double[2*leaves];
+		double[] queueable=new double[2*leaves];
+		Arrays.fill(remaining, -1);
+		Arrays.fill(queueable, -1);
+		System.arraycopy(maxRemaining, oldLeaves, remaining, leaves, oldLeaves);
+		System.arraycopy(maxQueueable, oldLeaves, queueable, leaves, oldLeaves);
+		for(int i=leaves-1;i>0;i--){
+			remaining[i]=Math.max(remaining[2*i], remaining[2*i+1]);
+			queueable[i]=Math.max(queueable[2*i], queueable[2*i+1]);
+		}
+		maxRemaining=remaining;
+		maxQueueable=queueable;
+		queueLengths=Arrays.copyOf(queueLengths, leaves);
+	}
+
+	/** takes over the current amounts of the attendant in the given slot, O(log n) */
+	synchronized public void update(int slot){
+		QueueingPumpAttendant a=members[slot];
+		int node=leaves+slot;
+		maxRemaining[node]=a.getRemainingAmount();
+		maxQueueable[node]=a.getRemainingAmountAfterQueueProcessing();
+		for(node/=2;node>0;node/=2){
+			maxRemaining[node]=Math.max(maxRemaining[2*node], maxRemaining[2*node+1]);
+			maxQueueable[node]=Math.max(maxQueueable[2*node], maxQueueable[2*node+1]);
+		}
+		rootRemaining=Math.max(0, maxRemaining[1]);
+		rootQueueable=Math.max(0, maxQueueable[1]);
+		int length=a.getQueueLength();
+		queued+=length-queueLengths[slot];
+		queueLengths[slot]=length;
+	}
+
+	/** @return the largest amount left in any pump (no locking) */
+	public double getMaxRemainingAmount(){
+		return rootRemaining;
+	}
+
+	/** @return the largest amount any attendant could still queue a customer for (no locking) */
+	public double getMaxQueueableAmount(){
+		return rootQueueable;
+	}
+
+	/** @return the number of customers queued at all attendants (no locking) */
+	public int getNumberOfQueuedCustomers(){
+		return queued;
+	}
+
+	/** @return the first attendant (in registration order) that can queue a customer wanting the given amount,
+	 *          or null if there is none; O(log n) */
+	synchronized public QueueingPumpAttendant firstFit(double liters){
+		if(maxQueueable[1]<liters)
+			return null;
+		int node=1;
+		while(node<leaves)
+			node=(maxQueueable[2*node]>=liters)?2*node:2*node+1;
+		return members[node-leaves];
+	}
+
+	public int size(){
+		return members.length;
+	}
+
+	public QueueingPumpAttendant get(int index){
+		return members[index];
+	}
+
+	/** iterates over the attendants in registration order (as registered when the iteration starts) */
+	@Override
+	public Iterator<QueueingPumpAttendant> iterator(){
+		final QueueingPumpAttendant[] snapshot=members;
+		return new Iterator<QueueingPumpAttendant>(){
+			private int next=0;
+
+			@Override
+			public boolean hasNext() {
+				return next<snapshot.length;
+			}
+
+			@Override
+			public QueueingPumpAttendant next() {
+				if(next>=snapshot.length)
+					throw new NoSuchElementException();
+				return snapshot[next++];
+			}
+		};
+	}
+
+	/** returns the attendants sorted by the amount left after queue processing (ascending),
+	 *  taken once before sorting, so attendants pumping gas meanwhile do not disturb the order.
+	 *  the returned list is backed by an array reused by the next call;
+	 *  to be called holding the station lock */
+	public List<QueueingPumpAttendant> sortedForSolving(){
+		QueueingPumpAttendant[] current=members;
+		int n=current.length;
+		if(slots.length<n){
+			Slot[] more=Arrays.copyOf(slots, n);
+			for(int i=slots.length;i<n;i++)
+				more[i]=new Slot();
+			slots=more;
+			sorted=new QueueingPumpAttendant[n];
+		}
+		for(int i=0;i<n;i++){
+			slots[i].attendant=current[i];
+			slots[i].key=current[i].getRemainingAmountAfterQueueProcessing();
+		}
+		Arrays.sort(slots, 0, n, byKey);
+		for(int i=0;i<n;i++){
+			sorted[i]=slots[i].attendant;
+			slots[i].attendant=null;
+		}
+		return Arrays.asList(sorted).subList(0, n);
+	}
+
+}
@@ -0,0 +1,95 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** a bounded pool of worker threads serving the queues of the attendants (of any number of stations).
+ *  an attendant is only scheduled when he has work, i.e. customers in his queue,
+ *  and stays on his worker until his queue is empty and there is nothing to take over from busy attendants.
+ *
+ *  the workers are daemon threads that end after being idle for a while,
+ *  so stations that are not used (or not closed) do not keep any threads.
+ *  as pumping gas blocks the worker for the pumping time, the number of threads bounds
+ *  the number of pumps pumping at the same time (over all stations using the scheduler).
+ *  besides, a single timer thread runs the stations' work that is due later (e.g. at the end of a reorganization window).
+ */
+public class AttendantScheduler {
+
+	/** number of worker threads of the shared scheduler (system property gasstation.attendantThreads) */
+	public static final int DEFAULT_THREADS=Integer.getInteger("gasstation.attendantThreads",
+			Math.max(64, 4*Runtime.getRuntime().availableProcessors()));
+	/** how long an idle worker is kept */
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS=1000;
+
+	private static AttendantScheduler shared=null;
+
+	protected final ThreadPoolExecutor workers;
+	protected final ScheduledThreadPoolExecutor timer;
+
+	/** constructor
+	 *  @param threads			maximal number of workers
+	 *  @param keepAliveMillis	time after which an idle worker ends */
+	public AttendantScheduler(int threads, long keepAliveMillis){
+		if(threads<1)
+			throw new IllegalArgumentException("at least one thread needed");
+		final AtomicInteger count=new AtomicInteger();
+		workers=new ThreadPoolExecutor(threads, threads, keepAliveMillis, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "pump-attendant-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		workers.allowCoreThreadTimeOut(true);
+		timer=new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "station-timer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer.setKeepAliveTime(keepAliveMillis, TimeUnit.MILLISECONDS);
+		timer.allowCoreThreadTimeOut(true);
+	}
+
+	/** @return the scheduler used by stations created without one */
+	synchronized public static AttendantScheduler getShared(){
+		if(shared==null)
+			shared=new AttendantScheduler(DEFAULT_THREADS, DEFAULT_KEEP_ALIVE_MILLIS);
+		return shared;
+	}
+
+	/** runs the given attendant on a worker, as soon as one is free */
+	public void schedule(QueueingPumpAttendant attendant){
+		workers.execute(attendant);
+	}
+
+	/** runs the given task on the timer thread after the delay (it must not block for long) */
+	public void runLater(Runnable task, long delayMillis){
+		timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** @return the maximal number of workers */
+	public int getMaximumThreads(){
+		return workers.getMaximumPoolSize();
+	}
+
+	/** @return the number of workers alive right now */
+	public int getThreads(){
+		return workers.getPoolSize();
+	}
+
+	/** stops the workers once the attendants scheduled are done (not to be called on the shared scheduler) */
+	public void shutdown(){
+		workers.shutdown();
+		timer.shutdown();
+	}
+
+}
@@ -1,5 +1,8 @@
 package de.smetzger.bigpoint.gasstation.greedy;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
 import net.bigpoint.assessment.gasstation.GasType;
 
 
@@ -8,15 +11,32 @@ import net.bigpoint.assessment.gasstation.GasType;
  *  (plus the state of the request processing) */
 public class Customer {
 	// models the state a customer might be in 
-	// (either waiting, already completely served or 
-	//  determined to have a request that cannot be met)
-	public enum State {InProcess, Served, CannotBeServed}
+	// (either waiting, already completely served, 
+	//  determined to have a request that cannot be met or gone before being served)
+	public enum State {InProcess, Served, CannotBeServed, Abandoned}
 	protected volatile State state=State.InProcess;
 	
+	//numbers the customers in the order they arrive (breaks ties of the queue disciplines)
+	private static final AtomicLong arrivals=new AtomicLong();
+	protected final long sequence=arrivals.incrementAndGet();
+	
 	protected double litersWanted;
 	protected double maxPricePaid;
 	protected GasType gasType;
 	
+	//the price fixed for this customer and the version of the price board it was taken from
+	protected double agreedPrice;
+	protected long priceVersion=-1;
+	
+	//id of the pump that serves this customer (-1 as long as no pump started serving him)
+	protected volatile int pump=-1;
+	
+	//System.nanoTime() until which the customer waits (Long.MAX_VALUE if he waits as long as it takes)
+	protected long deadline=Long.MAX_VALUE;
+	
+	//completed once the customer is done, for callers that do not wait on the station (null if nobody asked)
+	protected volatile CompletableFuture<Customer> completion=null;
+	
 	
 	public Customer(GasType gastype, double liters, double price){
 		litersWanted=liters;
@@ -38,12 +58,75 @@ public class Customer {
 		return gasType;
 	}
 
+	/** fixes the price for this customer at the given price board version */
+	public void fixPrice(double price, long version) {
+		agreedPrice=price;
+		priceVersion=version;
+	}
+
+	public double getAgreedPrice() {
+		return agreedPrice;
+	}
+
+	/** @return the price board version the price was fixed at, or -1 if not fixed yet */
+	public long getPriceVersion() {
+		return priceVersion;
+	}
+
+	/** @return the position of the customer in the order of arrival */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/** @param deadline	System.nanoTime() at which the customer leaves if not served yet */
+	public void setDeadline(long deadline) {
+		this.deadline=deadline;
+	}
+	
+	/** sets the deadline the given time from now; a timeout reaching beyond what System.nanoTime() can represent
+	 *  (e.g. TimeUnit.toNanos of a huge timeout, which saturates at Long.MAX_VALUE) means no deadline at all */
+	public void setTimeout(long timeoutNanos) {
+		long now=System.nanoTime();
+		long deadline=now+timeoutNanos;
+		this.deadline=(timeoutNanos>0 && deadline<now)?Long.MAX_VALUE:deadline; //overflow
+	}
+	
+	/** @return true if the customer leaves at some point (see {@link #getDeadline()}) */
+	public boolean hasDeadline() {
+		return deadline!=Long.MAX_VALUE;
+	}
+
+	public int getPump() {
+		return pump;
+	}
+
+	public void setPump(int pump) {
+		this.pump=pump;
+	}
+
 	public State getState() {
 		return state;
 	}	
 
 	public void setState(State newState) {
 		state=newState;
+		CompletableFuture<Customer> f=completion;
+		if(f!=null && newState!=State.InProcess)
+			f.complete(this);
+	}
+	
+	/** @return a future that is completed with this customer once he is served or cannot be served */
+	synchronized public CompletableFuture<Customer> completion() {
+		if(completion==null){
+			completion=new CompletableFuture<Customer>();
+			if(state!=State.InProcess)
+				completion.complete(this);
+		}
+		return completion;
 	}
 	
 	@Override
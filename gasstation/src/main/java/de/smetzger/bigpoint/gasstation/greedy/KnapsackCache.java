@@ -0,0 +1,113 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** a bounded cache (least recently used entries are evicted) for the solutions of the per-pump selection problem.
+ *  the selection only depends on the amounts the customers want and on the gas available at the pump,
+ *  so a solution is stored as the multiset of amounts selected, keyed by the multiset of amounts requested and the capacity.
+ *
+ *  to get hits for recurring capacities, the capacity is rounded down to a multiple of the quantum 
+ *  (and capped at the total requested). this does not change the solution as long as all amounts are multiples of the quantum,
+ *  instances with other amounts are not cached.
+ */
+public class KnapsackCache {
+
+	/** key: sorted requested amounts plus (normalized) capacity */
+	protected static final class Key {
+		final double[] amounts;
+		final double capacity;
+		final int hash;
+
+		Key(double[] sortedAmounts, double capacity){
+			this.amounts=sortedAmounts;
+			this.capacity=capacity;
+			this.hash=31*Arrays.hashCode(sortedAmounts)+Double.hashCode(capacity);
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if(!(o instanceof Key))
+				return false;
+			Key other=(Key)o;
+			return capacity==other.capacity && Arrays.equals(amounts, other.amounts);
+		}
+	}
+
+	protected final int maxEntries;
+	protected final double quantum;
+	protected final Map<Key, double[]> solutions;
+	private long hits=0;
+	private long misses=0;
+
+	/** @param maxEntries	number of solutions kept
+	 *  @param quantum		amounts and capacities are considered in multiples of this (e.g. 1 liter) */
+	public KnapsackCache(final int maxEntries, double quantum){
+		if(maxEntries<=0 || quantum<=0)
+			throw new IllegalArgumentException("size and quantum have to be positive");
+		this.maxEntries=maxEntries;
+		this.quantum=quantum;
+		solutions=new LinkedHashMap<Key, double[]>(16, 0.75f, true){
+			private static final long serialVersionUID=1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest){
+				return size()>maxEntries;
+			}
+		};
+	}
+
+	/** builds the key for an instance
+	 *  @param sortedAmounts	the requested amounts in ascending order
+	 *  @return the key, or null if the instance cannot be cached (amounts not multiples of the quantum) */
+	public Key key(double[] sortedAmounts, double capacity){
+		double total=0;
+		for(double amount:sortedAmounts){
+			double units=amount/quantum;
+			if(units!=Math.rint(units))
+				return null;
+			total+=amount;
+		}
+		double normalized=Math.min(total, Math.floor(capacity/quantum)*quantum);
+		return new Key(sortedAmounts, normalized);
+	}
+
+	/** @return the selected amounts (ascending), or null if the instance was not solved yet */
+	synchronized public double[] get(Key key){
+		double[] solution=solutions.get(key);
+		if(solution==null)
+			misses++;
+		else
+			hits++;
+		return solution;
+	}
+
+	/** @param selectedAmounts	the amounts of the selected customers (ascending) */
+	synchronized public void put(Key key, double[] selectedAmounts){
+		solutions.put(key, selectedAmounts);
+	}
+
+	/** drops all solutions, e.g. when the way instances are solved changes */
+	synchronized public void clear(){
+		solutions.clear();
+	}
+
+	synchronized public long getHits(){
+		return hits;
+	}
+
+	synchronized public long getMisses(){
+		return misses;
+	}
+
+	synchronized public int size(){
+		return solutions.size();
+	}
+
+}
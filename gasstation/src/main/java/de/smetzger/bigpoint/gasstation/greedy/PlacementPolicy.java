@@ -0,0 +1,10 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+/** how the greedy station chooses among the attendants that could queue an incoming customer */
+public enum PlacementPolicy {
+	/** the first attendant (in list order) that has enough gas left after processing his queue */
+	FIRST_FIT,
+	/** the attendant that would be done with the customer earliest, 
+	 *  based on the liters queued (and still to pump for the customer in service) and the pump's flow rate */
+	EARLIEST_COMPLETION
+}
@@ -0,0 +1,93 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+/** local search balancing an assignment of customers to pumps: lowers the largest total queued at any pump (makespan)
+ *  without changing which customers are served, so the same amount of gas is sold.
+ *
+ *  every step looks at the pump with the most liters and does the best move of one of its customers to another pump,
+ *  or swap of one of its customers with a smaller one of another pump, that fits the gas left there and
+ *  leaves both pumps with less than the busiest had before. it stops when no such step is left (a local optimum),
+ *  a step costs O(customers at the busiest pump x (pumps + customers)).
+ */
+public class QueueBalancer {
+
+	//differences below this are rounding noise
+	private static final double EPSILON=1e-9;
+
+	private QueueBalancer(){
+	}
+
+	/** @param liters		the liters each customer wants
+	 *  @param assignment	the pump of each customer, changed in place
+	 *  @param capacities	the liters each pump can take
+	 *  @param maxSteps		moves and swaps done at most
+	 *  @return the number of moves and swaps done */
+	public static int balance(double[] liters, int[] assignment, double[] capacities, int maxSteps){
+		double[] loads=new double[capacities.length];
+		for(int i=0;i<liters.length;i++)
+			loads[assignment[i]]+=liters[i];
+
+		int steps=0;
+		while(steps<maxSteps){
+			int busiest=0;
+			for(int p=1;p<loads.length;p++)
+				if(loads[p]>loads[busiest])
+					busiest=p;
+			double limit=loads[busiest]-EPSILON;
+
+			//the best step: lowest larger load of the two pumps involved
+			double best=limit;
+			int bestCustomer=-1, bestPump=-1, bestPartner=-1;
+			for(int i=0;i<liters.length;i++){
+				if(assignment[i]!=busiest)
+					continue;
+				for(int q=0;q<loads.length;q++){ //moves
+					if(q==busiest || loads[q]+liters[i]>capacities[q]+EPSILON)
+						continue;
+					double larger=Math.max(loads[busiest]-liters[i], loads[q]+liters[i]);
+					if(larger<best){
+						best=larger;
+						bestCustomer=i;
+						bestPump=q;
+						bestPartner=-1;
+					}
+				}
+				for(int j=0;j<liters.length;j++){ //swaps
+					int q=assignment[j];
+					double delta=liters[i]-liters[j];
+					if(q==busiest || delta<=EPSILON || loads[q]+delta>capacities[q]+EPSILON)
+						continue;
+					double larger=Math.max(loads[busiest]-delta, loads[q]+delta);
+					if(larger<best){
+						best=larger;
+						bestCustomer=i;
+						bestPump=q;
+						bestPartner=j;
+					}
+				}
+			}
+			if(bestCustomer<0)
+				return steps; //local optimum
+
+			loads[busiest]-=liters[bestCustomer];
+			loads[bestPump]+=liters[bestCustomer];
+			assignment[bestCustomer]=bestPump;
+			if(bestPartner>=0){
+				loads[bestPump]-=liters[bestPartner];
+				loads[busiest]+=liters[bestPartner];
+				assignment[bestPartner]=busiest;
+			}
+			steps++;
+		}
+		return steps;
+	}
+
+	/** @return the largest total of liters assigned to a pump */
+	public static double makespan(double[] liters, int[] assignment, int pumps){
+		double[] loads=new double[pumps];
+		double max=0;
+		for(int i=0;i<liters.length;i++)
+			max=Math.max(max, loads[assignment[i]]+=liters[i]);
+		return max;
+	}
+
+}
@@ -0,0 +1,42 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+import java.util.Comparator;
+
+/** the order in which an attendant serves the customers in his queue,
+ *  customers that are equal in this respect are served in the order they arrived at the station */
+public enum QueueDiscipline {
+	/** in the order of arrival */
+	FIFO(new Comparator<Customer>(){
+		@Override
+		public int compare(Customer o1, Customer o2) {
+			return Long.compare(o1.getSequence(), o2.getSequence());
+		}
+	}),
+	/** the customer wanting the fewest liters first (lowest mean waiting time) */
+	SHORTEST_JOB_FIRST(new Comparator<Customer>(){
+		@Override
+		public int compare(Customer o1, Customer o2) {
+			int result=Double.compare(o1.getLitersWanted(), o2.getLitersWanted());
+			return (result!=0)?result:Long.compare(o1.getSequence(), o2.getSequence());
+		}
+	}),
+	/** the customer leaving first (see {@link Customer#getDeadline()}) first, customers without deadline last */
+	EARLIEST_DEADLINE_FIRST(new Comparator<Customer>(){
+		@Override
+		public int compare(Customer o1, Customer o2) {
+			int result=Long.compare(o1.getDeadline(), o2.getDeadline());
+			return (result!=0)?result:Long.compare(o1.getSequence(), o2.getSequence());
+		}
+	});
+	
+	private final Comparator<Customer> order;
+	
+	private QueueDiscipline(Comparator<Customer> order){
+		this.order=order;
+	}
+	
+	/** @return the order of the customers, the one to be served next first */
+	public Comparator<Customer> order(){
+		return order;
+	}
+}
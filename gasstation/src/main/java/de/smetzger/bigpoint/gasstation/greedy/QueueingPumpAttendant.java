@@ -3,9 +3,13 @@ package de.smetzger.bigpoint.gasstation.greedy;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import de.smetzger.bigpoint.gasstation.greedy.Customer.State;
+import de.smetzger.bigpoint.gasstation.LockMonitor;
+import de.smetzger.bigpoint.gasstation.jfr.PumpCycleEvent;
 
 import net.bigpoint.assessment.gasstation.GasPump;
 import net.bigpoint.assessment.gasstation.GasType;
@@ -18,36 +22,172 @@ import net.bigpoint.assessment.gasstation.GasType;
 public class QueueingPumpAttendant implements Runnable{
 	
 	protected GasPump pump=null; //associated gas pump
+	protected int id; //id of the pump within the station
 	protected StevesGreedyGasStation station=null; //back-pointer to the gas station
+	private AttendantRegistry registry=null; //registry of the gas type, told about every change of the amounts
+	private int slot; //position within the registry
 	
-	private double remaining; //remaining after currently pumping customer is done (or if none present, current amount)
-	private double remainingAmountAfterQueueProcessing; //remaining after all queued customers are processed
+	//both amounts are volatile, since capacity summaries read them without locking
+	private volatile double remaining; //remaining after currently pumping customer is done (or if none present, current amount)
+	private volatile double remainingAmountAfterQueueProcessing; //remaining after all queued customers are processed
 	
-	private List<Customer> queuedCustomers=new ArrayList<Customer>(); //list of queued customers
+	private volatile QueueDiscipline discipline=QueueDiscipline.FIFO; //order in which the queue is served
+	private PriorityQueue<Customer> queuedCustomers=new PriorityQueue<Customer>(11, discipline.order()); //queued customers, next one first
+	private volatile int queueLength=0; //size of the queue, readable without locking
+	private volatile Customer inService=null; //customer currently pumping gas (already removed from the queue)
+	private volatile long serviceStart; //when the customer in service started pumping (nanos)
+	private final AtomicBoolean scheduled=new AtomicBoolean(); //set while handed to (or running on) a worker
+	private final ReachableSums queuedSums; //liters reachable by subsets of the queue, up to the remaining amount
 	
-	public QueueingPumpAttendant (StevesGreedyGasStation station, GasPump pump){
+	/** liters per second a pump delivers if not configured otherwise */
+	public static final double DEFAULT_FLOW_RATE=10;
+	private volatile double flowRate=DEFAULT_FLOW_RATE; //liters per second of this pump
+	
+	//instrumented critical sections (shared by all attendants of the station)
+	protected final LockMonitor.Section queueSection, releaseSection, removeSection, emptySection, 
+			pollSection, finishSection, pickSection, sumsSection, copySection, disciplineSection;
+	
+	public QueueingPumpAttendant (StevesGreedyGasStation station, GasPump pump, int id){
 		this.pump=pump;
+		this.id=id;
 		this.remaining=pump.getRemainingAmount();
 		remainingAmountAfterQueueProcessing=remaining;
+		queuedSums=new ReachableSums(ReachableSums.unitsBelow(remaining));
 		this.station=station;
+		queueSection=station.locks.section("attendant.tryToQueueCustomer");
+		releaseSection=station.locks.section("attendant.releaseCustomer");
+		removeSection=station.locks.section("attendant.removeCustomer");
+		emptySection=station.locks.section("attendant.emptyCustomerQueue");
+		pollSection=station.locks.section("attendant.noCustomers");
+		finishSection=station.locks.section("attendant.finishService");
+		pickSection=station.locks.section("attendant.pickCustomer");
+		sumsSection=station.locks.section("attendant.addQueuedSumsTo");
+		copySection=station.locks.section("attendant.getQueuedCustomers");
+		disciplineSection=station.locks.section("attendant.setQueueDiscipline");
 	}
 	
 
-	synchronized public boolean tryToQueueCustomer(Customer c){
+	/** queues the customer if he fits, and makes sure the queue gets served
+	 *  @return true if he was queued */
+	public boolean tryToQueueCustomer(Customer c){
+		if(!queue(c))
+			return false;
+		schedule();
+		return true;
+	}
+	
+	private boolean queue(Customer c){
+		long requested=queueSection.request();
+		synchronized(this){
+			long acquired=queueSection.acquired(requested);
+			try{
 //		System.out.println("Trying to queue "+c);
 //		System.out.println("remaining: "+remainingAmountAfterQueueProcessing+"/"+remaining );
 	
-		//check whether we can serve the customer
-		if(c.getGasType()!=getGasType())
-			return false;
-		if(getRemainingAmountAfterQueueProcessing()<c.getLitersWanted())
-			return false;
-		//add him to the queue and update remaning amount prediction
-		queuedCustomers.add(c);
-		remainingAmountAfterQueueProcessing-=c.getLitersWanted();
-		return true;
+				//check whether we can serve the customer
+				if(c.getGasType()!=getGasType())
+					return false;
+				if(getRemainingAmountAfterQueueProcessing()<c.getLitersWanted())
+					return false;
+				//add him to the queue and update remaning amount prediction (the sums first, the rest cannot fail)
+				queuedSums.add(c.getLitersWanted());
+				queuedCustomers.add(c);
+				queueLength=queuedCustomers.size();
+				remainingAmountAfterQueueProcessing-=c.getLitersWanted();
+				amountsChanged();
+				return true;
+			}finally{
+				queueSection.released(acquired);
+			}
+		}
 	}
 	
+	/** removes the customer that would be served last among those needing at most the given amount,
+	 *  used to hand him over to an idle attendant
+	 *  @return the removed customer, or null if no queued customer needs that little */
+	public Customer releaseCustomer(double maxLiters){
+		long requested=releaseSection.request();
+		synchronized(this){
+			long acquired=releaseSection.acquired(requested);
+			try{
+				Customer last=null;
+				for(Customer c:queuedCustomers)
+					if(c.getLitersWanted()<=maxLiters && (last==null || discipline.order().compare(c, last)>0))
+						last=c;
+				if(last==null)
+					return null;
+				queuedCustomers.remove(last);
+				queueLength=queuedCustomers.size();
+				remainingAmountAfterQueueProcessing+=last.getLitersWanted();
+				rebuildQueuedSums();
+				amountsChanged();
+				return last;
+			}finally{
+				releaseSection.released(acquired);
+			}
+		}
+	}
+	
+	/** removes the given customer from the queue, e.g. because he does not want to wait any longer
+	 *  @return true if he was queued here (and not in service yet) */
+	public boolean removeCustomer(Customer c){
+		long requested=removeSection.request();
+		synchronized(this){
+			long acquired=removeSection.acquired(requested);
+			try{
+				if(!queuedCustomers.remove(c))
+					return false;
+				queueLength=queuedCustomers.size();
+				remainingAmountAfterQueueProcessing+=c.getLitersWanted();
+				rebuildQueuedSums();
+				amountsChanged();
+				return true;
+			}finally{
+				removeSection.released(acquired);
+			}
+		}
+	}
+	
+	
+	/** recalculates the sums reachable by the queue after a customer left it, called holding the attendant lock */
+	private void rebuildQueuedSums(){
+		queuedSums.reset(ReachableSums.unitsBelow(remaining));
+		for(Customer c:queuedCustomers)
+			queuedSums.add(c.getLitersWanted());
+	}
+	
+	/** adds the sums reachable by subsets of this queue to the given sums (e.g. of the other queues of the gas type)
+	 *  @return the whole units of gas left for the queue */
+	long addQueuedSumsTo(ReachableSums sums){
+		long requested=sumsSection.request();
+		synchronized(this){
+			long acquired=sumsSection.acquired(requested);
+			try{
+				sums.addAll(queuedSums);
+				return ReachableSums.unitsBelow(remaining);
+			}finally{
+				sumsSection.released(acquired);
+			}
+		}
+	}
+	
+	/** called by the registry when the attendant is added to it */
+	void register(AttendantRegistry registry, int slot){
+		this.registry=registry;
+		this.slot=slot;
+	}
+	
+	/** tells the registry and the pump state table about changed amounts, queue length or service,
+	 *  called holding the attendant lock */
+	private void amountsChanged(){
+		if(registry!=null)
+			registry.update(slot);
+		station.pumpStates.update(id, remaining, remainingAmountAfterQueueProcessing, inService!=null, queueLength);
+	}
+	
+	public int getId() {
+		return id;
+	}
 	
 	public double getRemainingAmount() {
 		return remaining;
@@ -62,15 +202,50 @@ public class QueueingPumpAttendant implements Runnable{
 	public GasType getGasType() {
 		return pump.getGasType();
 	}
+	
+	public double getFlowRate() {
+		return flowRate;
+	}
+
+	/** @param litersPerSecond	how fast this pump delivers gas */
+	public void setFlowRate(double litersPerSecond) {
+		if(litersPerSecond<=0)
+			throw new IllegalArgumentException("flow rate has to be positive");
+		flowRate=litersPerSecond;
+	}
+	
+	/** estimates when a customer wanting the given amount would be done if he was queued here now, 
+	 *  i.e. the time to pump the rest for the customer in service, everything queued and the customer himself
+	 *  @return the expected time from now in seconds */
+	public double getExpectedCompletionTime(double liters) {
+		double litersAhead=remaining-remainingAmountAfterQueueProcessing; //queued
+		Customer current=inService;
+		if(current!=null){
+			double pumped=(System.nanoTime()-serviceStart)/1e9*flowRate;
+			litersAhead+=Math.max(0, current.getLitersWanted()-pumped);
+		}
+		return (litersAhead+liters)/flowRate;
+	}
 
 
 	/** resets the customer queue and returns the customers queued up to now
 	 *  @return list of currently queued customers */
-	synchronized public List<Customer> emptyCustomerQueue(){
-		List<Customer> customersQueued=queuedCustomers;
-		queuedCustomers=new ArrayList<Customer>(GasType.values().length);
-		remainingAmountAfterQueueProcessing=remaining;
-		return customersQueued;
+	public List<Customer> emptyCustomerQueue(){
+		long requested=emptySection.request();
+		synchronized(this){
+			long acquired=emptySection.acquired(requested);
+			try{
+				List<Customer> customersQueued=new ArrayList<Customer>(queuedCustomers);
+				queuedCustomers.clear();
+				queueLength=0;
+				remainingAmountAfterQueueProcessing=remaining;
+				queuedSums.reset(ReachableSums.unitsBelow(remaining));
+				amountsChanged();
+				return customersQueued;
+			}finally{
+				emptySection.released(acquired);
+			}
+		}
 	}
 	
 	
@@ -79,26 +254,45 @@ public class QueueingPumpAttendant implements Runnable{
 		pump.pumpGas(amount);
 	}
 	
+	/** @return number of queued customers (no locking) */
+	public int getQueueLength(){
+		return queueLength;
+	}
+	
+	/** @return true if customers wait in the queue while this attendant is busy with another one (no locking) */
+	public boolean hasWaitingCustomers(){
+		return inService!=null && queueLength>0;
+	}
+	
 	/** just checks if there are any customers */
-	synchronized protected boolean noCustomers(){
-		return queuedCustomers.isEmpty();
+	protected boolean noCustomers(){
+		long requested=pollSection.request();
+		synchronized(this){
+			long acquired=pollSection.acquired(requested);
+			try{
+				return queuedCustomers.isEmpty();
+			}finally{
+				pollSection.released(acquired);
+			}
+		}
 	}
 
-	/** loops constantly looking for customers in its queue to process */
+	/** hands the attendant to a worker of the station's scheduler, unless he is scheduled (or running) already */
+	protected void schedule(){
+		if(!station.isClosed() && scheduled.compareAndSet(false, true))
+			station.scheduler.schedule(this);
+	}
+	
+	/** runs on a worker: processes the customers in the queue until it is empty (or the station is closed),
+	 *  then tries to take over customers waiting at a busy attendant of the same gas type before giving the worker back */
 	@Override	
 	public void run() {
-		while(true){
-			if(noCustomers())
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					// ignore
-				}
-			else{
+		do{
+			while(!station.isClosed() && (!noCustomers() || station.stealCustomerFor(this)))
 				processNextCustomer();
-			}
-		}
-		
+			scheduled.set(false);
+			//a customer queued just before the flag was cleared did not schedule us, so check once more
+		}while(!station.isClosed() && !noCustomers() && scheduled.compareAndSet(false, true));
 	}
 	
 	/** processes a customer, then notifies the station that this customer is done */
@@ -106,26 +300,92 @@ public class QueueingPumpAttendant implements Runnable{
 		Customer customer=pickCustomer(); //get the next one
 		if(customer==null) //although unlikely, a reorganization might take place and leave an empty customer list
 			return;
+		PumpCycleEvent event=new PumpCycleEvent();
+		event.begin();
 		pumpGas(customer.getLitersWanted());
-		customer.setState(State.Served); //okay, we are done with this one
-		notifyGasStation();		//let the station know
+		event.finish(id, getGasType(), customer.getLitersWanted(), queueLength);
+		station.customerServed(this, customer);	//okay, we are done with this one, let the station know
+	}
+	
+	/** called by the station once the sale of the customer in service is accounted for */
+	protected void finishService(){
+		long requested=finishSection.request();
+		synchronized(this){
+			long acquired=finishSection.acquired(requested);
+			try{
+				inService=null;
+				amountsChanged();
+			}finally{
+				finishSection.released(acquired);
+			}
+		}
+	}
+	
+	/** @return the customer currently pumping gas, or null */
+	public Customer getCustomerInService(){
+		return inService;
+	}
+	
+	/** @return a copy of the queue (in processing order) */
+	public List<Customer> getQueuedCustomers(){
+		List<Customer> customers;
+		QueueDiscipline order;
+		long requested=copySection.request();
+		synchronized(this){
+			long acquired=copySection.acquired(requested);
+			try{
+				customers=new ArrayList<Customer>(queuedCustomers);
+				order=discipline;
+			}finally{
+				copySection.released(acquired);
+			}
+		}
+		Collections.sort(customers, order.order()); //sorted outside the lock
+		return customers;
+	}
+	
+	public QueueDiscipline getQueueDiscipline(){
+		return discipline;
 	}
 	
-	synchronized protected void notifyGasStation(){
-		synchronized(station){
-			station.notifyAll();
+	/** changes the order in which the queue is served, customers queued already are reordered */
+	public void setQueueDiscipline(QueueDiscipline discipline){
+		long requested=disciplineSection.request();
+		synchronized(this){
+			long acquired=disciplineSection.acquired(requested);
+			try{
+				PriorityQueue<Customer> reordered=new PriorityQueue<Customer>(Math.max(11, queuedCustomers.size()), discipline.order());
+				reordered.addAll(queuedCustomers);
+				queuedCustomers=reordered;
+				this.discipline=discipline;
+			}finally{
+				disciplineSection.released(acquired);
+			}
 		}
 	}
 	
 
 	/** retrieves the next customer from the queue */
-	synchronized protected Customer pickCustomer(){
-		if(queuedCustomers.isEmpty()) //check if the queue is empty 
-			return null;
-		Customer c=queuedCustomers.get(0);
-		queuedCustomers.remove(0);
-		remaining-=c.getLitersWanted(); //processing this customer, hence update local gas amount indicator accordingly
-		return c;
+	protected Customer pickCustomer(){
+		long requested=pickSection.request();
+		synchronized(this){
+			long acquired=pickSection.acquired(requested);
+			try{
+				if(queuedCustomers.isEmpty()) //check if the queue is empty 
+					return null;
+				Customer c=queuedCustomers.poll();
+				queueLength=queuedCustomers.size();
+				remaining-=c.getLitersWanted(); //processing this customer, hence update local gas amount indicator accordingly
+				rebuildQueuedSums();
+				c.setPump(id);
+				serviceStart=System.nanoTime();
+				inService=c;
+				amountsChanged();
+				return c;
+			}finally{
+				pickSection.released(acquired);
+			}
+		}
 	}
 
 	
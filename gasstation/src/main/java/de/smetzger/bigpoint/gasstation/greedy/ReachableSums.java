@@ -0,0 +1,156 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+import java.util.Arrays;
+
+/** the sums of liters reachable by the subsets of some amounts (e.g. of the customers queued at a pump), as a bitset:
+ *  bit s is set if some subset takes exactly s units, sums above a maximum are not kept.
+ *
+ *  adding an amount shifts the bitset by its units and ors it in (word by word), removing one means rebuilding
+ *  from the remaining amounts, which is cheap for the short queues at a pump. amounts are quantized to {@link #UNIT} liters;
+ *  if an amount is no whole number of units (or negative, or not finite), or the maximum would need more than {@link #MAX_BITS} bits,
+ *  the sums are not exact and any sum has to be considered reachable. not thread safe.
+ */
+public class ReachableSums {
+
+	/** liters per unit */
+	public static final double UNIT=0.01;
+	/** largest bitset kept (i.e. 2621 liters at the default unit) */
+	public static final int MAX_BITS=1<<18;
+
+	private long[] words;
+	private long maxUnits;	 //highest sum kept
+	private long totalUnits; //sum of all amounts
+	private int inexact;	 //amounts that are no whole number of units
+	private long work;		 //word operations done by sumsets so far
+
+	/** creates the sums of no amounts (i.e. just 0)
+	 *  @param maxUnits	highest sum of interest */
+	public ReachableSums(long maxUnits){
+		reset(maxUnits);
+	}
+
+	/** forgets all amounts
+	 *  @param maxUnits	highest sum of interest from now on */
+	public void reset(long maxUnits){
+		this.maxUnits=Math.max(0, maxUnits);
+		totalUnits=0;
+		inexact=0;
+		work=0;
+		int length=(this.maxUnits<MAX_BITS)?(int)(this.maxUnits/64)+1:0;
+		if(words==null || words.length<length)
+			words=new long[length];
+		else
+			Arrays.fill(words, 0, length, 0);
+		if(length>0)
+			words[0]=1; //the empty subset
+	}
+
+	/** @return true if the amounts are a whole, not negative number of units */
+	public static boolean isWhole(double liters){
+		if(!(liters>=0) || liters==Double.POSITIVE_INFINITY)
+			return false;
+		double units=liters/UNIT;
+		return Math.abs(units-Math.rint(units))<1e-6;
+	}
+
+	/** @return the liters in units (rounded) */
+	public static long units(double liters){
+		return Math.round(liters/UNIT);
+	}
+
+	/** @return the whole units that fit into the liters */
+	public static long unitsBelow(double liters){
+		return (long)Math.floor(liters/UNIT+1e-6);
+	}
+
+	/** @return true if the sums are exact, i.e. all amounts were whole units and the maximum was small enough */
+	public boolean isExact(){
+		return inexact==0 && maxUnits<MAX_BITS;
+	}
+
+	public long getTotalUnits(){
+		return totalUnits;
+	}
+
+	/** @return the word operations spent on sumsets since the last reset */
+	public long getWork(){
+		return work;
+	}
+
+	private int length(){
+		return (maxUnits<MAX_BITS)?(int)(maxUnits/64)+1:0;
+	}
+
+	/** adds an amount: every sum reachable so far is reachable plus the amount as well */
+	public void add(double liters){
+		if(!isWhole(liters)){
+			inexact++;
+			return;
+		}
+		long units=units(liters);
+		totalUnits+=units;
+		shiftOr(words, words, units);
+	}
+
+	/** adds all amounts of the other sums, i.e. this becomes the sumset of both */
+	public void addAll(ReachableSums other){
+		inexact+=other.inexact+(other.isExact()?0:1);
+		totalUnits+=other.totalUnits;
+		if(!isExact() || other.totalUnits==0) //nothing to add but 0
+			return;
+		int length=length();
+		long[] original=Arrays.copyOf(words, length);
+		Arrays.fill(words, 0, length, 0);
+		int otherLength=other.length();
+		for(int w=0;w<otherLength;w++)
+			for(long bits=other.words[w];bits!=0;bits&=bits-1){
+				long shift=w*64L+Long.numberOfTrailingZeros(bits);
+				if(shift>maxUnits)
+					return;
+				shiftOr(words, original, shift);
+				work+=length;
+			}
+	}
+
+	/** ors the source, shifted up by the given bits, into the target (both may be the same array) */
+	private void shiftOr(long[] target, long[] source, long shift){
+		int length=length();
+		if(shift>maxUnits || length==0)
+			return;
+		int wordShift=(int)(shift>>>6);
+		int bitShift=(int)(shift&63);
+		//from the top, so a shift within the same array reads the words before they are changed
+		for(int i=length-1;i>=wordShift;i--){
+			long shifted=source[i-wordShift]<<bitShift;
+			if(bitShift>0 && i-wordShift>0)
+				shifted|=source[i-wordShift-1]>>>(64-bitShift);
+			target[i]|=shifted;
+		}
+		//sums above the maximum are not kept
+		int top=(int)(maxUnits&63);
+		if(top<63)
+			target[length-1]&=(1L<<(top+1))-1;
+	}
+
+	/** @return the highest reachable sum up to the given units (the units themselves if the sums are not exact) */
+	public long highestAtMost(long units){
+		units=Math.min(units, maxUnits);
+		if(units<0)
+			return -1;
+		if(!isExact())
+			return units;
+		int w=(int)(units>>>6);
+		long bits=words[w];
+		if((units&63)<63)
+			bits&=(1L<<((units&63)+1))-1;
+		while(bits==0 && w>0)
+			bits=words[--w];
+		return w*64L+63-Long.numberOfLeadingZeros(bits); //bit 0 is always set
+	}
+
+	/** @return true if exactly the given sum is reachable (or the sums are not exact) */
+	public boolean contains(long units){
+		return highestAtMost(units)==units;
+	}
+
+}
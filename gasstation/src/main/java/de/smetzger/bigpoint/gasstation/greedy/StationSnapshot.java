@@ -0,0 +1,422 @@
+package de.smetzger.bigpoint.gasstation.greedy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.smetzger.bigpoint.gasstation.PriceBoard;
+import de.smetzger.bigpoint.gasstation.StationStatistics;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** a consistent copy of the complete state of a {@link StevesGreedyGasStation}:
+ *  pumps with their remaining gas, prices, statistics counters, the customers queued at every pump
+ *  and the misfits collected for a reorganization (see {@link StevesGreedyGasStation#setReorganizationWindow(long)}),
+ *  which get their reorganization right away when restored.
+ *  the configuration of the station (placement, queue disciplines and flow rates, reorganization window,
+ *  work stealing, feasibility check, balancing, solution cache, approximation and adaptation) is restored as well.
+ *
+ *  the copy is taken while holding the station lock only for the time needed to copy the values,
+ *  writing it to disk happens afterwards, so purchases go on while a snapshot is written.
+ *  a customer that is pumping gas at the time of the snapshot is stored as first customer of the pump's queue
+ *  (with the gas he takes still in the pump), i.e. the restored station serves him again and accounts for his sale.
+ */
+public class StationSnapshot {
+
+	static final int MAGIC=0x47535331; //'GSS1'
+	static final int FORMAT_VERSION=4; //2 added liters sold and customers that left, 3 the collected misfits, 4 the configuration;
+	                                   //older versions are still read (restored with the default configuration)
+
+	/** a copy of a queued customer */
+	protected static class QueuedCustomer {
+		GasType type;
+		double liters;
+		double maxPrice;
+		double agreedPrice;
+		long priceVersion;
+	}
+
+	/** a copy of a pump and its queue */
+	protected static class PumpState {
+		GasType type;
+		double remaining;	//including the gas of the customer in service
+		QueueDiscipline discipline=QueueDiscipline.FIFO;
+		double flowRate=QueueingPumpAttendant.DEFAULT_FLOW_RATE;
+		List<QueuedCustomer> queue=new ArrayList<QueuedCustomer>();
+	}
+
+	/** a copy of the settings of the station */
+	protected static class Configuration {
+		PlacementPolicy placement;
+		QueueDiscipline discipline;
+		long reorganizationWindowMillis;
+		boolean workStealing;
+		boolean feasibilityCheck;
+		boolean queueBalancing;
+		int cacheEntries;		//0 if caching is off
+		double cacheQuantum;
+		double approximationEpsilon;
+		int approximationThreshold;
+		long adaptiveLatencyBound;	//0 if adaptation is off
+	}
+
+	/** writes snapshots periodically, remembering failed writes (the next period tries again) */
+	public static class PeriodicWriter implements Runnable {
+		protected final StevesGreedyGasStation station;
+		protected final Path file;
+		protected final AtomicInteger failures=new AtomicInteger();
+		protected volatile IOException lastFailure=null;
+		protected volatile ScheduledFuture<?> future;
+
+		protected PeriodicWriter(StevesGreedyGasStation station, Path file){
+			this.station=station;
+			this.file=file;
+		}
+
+		@Override
+		public void run() {
+			try {
+				capture(station).write(file);
+			} catch (IOException e) {
+				lastFailure=e;
+				failures.incrementAndGet();
+			}
+		}
+
+		/** @return the future of the periodic task, to cancel the snapshots */
+		public ScheduledFuture<?> getFuture() {
+			return future;
+		}
+
+		/** @return number of snapshots that could not be written */
+		public int getNumberOfFailures() {
+			return failures.get();
+		}
+
+		/** @return the exception of the last snapshot that could not be written, or null */
+		public IOException getLastFailure() {
+			return lastFailure;
+		}
+	}
+
+	protected long timestamp;
+	protected long priceVersion;
+	protected double[] prices=new double[GasType.values().length];
+	protected StationStatistics.Snapshot statistics;
+	protected List<PumpState> pumps=new ArrayList<PumpState>();
+	protected List<QueuedCustomer> misfits=new ArrayList<QueuedCustomer>();
+	protected Configuration configuration;	//null if the snapshot was written without it
+
+	protected StationSnapshot(){
+	}
+
+	/** copies the state of the station; holds the station lock while copying */
+	public static StationSnapshot capture(StevesGreedyGasStation station){
+		StationSnapshot snapshot=new StationSnapshot();
+		synchronized(station){
+			snapshot.timestamp=System.currentTimeMillis();
+			PriceBoard.Snapshot prices=station.getPriceSnapshot();
+			snapshot.priceVersion=prices.getVersion();
+			for(GasType type:GasType.values())
+				snapshot.prices[type.ordinal()]=prices.getPrice(type);
+			snapshot.statistics=station.getStatistics();
+
+			//attendants ordered by pump id
+			for(QueueingPumpAttendant a:station.attendantsById)
+				snapshot.pumps.add(capture(a));
+			for(List<Customer> collected:station.pendingMisfits)
+				for(Customer c:collected)
+					snapshot.misfits.add(capture(c));
+			snapshot.configuration=captureConfiguration(station);
+		}
+		return snapshot;
+	}
+
+	private static Configuration captureConfiguration(StevesGreedyGasStation station){
+		Configuration config=new Configuration();
+		config.placement=station.placement;
+		config.discipline=station.queueDiscipline;
+		config.reorganizationWindowMillis=station.reorganizationWindowMillis;
+		config.workStealing=station.workStealing;
+		config.feasibilityCheck=station.feasibilityCheck;
+		config.queueBalancing=station.queueBalancing;
+		KnapsackCache cache=station.solutionCache;
+		config.cacheEntries=(cache!=null)?cache.maxEntries:0;
+		config.cacheQuantum=(cache!=null)?cache.quantum:1;
+		config.approximationEpsilon=station.approximationEpsilon;
+		config.approximationThreshold=station.approximationThreshold;
+		AdaptiveStrategy adaptive=station.adaptive;
+		config.adaptiveLatencyBound=(adaptive!=null)?adaptive.latencyBoundNanos:0;
+		return config;
+	}
+
+	private static PumpState capture(QueueingPumpAttendant attendant){
+		PumpState pump=new PumpState();
+		pump.type=attendant.getGasType();
+		pump.discipline=attendant.getQueueDiscipline();
+		pump.flowRate=attendant.getFlowRate();
+		synchronized(attendant){
+			Customer inService=attendant.getCustomerInService();
+			pump.remaining=attendant.getRemainingAmount();
+			if(inService!=null){
+				pump.remaining+=inService.getLitersWanted();
+				pump.queue.add(capture(inService));
+			}
+			for(Customer c:attendant.getQueuedCustomers())
+				pump.queue.add(capture(c));
+		}
+		return pump;
+	}
+
+	private static QueuedCustomer capture(Customer c){
+		QueuedCustomer q=new QueuedCustomer();
+		q.type=c.getGasType();
+		q.liters=c.getLitersWanted();
+		q.maxPrice=c.getMaxPricePaid();
+		q.agreedPrice=c.getAgreedPrice();
+		q.priceVersion=c.getPriceVersion();
+		return q;
+	}
+
+	/** writes the snapshot to a temporary file first and then moves it over the given file,
+	 *  so there is always a complete snapshot on disk */
+	public void write(Path file) throws IOException{
+		Path tmp=file.resolveSibling(file.getFileName()+".tmp");
+		try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1<<16))){
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(timestamp);
+			out.writeLong(priceVersion);
+			out.writeInt(prices.length);
+			for(double price:prices)
+				out.writeDouble(price);
+			out.writeDouble(statistics.getRevenue());
+			out.writeInt(statistics.getNumberOfSales());
+			out.writeInt(statistics.getNumberOfCancellationsNoGas());
+			out.writeInt(statistics.getNumberOfCancellationsTooExpensive());
+			out.writeDouble(statistics.getLiters());
+			out.writeInt(statistics.getNumberOfAbandonedPurchases());
+			out.writeInt(pumps.size());
+			for(PumpState pump:pumps){
+				out.writeByte(pump.type.ordinal());
+				out.writeDouble(pump.remaining);
+				out.writeByte(pump.discipline.ordinal());
+				out.writeDouble(pump.flowRate);
+				out.writeInt(pump.queue.size());
+				for(QueuedCustomer c:pump.queue)
+					write(out, c);
+			}
+			out.writeInt(misfits.size());
+			for(QueuedCustomer c:misfits){
+				out.writeByte(c.type.ordinal());
+				write(out, c);
+			}
+			write(out, configuration);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void write(DataOutputStream out, QueuedCustomer c) throws IOException{
+		out.writeDouble(c.liters);
+		out.writeDouble(c.maxPrice);
+		out.writeDouble(c.agreedPrice);
+		out.writeLong(c.priceVersion);
+	}
+
+	private static void write(DataOutputStream out, Configuration config) throws IOException{
+		out.writeByte(config.placement.ordinal());
+		out.writeByte(config.discipline.ordinal());
+		out.writeLong(config.reorganizationWindowMillis);
+		out.writeBoolean(config.workStealing);
+		out.writeBoolean(config.feasibilityCheck);
+		out.writeBoolean(config.queueBalancing);
+		out.writeInt(config.cacheEntries);
+		out.writeDouble(config.cacheQuantum);
+		out.writeDouble(config.approximationEpsilon);
+		out.writeInt(config.approximationThreshold);
+		out.writeLong(config.adaptiveLatencyBound);
+	}
+
+	private static Configuration readConfiguration(DataInputStream in) throws IOException{
+		Configuration config=new Configuration();
+		config.placement=PlacementPolicy.values()[in.readByte()];
+		config.discipline=QueueDiscipline.values()[in.readByte()];
+		config.reorganizationWindowMillis=in.readLong();
+		config.workStealing=in.readBoolean();
+		config.feasibilityCheck=in.readBoolean();
+		config.queueBalancing=in.readBoolean();
+		config.cacheEntries=in.readInt();
+		config.cacheQuantum=in.readDouble();
+		config.approximationEpsilon=in.readDouble();
+		config.approximationThreshold=in.readInt();
+		config.adaptiveLatencyBound=in.readLong();
+		return config;
+	}
+
+	private static QueuedCustomer read(DataInputStream in, GasType type) throws IOException{
+		QueuedCustomer c=new QueuedCustomer();
+		c.type=type;
+		c.liters=in.readDouble();
+		c.maxPrice=in.readDouble();
+		c.agreedPrice=in.readDouble();
+		c.priceVersion=in.readLong();
+		return c;
+	}
+
+	/** reads a snapshot written by {@link #write(Path)} */
+	public static StationSnapshot read(Path file) throws IOException{
+		StationSnapshot snapshot=new StationSnapshot();
+		try(DataInputStream in=new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1<<16))){
+			if(in.readInt()!=MAGIC)
+				throw new IOException("not a station snapshot");
+			int version=in.readInt();
+			if(version<1 || version>FORMAT_VERSION)
+				throw new IOException("unknown snapshot format version "+version);
+			snapshot.timestamp=in.readLong();
+			snapshot.priceVersion=in.readLong();
+			if(in.readInt()!=snapshot.prices.length)
+				throw new IOException("snapshot was written for different gas types");
+			for(int i=0;i<snapshot.prices.length;i++)
+				snapshot.prices[i]=in.readDouble();
+			double revenue=in.readDouble();
+			int sold=in.readInt();
+			int cancelledAllOutaGas=in.readInt();
+			int cancelledTooExpensive=in.readInt();
+			double liters=(version>=2)?in.readDouble():0;
+			int abandoned=(version>=2)?in.readInt():0;
+			snapshot.statistics=new StationStatistics.Snapshot(sold, liters, revenue, cancelledAllOutaGas, cancelledTooExpensive,
+					abandoned);
+			int pumpCount=in.readInt();
+			for(int i=0;i<pumpCount;i++){
+				PumpState pump=new PumpState();
+				pump.type=GasType.values()[in.readByte()];
+				pump.remaining=in.readDouble();
+				if(version>=4){
+					pump.discipline=QueueDiscipline.values()[in.readByte()];
+					pump.flowRate=in.readDouble();
+				}
+				int queueSize=in.readInt();
+				for(int j=0;j<queueSize;j++)
+					pump.queue.add(read(in, pump.type));
+				snapshot.pumps.add(pump);
+			}
+			int misfitCount=(version>=3)?in.readInt():0;
+			for(int i=0;i<misfitCount;i++)
+				snapshot.misfits.add(read(in, GasType.values()[in.readByte()]));
+			if(version>=4)
+				snapshot.configuration=readConfiguration(in);
+		}
+		return snapshot;
+	}
+
+	/** creates a new station with the state and configuration of this snapshot;
+	 *  restored customers are served again, their sales are accounted as usual (there is just no one waiting for them) */
+	public StevesGreedyGasStation restore(){
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		restoreInto(station);
+		return station;
+	}
+
+	/** restores this snapshot into a newly created station without any pumps */
+	protected void restoreInto(StevesGreedyGasStation station){
+		if(!station.getGasPumps().isEmpty())
+			throw new IllegalStateException("can only restore into an empty station");
+		synchronized(station){
+			station.prices=new PriceBoard(priceVersion, prices);
+			station.statistics.restore(statistics);
+			if(configuration!=null)
+				restoreConfiguration(station);
+			
+			//customers that do not fit their pump again (e.g. ordered differently) are treated like the misfits
+			List<Customer> unqueued=new ArrayList<Customer>();
+			for(PumpState pump:pumps){
+				station.addGasPump(new GasPump(pump.type, pump.remaining));
+				QueueingPumpAttendant attendant=station.attendantsById.get(station.attendantsById.size()-1);
+				if(configuration!=null){
+					attendant.setQueueDiscipline(pump.discipline);
+					attendant.setFlowRate(pump.flowRate);
+				}
+				for(QueuedCustomer q:pump.queue){
+					Customer c=restore(q);
+					if(!attendant.tryToQueueCustomer(c))
+						unqueued.add(c);
+				}
+			}
+			for(QueuedCustomer q:misfits)
+				unqueued.add(restore(q));
+			
+			//the misfits get the reorganization they were collected for
+			for(GasType type:GasType.values()){
+				List<Customer> collected=new ArrayList<Customer>();
+				for(Customer c:unqueued)
+					if(c.getGasType()==type)
+						collected.add(c);
+				if(!collected.isEmpty())
+					station.reorganizeQueues(collected);
+			}
+		}
+	}
+
+	/** applies the settings to the station before any pump is added (called holding the station lock) */
+	private void restoreConfiguration(StevesGreedyGasStation station){
+		station.setPlacementPolicy(configuration.placement);
+		station.setQueueDiscipline(configuration.discipline);
+		station.setReorganizationWindow(configuration.reorganizationWindowMillis);
+		station.setWorkStealing(configuration.workStealing);
+		station.setFeasibilityCheck(configuration.feasibilityCheck);
+		station.setQueueBalancing(configuration.queueBalancing);
+		station.setSolutionCache(configuration.cacheEntries, configuration.cacheQuantum);
+		station.setApproximation(configuration.approximationEpsilon, configuration.approximationThreshold);
+		station.setAdaptiveLatencyBound(configuration.adaptiveLatencyBound);
+	}
+
+	private static Customer restore(QueuedCustomer q){
+		Customer c=new Customer(q.type, q.liters, q.maxPrice);
+		c.fixPrice(q.agreedPrice, q.priceVersion);
+		return c;
+	}
+
+	/** writes a snapshot of the station to the given file periodically;
+	 *  a failed write does not stop the snapshots, it is counted by the returned writer
+	 *  @return the writer, with the future of the periodic task to cancel the snapshots */
+	public static PeriodicWriter writePeriodically(StevesGreedyGasStation station, Path file,
+			long period, TimeUnit unit, ScheduledExecutorService executor){
+		PeriodicWriter writer=new PeriodicWriter(station, file);
+		writer.future=executor.scheduleAtFixedRate(writer, period, period, unit);
+		return writer;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getNumberOfPumps() {
+		return pumps.size();
+	}
+
+	/** @return number of misfits that were collected for a reorganization */
+	public int getNumberOfCollectedMisfits() {
+		return misfits.size();
+	}
+
+	/** @return number of customers that were queued or in service */
+	public int getNumberOfQueuedCustomers() {
+		int count=0;
+		for(PumpState pump:pumps)
+			count+=pump.queue.size();
+		return count;
+	}
+
+}
@@ -1,45 +1,142 @@
 package de.smetzger.bigpoint.gasstation.greedy;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import net.bigpoint.assessment.gasstation.GasPump;
 import net.bigpoint.assessment.gasstation.GasStation;
 import net.bigpoint.assessment.gasstation.GasType;
 import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
 import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+import de.smetzger.bigpoint.gasstation.AsyncGasStation;
+import de.smetzger.bigpoint.gasstation.LockMonitor;
+import de.smetzger.bigpoint.gasstation.LockStatistics;
+import de.smetzger.bigpoint.gasstation.PriceBoard;
+import de.smetzger.bigpoint.gasstation.PumpStateTable;
+import de.smetzger.bigpoint.gasstation.RollingRates;
+import de.smetzger.bigpoint.gasstation.StationStatistics;
+import de.smetzger.bigpoint.gasstation.jfr.PurchaseEvent;
+import de.smetzger.bigpoint.gasstation.jfr.ReorganizationEvent;
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal;
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal.Kind;
 import de.smetzger.bigpoint.gasstation.greedy.Customer.State;
 
 /** a version of the gas station that tries to maximize the amount of gas sold */
-public class StevesGreedyGasStation implements GasStation{
+public class StevesGreedyGasStation implements AsyncGasStation, AutoCloseable{
 	
 	//the pumps
 	protected List<GasPump> pumps=new ArrayList<GasPump>();
-	//and their attendants, this time sorted by gas type
-	protected List<List<QueueingPumpAttendant>> attendants=
-			new ArrayList<List<QueueingPumpAttendant>>(GasType.values().length);
+	//and their attendants, this time sorted by gas type (one registry per type)
+	protected List<AttendantRegistry> attendants=new ArrayList<AttendantRegistry>(GasType.values().length);
+	//the attendants by pump id
+	protected List<QueueingPumpAttendant> attendantsById=new ArrayList<QueueingPumpAttendant>();
+	//gas left, projected gas, busy flag and queue length of all pumps (kept up to date by the attendants)
+	protected final PumpStateTable pumpStates=new PumpStateTable();
 	
 	// statistics
-	protected double revenue=0;
-	protected AtomicInteger cancelledTooExpensive=new AtomicInteger();
-	protected AtomicInteger cancelledAllOutaGas=new AtomicInteger();
-	protected AtomicInteger sold=new AtomicInteger();
-	protected double[] prices=new double[GasType.values().length];
+	protected final StationStatistics statistics=new StationStatistics();
+	protected volatile RollingRates rates=new RollingRates();
+	protected AtomicInteger stolen=new AtomicInteger(); //customers handed over to idle attendants
+	protected AtomicInteger reorganizations=new AtomicInteger();
+	protected AtomicInteger skippedReorganizations=new AtomicInteger(); //misfits no reorganization could have served
+	protected AtomicInteger balancingSteps=new AtomicInteger(); //moves and swaps done to balance the queues
+	protected AtomicInteger journalFailures=new AtomicInteger(); //transactions the journal could not take
+	//the prices (read without locking, updated by publishing a new version)
+	protected PriceBoard prices;
+	
+	//optional journal recording every sale and cancellation
+	protected volatile TransactionJournal journal=null;
+	
+	//how incoming customers are assigned to attendants
+	protected volatile PlacementPolicy placement=PlacementPolicy.FIRST_FIT;
+	//the order in which attendants serve their queues (for pumps added from now on)
+	protected volatile QueueDiscipline queueDiscipline=QueueDiscipline.FIFO;
+	
+	//misfits are collected this long to reorganize the queues only once for all of them (0 means no collecting)
+	protected volatile long reorganizationWindowMillis=0;
+	//the misfits collected per gas type
+	protected List<List<Customer>> pendingMisfits=new ArrayList<List<Customer>>(GasType.values().length);
+	
+	//solutions of the per-pump selection solved before
+	protected static final int DEFAULT_SOLUTION_CACHE_SIZE=1024;
+	protected volatile KnapsackCache solutionCache=new KnapsackCache(DEFAULT_SOLUTION_CACHE_SIZE, 1);
+	
+	//accuracy of the approximation scheme used for large selections (0 means always enumerate)
+	protected volatile double approximationEpsilon=0;
+	//minimal number of customers for which the approximation is used
+	protected volatile int approximationThreshold=0;
+	
+	//switches between optimizing and first fit under load (null means always optimize)
+	protected volatile AdaptiveStrategy adaptive=null;
+	
+	//whether idle attendants take over customers from busy ones
+	protected volatile boolean workStealing=true;
+	
+	//whether misfits are checked against the reachable sums of the queues before reorganizing for them
+	protected volatile boolean feasibilityCheck=true;
+	//word operations the check may spend before it gives up and lets the reorganization decide
+	protected static final long MAX_FEASIBILITY_WORK=1<<20;
+	
+	//whether reorganizations balance the liters queued over the pumps (keeping the customers served)
+	protected volatile boolean queueBalancing=false;
+	
+	//measures contention on the station and attendant locks (switched off by default)
+	protected final LockMonitor locks=new LockMonitor();
+	protected final LockMonitor.Section purchaseSection=locks.section("station.queueAtMatchingPumpAttendant");
+	protected final LockMonitor.Section enqueueSection=locks.section("station.enqueue");
+	protected final LockMonitor.Section servedSection=locks.section("station.customerServed");
+	protected final LockMonitor.Section stealSection=locks.section("station.stealCustomerFor");
+	protected final LockMonitor.Section drainSection=locks.section("station.drain");
+	//the instrumented section the thread holding the station lock is in and since when (only used holding the lock)
+	private LockMonitor.Section heldSection=null;
+	private long heldSince=0;
+	
+	//runs the attendants that have customers to serve
+	protected final AttendantScheduler scheduler;
+	//cleared while draining, new purchases are refused then
+	protected volatile boolean accepting=true;
+	//set when the attendants are to stop
+	protected volatile boolean closed=false;
 	
 	//sleep time between checks for the next customer
 	protected final static int sleepTime=100;
 	
-	/** constructor */
+	/** constructor, the attendants are served by the shared scheduler */
 	public StevesGreedyGasStation(){
-		for(int i=0;i<prices.length;i++){
-			prices[i]=0;
-			attendants.add(new ArrayList<QueueingPumpAttendant>());
+		this(AttendantScheduler.getShared());
+	}
+	
+	/** constructor
+	 *  @param scheduler	the worker pool serving the queues of the attendants */
+	public StevesGreedyGasStation(AttendantScheduler scheduler){
+		this(scheduler, new PriceBoard());
+	}
+	
+	/** constructor
+	 *  @param scheduler	the worker pool serving the queues of the attendants
+	 *  @param prices		the prices to sell at, may be shared with other stations (e.g. the shards of a {@link de.smetzger.bigpoint.gasstation.sharded.ShardedGasStation}) */
+	public StevesGreedyGasStation(AttendantScheduler scheduler, PriceBoard prices){
+		this.scheduler=scheduler;
+		this.prices=prices;
+		for(int i=0;i<GasType.values().length;i++){
+			attendants.add(new AttendantRegistry());
+			pendingMisfits.add(new ArrayList<Customer>());
 		}
 	}
 	
@@ -52,10 +149,66 @@ public class StevesGreedyGasStation implements GasStation{
 	 *            the gas pump
 	 */
 	public void addGasPump(GasPump pump) {
+		pumpStates.add(pumps.size(), pump.getGasType(), pump.getRemainingAmount());
+		QueueingPumpAttendant attendant=new QueueingPumpAttendant(this,pump,pumps.size()); //assigns an attendant
+		attendant.setQueueDiscipline(queueDiscipline);
 		pumps.add(pump);	
-		QueueingPumpAttendant attendant=new QueueingPumpAttendant(this,pump); //assigns an attendant
+		attendantsById.add(attendant);
 		attendants.get(pump.getGasType().ordinal()).add(attendant); //and sorts the attendant into the list for that gas type
-		new Thread(attendant).start(); //starts the attendant's service cycle
+	}
+
+	/** (re)opens the station for purchases after {@link #drain()}; a new station is open already
+	 *  @throws IllegalStateException	if the station is closed */
+	public void start(){
+		if(closed)
+			throw new IllegalStateException("station is closed");
+		accepting=true;
+	}
+	
+	/** refuses new purchases (with an IllegalStateException) and waits until all customers queued are served.
+	 *  an interrupt does not stop the waiting, the interrupt status of the thread is set again when done */
+	public void drain(){
+		boolean interrupted=false;
+		long requested=drainSection.request();
+		synchronized(this){
+			lockAcquired(drainSection, requested);
+			try{
+				accepting=false;
+				while(!isIdle())
+					try {
+						waitForChange(10000000); //customers leaving do not notify, so check again from time to time
+					} catch (InterruptedException e) {
+						interrupted=true; //handled by rechecking
+					}
+			}finally{
+				lockReleased();
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/** @return true if no customer is queued, in service or collected as misfit (called holding the station lock) */
+	protected boolean isIdle(){
+		for(List<Customer> misfits:pendingMisfits)
+			if(!misfits.isEmpty())
+				return false;
+		for(QueueingPumpAttendant a:attendantsById)
+			if(a.getQueueLength()>0 || a.getCustomerInService()!=null)
+				return false;
+		return true;
+	}
+	
+	/** drains the station and stops serving, the attendants give their workers back.
+	 *  the station cannot be used afterwards */
+	@Override
+	public void close(){
+		drain();
+		closed=true;
+	}
+	
+	public boolean isClosed(){
+		return closed;
 	}
 
 	/**
@@ -91,75 +244,439 @@ public class StevesGreedyGasStation implements GasStation{
 		
 		//repesent the request as a customer object
 		Customer c=new Customer(type,amountInLiters,maxPricePerLiter);
-		
-		//match it to an attendant and fix the price
-		Double price=queueAtMatchingPumpAttendant(c); //trows the exceptions if they apply
-		
-		//once we reach this point the customer is served and the gas was successfully sold
-		sold.incrementAndGet();			
-		double cost=price*amountInLiters;
-		
-		addRevenue(cost);
-		return cost;
+		PurchaseEvent event=new PurchaseEvent();
+		event.begin();
+		try{
+			//match it to an attendant and fix the price
+			Double price=queueAtMatchingPumpAttendant(c); //trows the exceptions if they apply
+			
+			//once we reach this point the customer is served and the sale was accounted for
+			return price*amountInLiters;
+		}finally{
+			record(event, c);
+		}
 	}
 	
-	/** adds the cost of a gas purchase to the overall revenue */
-	synchronized protected void addRevenue(double purchaseCost){
-		revenue+=purchaseCost;
+	/**
+	 * Like {@link #buyGas(GasType, double, double)}, but the customer leaves if he is not served in time
+	 * or if the calling thread is interrupted while he waits.
+	 * A customer leaving gives up his place in the queue, and the gas reserved for him is available again right away.
+	 * A customer whose gas is already being pumped stays until he is done, the purchase then succeeds
+	 * (with the interrupt status of the thread set again, if it was interrupted).
+	 *
+	 * @throws TimeoutException
+	 *             if the customer was not served within the timeout
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting
+	 */
+	public double buyGas(GasType type, double amountInLiters, double maxPricePerLiter, long timeout, TimeUnit unit)
+			throws NotEnoughGasException, GasTooExpensiveException, TimeoutException, InterruptedException {
+		Customer c=new Customer(type,amountInLiters,maxPricePerLiter);
+		c.setTimeout(unit.toNanos(timeout));
+		PurchaseEvent event=new PurchaseEvent();
+		event.begin();
+		try{
+			return queueAtMatchingPumpAttendant(c, c.hasDeadline())*amountInLiters;
+		}finally{
+			record(event, c);
+		}
 	}
-
-	/** sorts the customer into the queue of a matching attendant if possible 
+	
+	/**
+	 * Like {@link #buyGas(GasType, double, double)}, but the customer leaves if the calling thread is interrupted
+	 * while he waits (see {@link #buyGas(GasType, double, double, long, TimeUnit)}).
+	 *
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting
+	 */
+	public double buyGasInterruptibly(GasType type, double amountInLiters, double maxPricePerLiter)
+			throws NotEnoughGasException, GasTooExpensiveException, InterruptedException {
+		Customer c=new Customer(type,amountInLiters,maxPricePerLiter);
+		PurchaseEvent event=new PurchaseEvent();
+		event.begin();
+		try {
+			return queueAtMatchingPumpAttendant(c, false)*amountInLiters;
+		} catch (TimeoutException e) {
+			throw new RuntimeException("Oopsy."); //no deadline, this point should not be reached...
+		} finally {
+			record(event, c);
+		}
+	}
+	
+	/** commits the flight recorder event of a purchase (if recorded) with the outcome of the customer */
+	protected void record(PurchaseEvent event, Customer c){
+		String outcome;
+		if(c.getState()==State.Served)
+			outcome=PurchaseEvent.SOLD;
+		else if(c.getState()==State.Abandoned)
+			outcome=PurchaseEvent.ABANDONED;
+		else if(c.getMaxPricePaid()<c.getAgreedPrice())
+			outcome=PurchaseEvent.TOO_EXPENSIVE;
+		else
+			outcome=PurchaseEvent.NOT_ENOUGH_GAS;
+		event.finish(c.getGasType(), c.getLitersWanted(), c.getMaxPricePaid(), c.getAgreedPrice(), c.getPump(), outcome);
+	}
+	
+	/** called by an attendant when he is done pumping gas for a customer;
+	 *  accounts the sale and wakes up the waiting customers.
+	 *  accounting happens under the station lock together with the state change,
+	 *  so a customer is either queued, in service or sold, but never in between */
+	protected void customerServed(QueueingPumpAttendant attendant, Customer c){
+		long requested=servedSection.request();
+		synchronized(this){
+			long acquired=servedSection.acquired(requested);
+			attendant.finishService();
+			c.setState(State.Served);
+			statistics.recordSale(c.getLitersWanted(), c.getAgreedPrice()*c.getLitersWanted());
+			rates.recordSale(c.getGasType(), c.getLitersWanted());
+			try{
+				journal(Kind.SALE, c);
+			}finally{
+				notifyAll();
+				servedSection.released(acquired);
+			}
+		}
+	}
+	
+	/** switches measuring the lock contention on or off */
+	public void setLockMonitoring(boolean enabled){
+		locks.setEnabled(enabled);
+	}
+	
+	/** @return acquisitions, wait and hold times of the critical sections (of the station and all attendants together),
+	 *  the most contended first (all 0 unless lock monitoring is switched on) */
+	public List<LockStatistics> getLockStatistics(){
+		return locks.getStatistics();
+	}
+	
+	/** sets a journal that records every sale and cancellation from now on (null switches journaling off) */
+	public void setJournal(TransactionJournal journal){
+		this.journal=journal;
+	}
+	
+	/** appends a transaction of the given customer to the journal, if there is one.
+	 *  a journal that fails (closed or cannot be extended) does not fail the purchase, the failure is only counted */
+	protected void journal(Kind kind, Customer c){
+		TransactionJournal j=journal;
+		if(j!=null)
+			try {
+				j.append(kind, c.getGasType(), c.getLitersWanted(), c.getAgreedPrice(), c.getPriceVersion(), c.getPump());
+			} catch (IllegalStateException e) {
+				journalFailures.incrementAndGet();
+			}
+	}
+	
+	/** @return number of transactions that could not be appended to the journal */
+	public int getNumberOfJournalFailures(){
+		return journalFailures.get();
+	}
+	
+	/** sorts the customer into the queue of a matching attendant if possible and waits until he is served
 	 *  @return		the price that applies for this transaction
 	 *  @throws NotEnoughGasException - if no pump available with enough gas 
 	 *  @throws GasTooExpensiveException 
      */
-	synchronized  protected double queueAtMatchingPumpAttendant(Customer c) 
+	protected double queueAtMatchingPumpAttendant(Customer c) 
 			throws NotEnoughGasException, GasTooExpensiveException{
+		long requested=purchaseSection.request();
+		synchronized(this){
+			lockAcquired(purchaseSection, requested);
+			try{
+				enqueue(c);
+				
+				// once we reach this point, the customer is either queued (in which case we wait)
+				// or the customer is considered un-servable, in which case the state is 'CannotBeServed'
+				awaitUninterruptibly(c);
+				
+				return settle(c);
+			}finally{
+				lockReleased();
+			}
+		}
+	}
+	
+	/** like {@link #queueAtMatchingPumpAttendant(Customer)}, but the customer leaves when interrupted
+	 *  or (if timed) when his deadline has passed
+	 *  @return		the price that applies for this transaction */
+	protected double queueAtMatchingPumpAttendant(Customer c, boolean timed) 
+			throws NotEnoughGasException, GasTooExpensiveException, TimeoutException, InterruptedException{
+		if(Thread.interrupted())
+			throw new InterruptedException();
+		long requested=purchaseSection.request();
+		synchronized(this){
+			lockAcquired(purchaseSection, requested);
+			try{
+				enqueue(c);
+				
+				while(c.getState()==State.InProcess){
+					long waitNanos=timed?c.getDeadline()-System.nanoTime():0;
+					try {
+						if(!timed || waitNanos>0)
+							waitForChange(waitNanos);
+						else if(abandon(c))
+							throw new TimeoutException();
+						else
+							awaitUninterruptibly(c); //too late to leave, he is being served already
+					} catch (InterruptedException e) {
+						if(abandon(c))
+							throw e;
+						awaitUninterruptibly(c);
+						Thread.currentThread().interrupt(); //keep the interrupt for the caller
+					}
+				}
+				
+				return settle(c);
+			}finally{
+				lockReleased();
+			}
+		}
+	}
+	
+	/** waits until the customer is done, ignoring interrupts */
+	protected void awaitUninterruptibly(Customer c){
+		while(c.getState()==State.InProcess){
+			try {
+				waitForChange(0);
+			} catch (InterruptedException e) {
+				//handled by rechecking main condition of my customer
+			}
+		}
+	}
+	
+	/** waits on the station lock until notified or (if positive) the given time has passed.
+	 *  the time waiting does not count as holding the lock in the lock statistics */
+	protected void waitForChange(long nanos) throws InterruptedException{
+		LockMonitor.Section section=heldSection;
+		long since=heldSince;
+		if(section!=null)
+			section.released(since);
+		heldSection=null; //others take the lock meanwhile
+		try{
+			if(nanos>0)
+				this.wait(nanos/1000000, (int)(nanos%1000000));
+			else
+				this.wait();
+		}finally{
+			heldSection=section;
+			heldSince=(section!=null)?section.resumed(since):0;
+		}
+	}
+	
+	/** to be called first thing holding the station lock in an instrumented section that may wait */
+	private void lockAcquired(LockMonitor.Section section, long requested){
+		heldSection=section;
+		heldSince=section.acquired(requested);
+	}
+	
+	/** to be called last thing before leaving such a section */
+	private void lockReleased(){
+		heldSection.released(heldSince);
+		heldSection=null;
+	}
+	
+	/** lets a waiting customer leave: takes him out of his queue (or out of the collected misfits),
+	 *  which makes the gas reserved for him available again
+	 *  @return true if he left, false if he is already being served (or done) */
+	protected boolean abandon(Customer c){
+		boolean removed=pendingMisfits.get(c.getGasType().ordinal()).remove(c);
+		Iterator<QueueingPumpAttendant> it=attendants.get(c.getGasType().ordinal()).iterator();
+		while(!removed && it.hasNext())
+			removed=it.next().removeCustomer(c);
+		if(!removed)
+			return false;
+		c.setState(State.Abandoned);
+		statistics.recordAbandoned();
+		journal(Kind.ABANDONED, c);
+		return true;
+	}
+	
+	/** fixes the price for the customer, checks it and queues him (reorganizing the queues if necessary);
+	 *  does not wait for the customer to be served
+	 *  @throws GasTooExpensiveException - if the customer does not accept the current price */
+	synchronized protected void enqueue(Customer c) throws GasTooExpensiveException{
+		if(!accepting)
+			throw new IllegalStateException("station is "+(closed?"closed":"draining"));
+		rates.recordArrival(c.getGasType());
 		
-		//get and fix the price
-		double currentPrice=getPrice(c.getGasType());
+		//get and fix the price (remembering the price version it was taken from)
+		PriceBoard.Snapshot currentPrices=prices.getSnapshot();
+		double currentPrice=currentPrices.getPrice(c.getGasType());
+		c.fixPrice(currentPrice, currentPrices.getVersion());
 		
 		//price check
 		if(c.getMaxPricePaid()<currentPrice){
-			cancelledTooExpensive.incrementAndGet();			
+			statistics.recordCancellationTooExpensive();
+			rates.recordRejection(c.getGasType());
+			journal(Kind.CANCELLED_TOO_EXPENSIVE, c);
 			throw new GasTooExpensiveException();
 		}			
 		
-		boolean queued=false; //flag indicating whether customer could be matched to attendant
-		//go over all attendants that serve the correct gas type
-		for(QueueingPumpAttendant attendant:attendants.get(c.getGasType().ordinal())){
-			queued=attendant.tryToQueueCustomer(c);
-			if(queued) //if we find a match that can take the customer, we are done
-				break;
-		}
+		//flag indicating whether customer could be matched to attendant
+		boolean queued=queueAtAttendant(c);
 		
 		//if we could not queue, we check if the customer is potentially servable 
 		// i.e. if there is any gas pump that has enough gas left to serve him
 		// IF we ignore the other customers queuing at the same pump/attendant
 		if((!queued) && queuable(c))
-			reorganizeQueues(c); //if that is the case we try to reorganize the queues in an optimal fashion
-		
-		// once we reach this point, the customer is either queued (in which case we wait)
-		// or the customer is considered un-servable, in which case the state is 'CannotBeServed'
-		while(c.getState()==State.InProcess){
-			try {
-				this.wait();
-			} catch (InterruptedException e) {
-				//handled by rechecking main condition of my customer
+			//if that is the case we try to reorganize the queues in an optimal fashion,
+			//unless this is too slow at the moment (then he is rejected, as in the simple station)
+			if(!optimizeFor(c))
+				c.setState(State.CannotBeServed);
+			else if(!reorganizationCanHelp(c)){ //no need to reorganize, he would not fit anyway
+				skippedReorganizations.incrementAndGet();
+				c.setState(State.CannotBeServed);
 			}
-		}
-		
+			else if(reorganizationWindowMillis>0)
+				collectMisfit(c); //together with the misfits arriving shortly after
+			else
+				reorganizeQueues(Collections.singletonList(c));
+	}
+	
+	/** accounts a customer that is done (served or not)
+	 *  @return		the price that applies for this transaction
+	 *  @throws NotEnoughGasException - if the customer could not be served */
+	protected double settle(Customer c) throws NotEnoughGasException{
 		//if we cannot serve the customer, it has to be because there is not enough gas, 
 		// remember we did the price check explicitly earlier on
 		if(c.getState()==State.CannotBeServed){
-			cancelledAllOutaGas.incrementAndGet();
+			statistics.recordCancellationNoGas();
+			rates.recordRejection(c.getGasType());
+			journal(Kind.CANCELLED_NO_GAS, c);
 			throw new NotEnoughGasException();					
 		}
 		else if(c.getState()==State.Served){ // customer successfully served
-			return currentPrice;
+			return c.getAgreedPrice();
 		}
 		else throw new RuntimeException("Oopsy."); //this point should not be reached...
-					
+	}
+	
+	/** asynchronous version of {@link #buyGas(GasType, double, double)}:
+	 *  queues the customer and returns without waiting for him to be served.
+	 *  the future is completed with the cost of the purchase (on the given executor, never while holding a station lock),
+	 *  or exceptionally with the {@link NotEnoughGasException} or {@link GasTooExpensiveException}. */
+	public CompletableFuture<Double> buyGasAsync(GasType type, final double amountInLiters,
+			double maxPricePerLiter, Executor executor){
+		final Customer c=new Customer(type,amountInLiters,maxPricePerLiter);
+		CompletableFuture<Customer> done=c.completion(); //before queuing, he may be served right away
+		final PurchaseEvent event=new PurchaseEvent();
+		event.begin();
+		long requested=enqueueSection.request();
+		synchronized(this){
+			lockAcquired(enqueueSection, requested);
+			boolean queued=false;
+			try {
+				enqueue(c);
+				queued=true;
+			} catch (GasTooExpensiveException e) {
+				CompletableFuture<Double> failed=new CompletableFuture<Double>();
+				failed.completeExceptionally(e);
+				return failed;
+			} finally {
+				if(!queued)
+					record(event, c);
+				lockReleased();
+			}
+		}
+		//the event lasts until the purchase is settled
+		return done.thenApplyAsync(new Function<Customer, Double>(){
+			@Override
+			public Double apply(Customer customer) {
+				try {
+					return settle(customer)*amountInLiters;
+				} catch (NotEnoughGasException e) {
+					throw new CompletionException(e);
+				} finally {
+					record(event, customer);
+				}
+			}
+		}, executor);
+	}
+	
+	@Override
+	public CompletableFuture<Double> buyGasAsync(GasType type, double amountInLiters, double maxPricePerLiter){
+		return buyGasAsync(type, amountInLiters, maxPricePerLiter, ForkJoinPool.commonPool());
+	}
+	
+	/** queues the customer at one of the attendants of his gas type that still has enough gas for him,
+	 *  chosen according to the placement policy
+	 *  @return true if the customer could be queued */
+	protected boolean queueAtAttendant(Customer c){
+		AttendantRegistry typeAttendants=attendants.get(c.getGasType().ordinal());
+		if(placement==PlacementPolicy.FIRST_FIT){
+			//the first attendant (in the order pumps were added) that can take the customer, found in O(log n)
+			return queueAt(typeAttendants.firstFit(c.getLitersWanted()), c);
+		}
+		
+		//earliest completion: among the attendants that fit, take the one that is done with the customer first
+		QueueingPumpAttendant best=null;
+		double bestTime=Double.MAX_VALUE;
+		for(QueueingPumpAttendant attendant:typeAttendants){
+			if(attendant.getRemainingAmountAfterQueueProcessing()<c.getLitersWanted())
+				continue;
+			double time=attendant.getExpectedCompletionTime(c.getLitersWanted());
+			if(time<bestTime){
+				best=attendant;
+				bestTime=time;
+			}
+		}
+		return queueAt(best, c);
+	}
+	
+	/** queues the customer at the given attendant (if not null and he fits);
+	 *  if he has to wait there, an idle attendant of the gas type is woken up to take him over
+	 *  @return true if the customer was queued */
+	protected boolean queueAt(QueueingPumpAttendant attendant, Customer c){
+		if(attendant==null || !attendant.tryToQueueCustomer(c))
+			return false;
+		if(workStealing && attendant.hasWaitingCustomers()){
+			int idle=pumpStates.findIdle(c.getGasType(), c.getLitersWanted());
+			if(idle>=0)
+				attendantsById.get(idle).schedule();
+		}
+		return true;
+	}
+	
+	/** sets how incoming customers are assigned to attendants ({@link PlacementPolicy#FIRST_FIT} by default) */
+	public void setPlacementPolicy(PlacementPolicy policy){
+		placement=policy;
+	}
+	
+	public PlacementPolicy getPlacementPolicy(){
+		return placement;
+	}
+	
+	/** sets the order in which the attendants of all pumps (including those added later) serve their queues,
+	 *  {@link QueueDiscipline#FIFO} by default. reorganizations keep this order, as customers are queued again by it. */
+	synchronized public void setQueueDiscipline(QueueDiscipline discipline){
+		queueDiscipline=discipline;
+		for(QueueingPumpAttendant attendant:attendantsById)
+			attendant.setQueueDiscipline(discipline);
+	}
+	
+	/** @return the order in which the attendants of pumps added from now on serve their queues */
+	public QueueDiscipline getQueueDiscipline(){
+		return queueDiscipline;
+	}
+	
+	/** sets the order in which the attendant of the given pump serves his queue */
+	synchronized public void setQueueDiscipline(GasPump pump, QueueDiscipline discipline){
+		for(QueueingPumpAttendant attendant:attendants.get(pump.getGasType().ordinal()))
+			if(attendant.pump==pump){
+				attendant.setQueueDiscipline(discipline);
+				return;
+			}
+		throw new IllegalArgumentException("pump does not belong to this station");
+	}
+	
+	/** sets the flow rate of a pump of this station, used to estimate waiting times
+	 *  @param litersPerSecond	how fast the pump delivers gas */
+	synchronized public void setFlowRate(GasPump pump, double litersPerSecond){
+		for(QueueingPumpAttendant attendant:attendants.get(pump.getGasType().ordinal()))
+			if(attendant.pump==pump){
+				attendant.setFlowRate(litersPerSecond);
+				return;
+			}
+		throw new IllegalArgumentException("pump does not belong to this station");
 	}
 	
 	/** checks if there is any attendant/pump that could potentially serve the customer, 
@@ -169,54 +686,266 @@ public class StevesGreedyGasStation implements GasStation{
 	 *              false otherwise
 	 */
 	protected boolean queuable(Customer c){
-		boolean queueable=false;
-		for (QueueingPumpAttendant attendant:attendants.get(c.getGasType().ordinal()))
-			if(attendant.getRemainingAmount()>=c.getLitersWanted())
-				queueable=true;
+		boolean queueable=attendants.get(c.getGasType().ordinal()).getMaxRemainingAmount()>=c.getLitersWanted();
 			
 		if(!queueable)  //if there is no gas pump with enough gas to potentially serve the customer, it is unservable
 			c.setState(State.CannotBeServed);
 		return queueable;				
 	}
 
-	// just a comparator to order attendants by the amount of gas available in their respective gas pumps
-	protected static final Comparator<QueueingPumpAttendant> gasBasedcomp=new RemainingGasBasedComparator();
-	protected static class RemainingGasBasedComparator implements Comparator<QueueingPumpAttendant>{		 
-	    @Override
-	    public int compare(QueueingPumpAttendant o1, QueueingPumpAttendant o2) {
-	    	return Double.compare(o1.getRemainingAmountAfterQueueProcessing(), o2.getRemainingAmountAfterQueueProcessing());	        
-	    } //actually, at this point it should not matter which remaining value we use, because both should be equal...
-	} 
-	
-	/** reorganize all the queues to try somehow getting the given customer into a queue;
+	/** work stealing: hands a customer waiting at a busy attendant over to the given idle attendant of the same gas type.
+	 *  the victim is the busy attendant with the most liters queued, the customer taken is the one he would serve last
+	 *  among those that fit into the projected remaining gas of the idle attendant.
+	 *  first checks without the station lock whether anybody waits at all, so idle attendants do not hammer it;
+	 *  the victim is found by a scan over the pump state table.
+	 *  @return true if a customer was handed over */
+	protected boolean stealCustomerFor(QueueingPumpAttendant thief){
+		if(!workStealing)
+			return false;
+		AttendantRegistry typeAttendants=attendants.get(thief.getGasType().ordinal());
+		if(typeAttendants.getNumberOfQueuedCustomers()==0) //nobody queued at all, no need to look at the attendants
+			return false;
+		if(pumpStates.findMostQueued(thief.getGasType(), thief.getId())==PumpStateTable.NONE)
+			return false;
+		
+		long requested=stealSection.request();
+		synchronized(this){
+			long acquired=stealSection.acquired(requested);
+			try{
+				int victimId=pumpStates.findMostQueued(thief.getGasType(), thief.getId());
+				if(victimId==PumpStateTable.NONE || !thief.noCustomers())
+					return false;
+				QueueingPumpAttendant victim=attendantsById.get(victimId);
+				Customer c=victim.releaseCustomer(thief.getRemainingAmountAfterQueueProcessing());
+				if(c==null)
+					return false;
+				if(!thief.tryToQueueCustomer(c)){ //fits, as checked above, but never lose him: back to the victim
+					if(!victim.tryToQueueCustomer(c))
+						reorganizeQueues(Collections.singletonList(c));
+					return false;
+				}
+				stolen.incrementAndGet();
+				return true;
+			}finally{
+				stealSection.released(acquired);
+			}
+		}
+	}
+	
+	/** switches handing over of waiting customers to idle attendants on or off (on by default) */
+	public void setWorkStealing(boolean enabled){
+		workStealing=enabled;
+	}
+	
+	public boolean isWorkStealing(){
+		return workStealing;
+	}
+	
+	/** @return number of customers that left (timeout or interrupt) before being served */
+	public int getNumberOfAbandonedPurchases(){
+		return statistics.snapshot().getNumberOfAbandonedPurchases();
+	}
+	
+	/** @return number of customers that were handed over to an idle attendant */
+	public int getNumberOfStolenCustomers(){
+		return stolen.get();
+	}
+	
+	/** capacity summary: the largest amount of gas of the given type a customer could get queued for right now
+	 *  without a reorganization. reads without locking, so the result is a hint that may be outdated already. */
+	public double getMaxQueueableAmount(GasType type){
+		return attendants.get(type.ordinal()).getMaxQueueableAmount();
+	}
+	
+	/** capacity summary: the largest amount of gas of the given type left in any pump, 
+	 *  i.e. a customer wanting more can definitely not be served. reads without locking (see above). */
+	public double getMaxRemainingAmount(GasType type){
+		return attendants.get(type.ordinal()).getMaxRemainingAmount();
+	}
+	
+	/** @return the state table of the pumps (e.g. to measure its memory footprint) */
+	public PumpStateTable getPumpStateTable(){
+		return pumpStates;
+	}
+	
+	/** @return the number of pumps of the given type */
+	public int getNumberOfPumps(GasType type){
+		return attendants.get(type.ordinal()).size();
+	}
+
+	/** collects a misfit for a joint reorganization with all misfits of the same gas type arriving within the reorganization window.
+	 *  the first misfit of a burst has the scheduler's timer reorganize the queues once for all of them when the window has passed,
+	 *  so no caller waits for the window inside the station (the customers just wait for their state to change, if at all).
+	 *  @param misfit	a customer that could not be queued (but potentially could match an attendant) */
+	protected void collectMisfit(Customer misfit){
+		final int typeIndex=misfit.getGasType().ordinal();
+		List<Customer> misfits=pendingMisfits.get(typeIndex);
+		misfits.add(misfit);
+		if(misfits.size()>1) //the reorganization is scheduled already
+			return;
+		scheduler.runLater(new Runnable(){
+			@Override
+			public void run() {
+				reorganizeCollected(typeIndex);
+			}
+		}, reorganizationWindowMillis);
+	}
+	
+	/** reorganizes the queues for the misfits of a gas type collected during a window (unless they all left meanwhile) */
+	synchronized protected void reorganizeCollected(int typeIndex){
+		List<Customer> misfits=pendingMisfits.get(typeIndex);
+		pendingMisfits.set(typeIndex, new ArrayList<Customer>());
+		if(!misfits.isEmpty())
+			reorganizeQueues(misfits);
+	}
+	
+	/** sets the time misfits are collected before the queues are reorganized for all of them at once;
+	 *  0 (the default) reorganizes for every misfit immediately */
+	public void setReorganizationWindow(long millis){
+		if(millis<0)
+			throw new IllegalArgumentException("window must not be negative");
+		reorganizationWindowMillis=millis;
+	}
+	
+	public long getReorganizationWindow(){
+		return reorganizationWindowMillis;
+	}
+	
+	/** @return number of reorganizations done so far */
+	public int getNumberOfReorganizations(){
+		return reorganizations.get();
+	}
+	
+	/** @return number of misfits rejected without reorganizing, as no arrangement of the queues could have sold more */
+	public int getNumberOfSkippedReorganizations(){
+		return skippedReorganizations.get();
+	}
+	
+	/** lets reorganizations balance the queues of the pumps (off by default): among the assignments that serve
+	 *  the customers chosen by the per-pump selection, i.e. that sell the same amount of gas, one with less liters queued
+	 *  at the busiest pump is searched by moving and swapping customers, so the last customer is served earlier */
+	public void setQueueBalancing(boolean enabled){
+		queueBalancing=enabled;
+	}
+	
+	/** @return the moves and swaps of customers done so far to balance the queues */
+	public int getNumberOfBalancingSteps(){
+		return balancingSteps.get();
+	}
+	
+	/** switches the check whether a reorganization can do any good for a misfit (on by default);
+	 *  without it, every misfit that fits a pump on its own leads to a reorganization */
+	public void setFeasibilityCheck(boolean enabled){
+		feasibilityCheck=enabled;
+	}
+	
+	/** checks whether a reorganization for the misfit could queue more liters of his gas type than are queued now,
+	 *  as that is what it maximizes (otherwise it does no good, it might even turn customers away for the same liters).
+	 *  every attendant keeps the sums of liters reachable by subsets of his queue, their sumset plus the misfit gives
+	 *  the liters any selection of the customers takes. the most a pump could take is the highest of these sums that fits,
+	 *  so if these do not add up to more than is queued now, no arrangement is better (necessary, not sufficient).
+	 *  amounts that are no whole number of units, large pumps or many queued customers make the check give up.
+	 *  called holding the station lock.
+	 *  @return false if no reorganization can queue more liters, true if it may */
+	protected boolean reorganizationCanHelp(Customer misfit){
+		if(!feasibilityCheck || !ReachableSums.isWhole(misfit.getLitersWanted()))
+			return true;
+		AttendantRegistry typeAttendants=attendants.get(misfit.getGasType().ordinal());
+		//sums beyond the gas any pump has left do not matter
+		ReachableSums all=new ReachableSums(ReachableSums.unitsBelow(typeAttendants.getMaxRemainingAmount()));
+		if(!all.isExact())
+			return true;
+		long[] capacities=new long[typeAttendants.size()];
+		for(int i=0;i<capacities.length;i++){
+			capacities[i]=typeAttendants.get(i).addQueuedSumsTo(all);
+			if(!all.isExact() || all.getWork()>MAX_FEASIBILITY_WORK)
+				return true;
+		}
+		long queued=all.getTotalUnits();
+		all.add(misfit.getLitersWanted());
+		long best=0;
+		for(long capacity:capacities)
+			if((best+=all.highestAtMost(capacity))>queued)
+				return true;
+		return false;
+	}
+	
+	/** @return true if the queues should be reorganized for the given misfit */
+	protected boolean optimizeFor(Customer misfit){
+		AdaptiveStrategy strategy=adaptive;
+		if(strategy==null)
+			return true;
+		int pending=attendants.get(misfit.getGasType().ordinal()).getNumberOfQueuedCustomers();
+		return strategy.shouldOptimize(misfit.getGasType(), pending);
+	}
+	
+	/** lets the station switch between reorganizing for misfits and rejecting them (first fit) per gas type,
+	 *  such that the 99th percentile of the reorganization latency stays below the given bound
+	 *  @param latencyBoundNanos	the bound, 0 switches adaptation off (always reorganize)
+	 *  @see AdaptiveStrategy */
+	synchronized public void setAdaptiveLatencyBound(long latencyBoundNanos){
+		adaptive=(latencyBoundNanos>0)?new AdaptiveStrategy(latencyBoundNanos, 0.5, 1000):null;
+	}
+	
+	/** @return the adaptive strategy with its current modes, or null if adaptation is off */
+	public AdaptiveStrategy getAdaptiveStrategy(){
+		return adaptive;
+	}
+	
+	/** reorganize all the queues to try somehow getting the given customers into a queue;
 	 *  uses an approximation heuristic; optimal solution could be achieved by investigating all possible combinations
-	 *  @param misfit	a customer that could not be queued (but potentially could match an attendant)
+	 *  @param misfits	customers of the same gas type that could not be queued (but potentially could match an attendant)
 	 * */
-	protected void reorganizeQueues(Customer misfit){
-		GasType type=misfit.getGasType(); //get the gas type, we only need to care about attendants for this type		
-		Set<Customer> allCustomers=new HashSet<Customer>(); //will hold all customers queued at any attendant/pump and the misfit
-		allCustomers.add(misfit);
-		for(QueueingPumpAttendant a:attendants.get(type.ordinal())){
-			allCustomers.addAll(a.emptyCustomerQueue());
+	protected void reorganizeQueues(Collection<Customer> misfits){
+		ReorganizationEvent event=new ReorganizationEvent();
+		event.begin();
+		long start=System.nanoTime();
+		reorganizations.incrementAndGet();
+		GasType type=misfits.iterator().next().getGasType(); //get the gas type, we only need to care about attendants for this type		
+		Set<Customer> allCustomers=new HashSet<Customer>(); //will hold all customers queued at any attendant/pump and the misfits
+		allCustomers.addAll(misfits);
+		AttendantRegistry typeAttendants=attendants.get(type.ordinal());
+		double litersBefore=0;
+		for(QueueingPumpAttendant a:typeAttendants){
+			litersBefore+=a.getRemainingAmount()-a.getRemainingAmountAfterQueueProcessing();
+			if(a.getQueueLength()>0) //only the station queues customers, so an empty queue stays empty meanwhile
+				allCustomers.addAll(a.emptyCustomerQueue());
 		}
+		int considered=allCustomers.size();
 		
-		//sort attendants by amount of gas left 
-		Collections.sort(attendants.get(type.ordinal()), gasBasedcomp);		
+		//sort attendants by amount of gas left (in a separate view, the shared registration order stays untouched)
+		List<QueueingPumpAttendant> sorted=typeAttendants.sortedForSolving();
 		//for each attendant independently find an assignment of customers to its queue 
 		//that maximizes the amount of gas sold at this pump/attendant
 		//removes from allCustomers those that have been assigned to the attendant
-		for(QueueingPumpAttendant attendant:attendants.get(type.ordinal()))
-			findOptimalMatching(attendant,allCustomers);		
+		if(queueBalancing)
+			findBalancedMatching(sorted, allCustomers);
+		else
+			for(QueueingPumpAttendant attendant:sorted)
+				findOptimalMatching(attendant,allCustomers);		
 
 		//we assume any customer left cannot be served
 		for(Customer c:allCustomers){
 			c.setState(State.CannotBeServed);			
 		}
+		notifyAll(); //customers turned away may be waiting already
+		
+		AdaptiveStrategy strategy=adaptive;
+		if(strategy!=null)
+			strategy.recordReorganization(type, considered, System.nanoTime()-start);
 		
+		if(event.isEnabled()){
+			double litersAfter=0;
+			for(QueueingPumpAttendant a:typeAttendants)
+				litersAfter+=a.getRemainingAmount()-a.getRemainingAmountAfterQueueProcessing();
+			event.finish(type, typeAttendants.size(), considered, misfits.size(), 
+					allCustomers.size(), litersAfter-litersBefore);
+		}
 	}
 	
-	/** very simple brute-force approach to find the best combination of customers that maximizes
-	 *  the usage (in litres taken) at one gas-pump/attendant; 
+	/** assigns the best combination of customers to the attendant, i.e. the one that maximizes
+	 *  the usage (in litres taken) at one gas-pump/attendant, and removes them from the given customers;
+	 *  solutions are taken from the solution cache if the same instance was solved before.
 	 *  we do not take the prize customers are willing to pay into account;
 	 *  yet this would be a simple modification as this information is known to the station,
 	 *  so it could be really greedy and prefer customers that are willing to pay more...
@@ -226,7 +955,73 @@ public class StevesGreedyGasStation implements GasStation{
 	protected void findOptimalMatching(QueueingPumpAttendant attendant, Set<Customer> customers){
 		//how much 'space' do we have
 		double remainingLiters=attendant.getRemainingAmountAfterQueueProcessing();
+		if(customers.isEmpty())
+			return;
+		
+		Collection<Customer> selection=selectCustomers(remainingLiters, customers);
+		for(Customer c:selection)
+			attendant.tryToQueueCustomer(c);
+		customers.removeAll(selection);  //and ignore those customers for the remaining attendants
+	}
+	
+	/** like {@link #findOptimalMatching(QueueingPumpAttendant, Set)} for all the attendants in the given order,
+	 *  but the selected customers are only queued after balancing them over the pumps (see {@link QueueBalancer}):
+	 *  the same customers are served, with less liters queued at the busiest pump.
+	 *  called while the queues of the attendants are empty.
+	 *  @param sorted		the attendants in the order they select their customers
+	 *  @param customers	the customers to choose from, those selected are removed */
+	protected void findBalancedMatching(List<QueueingPumpAttendant> sorted, Set<Customer> customers){
+		List<Customer> selected=new ArrayList<Customer>();
+		int[] assignment=new int[customers.size()];
+		double[] capacities=new double[sorted.size()];
+		for(int p=0;p<capacities.length;p++){
+			capacities[p]=sorted.get(p).getRemainingAmountAfterQueueProcessing();
+			if(customers.isEmpty()) //pumps selecting nothing can still take some in the balancing
+				continue;
+			Collection<Customer> selection=selectCustomers(capacities[p], customers);
+			for(Customer c:selection){
+				assignment[selected.size()]=p;
+				selected.add(c);
+			}
+			customers.removeAll(selection);
+		}
+		double[] liters=new double[selected.size()];
+		for(int i=0;i<liters.length;i++)
+			liters[i]=selected.get(i).getLitersWanted();
+		balancingSteps.addAndGet(QueueBalancer.balance(liters, assignment, capacities, 4*liters.length+16));
+		
+		for(int i=0;i<liters.length;i++)
+			if(!sorted.get(assignment[i]).tryToQueueCustomer(selected.get(i)))
+				customers.add(selected.get(i)); //does not happen, the queues are empty and only the station queues
+	}
+	
+	/** selects the best combination of the customers for the given amount of gas (see {@link #findOptimalMatching(QueueingPumpAttendant, Set)}),
+	 *  taken from the solution cache if the same instance was solved before
+	 *  @return the customers selected (empty if none fits) */
+	protected Collection<Customer> selectCustomers(double remainingLiters, Set<Customer> customers){
+		Collection<Customer> selection=null;
+		KnapsackCache cache=solutionCache;
+		KnapsackCache.Key key=null;
+		if(cache!=null){
+			key=cache.key(amountsOf(customers), remainingLiters);
+			double[] cached=(key==null)?null:cache.get(key);
+			if(cached!=null)
+				selection=pickByAmounts(customers, cached);
+		}
+		if(selection==null){
+			if(approximationEpsilon>0 && customers.size()>=approximationThreshold)
+				selection=selectByApproximation(remainingLiters, customers);
+			else
+				selection=selectByEnumeration(remainingLiters, customers);
+			if(key!=null)
+				cache.put(key, amountsOf(selection));
+		}
+		return selection;
+	}
 	
+	/** very simple brute-force approach to find the best combination of customers for the given amount of gas
+	 *  @return the customers selected (empty if none fits) */
+	protected Set<Customer> selectByEnumeration(double remainingLiters, Set<Customer> customers){
 		// basically generates all customer combinations that could be served by the current attendant
 		// and then finds out the one with the maximal amount of litres
 		for(int i=customers.size();i>0; i--){ //this whole process could be optimized...
@@ -244,13 +1039,81 @@ public class StevesGreedyGasStation implements GasStation{
 					}
 			}
 			
-			if(maxValidCombo!=null){ // fi we found a combination generate the queue
-				for(Customer c:maxValidCombo)
-					attendant.tryToQueueCustomer(c);
-				customers.removeAll(maxValidCombo);  //and ignore those customers for the remaining attendants
-				return;
-			}			
-		}					
+			if(maxValidCombo!=null) // if we found a combination, that's it
+				return maxValidCombo;
+		}
+		return Collections.emptySet();
+	}
+	
+	/** selects customers with the approximation scheme, i.e. at least (1-epsilon) of the best possible liters,
+	 *  in time polynomial in the number of customers and 1/epsilon
+	 *  @return the customers selected (empty if none fits) */
+	protected List<Customer> selectByApproximation(double remainingLiters, Set<Customer> customers){
+		List<Customer> candidates=new ArrayList<Customer>(customers);
+		double[] liters=new double[candidates.size()];
+		for(int i=0;i<liters.length;i++)
+			liters[i]=candidates.get(i).getLitersWanted();
+		boolean[] selected=ApproximateKnapsack.solve(liters, remainingLiters, approximationEpsilon);
+		List<Customer> selection=new ArrayList<Customer>();
+		for(int i=0;i<selected.length;i++)
+			if(selected[i])
+				selection.add(candidates.get(i));
+		return selection;
+	}
+	
+	/** switches the per-pump selection to the approximation scheme for large sets of customers,
+	 *  trading gas sold for shorter reorganizations. note that the approximation maximizes the liters,
+	 *  while the enumeration prefers serving more customers.
+	 *  @param epsilon		accepted loss of liters per pump (0 &lt; epsilon &lt; 1), 0 switches the approximation off
+	 *  @param minCustomers	the approximation is used for this many customers or more, fewer are still enumerated */
+	synchronized public void setApproximation(double epsilon, int minCustomers){
+		if(epsilon<0 || epsilon>=1)
+			throw new IllegalArgumentException("epsilon has to be in [0,1)");
+		approximationEpsilon=epsilon;
+		approximationThreshold=minCustomers;
+		KnapsackCache cache=solutionCache;
+		if(cache!=null) //cached solutions were computed differently
+			cache.clear();
+	}
+	
+	/** @return the amounts wanted by the given customers in ascending order */
+	protected static double[] amountsOf(Collection<Customer> customers){
+		double[] amounts=new double[customers.size()];
+		int i=0;
+		for(Customer c:customers)
+			amounts[i++]=c.getLitersWanted();
+		Arrays.sort(amounts);
+		return amounts;
+	}
+	
+	/** maps a cached solution back to customers: picks one customer per selected amount */
+	protected static List<Customer> pickByAmounts(Set<Customer> customers, double[] sortedAmounts){
+		List<Customer> byAmount=new ArrayList<Customer>(customers);
+		Collections.sort(byAmount, new Comparator<Customer>(){
+			@Override
+			public int compare(Customer o1, Customer o2) {
+				return Double.compare(o1.getLitersWanted(), o2.getLitersWanted());
+			}
+		});
+		List<Customer> selection=new ArrayList<Customer>(sortedAmounts.length);
+		int next=0;
+		for(Customer c:byAmount)
+			if(next<sortedAmounts.length && c.getLitersWanted()==sortedAmounts[next]){
+				selection.add(c);
+				next++;
+			}
+		return selection;
+	}
+	
+	/** sets the number of solutions kept in the solution cache (0 switches caching off)
+	 *  @param quantum	amounts that are multiples of this are cached, e.g. 1 liter */
+	synchronized public void setSolutionCache(int maxEntries, double quantum){
+		solutionCache=(maxEntries>0)?new KnapsackCache(maxEntries, quantum):null;
+	}
+	
+	/** @return the solution cache with its hit and miss counters, or null if caching is off */
+	public KnapsackCache getSolutionCache(){
+		return solutionCache;
 	}
 	
 	/** computes all subsets of a set of customers with a given size */
@@ -280,7 +1143,7 @@ public class StevesGreedyGasStation implements GasStation{
 	 * @return the total revenue generated
 	 */
 	public double getRevenue() {
-		return revenue;
+		return statistics.snapshot().getRevenue();
 	}
 
 	/**
@@ -289,14 +1152,14 @@ public class StevesGreedyGasStation implements GasStation{
 	 * @return the number of sales that were successful
 	 */
 	public int getNumberOfSales() {
-		return sold.get();
+		return statistics.snapshot().getNumberOfSales();
 	}
 
 	/**
 	 * @return the number of cancelled transactions due to not enough gas being available
 	 */
 	public int getNumberOfCancellationsNoGas() {
-		return cancelledAllOutaGas.get();
+		return statistics.snapshot().getNumberOfCancellationsNoGas();
 	}
 
 	/**
@@ -305,7 +1168,22 @@ public class StevesGreedyGasStation implements GasStation{
 	 * @return the number of cancelled transactions
 	 */
 	public int getNumberOfCancellationsTooExpensive() {
-		return cancelledTooExpensive.get();
+		return statistics.snapshot().getNumberOfCancellationsTooExpensive();
+	}
+	
+	/** @return all sales figures from the same instant (without locking) */
+	public StationStatistics.Snapshot getStatistics() {
+		return statistics.snapshot();
+	}
+	
+	/** @return arrivals, sales, liters and rejections per second and gas type over sliding windows */
+	public RollingRates getRollingRates() {
+		return rates;
+	}
+	
+	/** replaces the rolling rates by empty ones with the given resolution and longest window */
+	public void setRollingRates(long bucketMillis, int buckets) {
+		rates=new RollingRates(bucketMillis, buckets);
 	}
 
 	
@@ -316,8 +1194,8 @@ public class StevesGreedyGasStation implements GasStation{
 	 *            the type of gas
 	 * @return the price per liter for this type of gas
 	 */
-	synchronized public double getPrice(GasType type) {
-		return prices[type.ordinal()];
+	public double getPrice(GasType type) {
+		return prices.getPrice(type);
 	}
 
 	
@@ -329,8 +1207,19 @@ public class StevesGreedyGasStation implements GasStation{
 	 * @param price
 	 *            the new price per liter for this type of gas
 	 */
-	synchronized public void setPrice(GasType type, double price) {
-		prices[type.ordinal()]=price;		
+	public void setPrice(GasType type, double price) {
+		prices.setPrice(type, price);		
+	}
+	
+	/** sets the prices of several gas types in one atomic update
+	 *  (customers either see all old or all new prices) */
+	public void setPrices(Map<GasType, Double> newPrices) {
+		prices.setPrices(newPrices);
+	}
+	
+	/** @return the currently valid prices including their version */
+	public PriceBoard.Snapshot getPriceSnapshot() {
+		return prices.getSnapshot();
 	}
 
 	
@@ -0,0 +1,44 @@
+package de.smetzger.bigpoint.gasstation.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** flight recorder event for an attendant filling up a customer; the duration is the time pumping */
+@Name("de.smetzger.bigpoint.gasstation.PumpCycle")
+@Label("Pump Cycle")
+@Category("Gas Station")
+@StackTrace(false)
+public class PumpCycleEvent extends Event {
+
+	@Label("Pump")
+	protected int pump;
+
+	@Label("Gas Type")
+	protected String gasType;
+
+	@Label("Liters")
+	protected double liters;
+
+	@Label("Queue Length")
+	@Description("Customers still waiting at the pump when the cycle started")
+	protected int queueLength;
+
+	/** ends the event and commits it, if it is recorded */
+	public void finish(int pump, GasType type, double liters, int queueLength){
+		end();
+		if(!shouldCommit())
+			return;
+		this.pump=pump;
+		this.gasType=type.name();
+		this.liters=liters;
+		this.queueLength=queueLength;
+		commit();
+	}
+
+}
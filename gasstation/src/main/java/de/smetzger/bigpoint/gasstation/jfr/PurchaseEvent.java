@@ -0,0 +1,67 @@
+package de.smetzger.bigpoint.gasstation.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** flight recorder event for a purchase; the duration is the time the customer spent in buyGas
+ *  (waiting for a pump and pumping), for buyGasAsync the time until the purchase was settled.
+ *  <pre>
+ *  PurchaseEvent event=new PurchaseEvent();
+ *  event.begin();
+ *  ...
+ *  event.finish(type, liters, maxPrice, price, pump, outcome);
+ *  </pre>
+ *  while the event is not recorded, finish() does not touch any field, and the JIT removes the allocation. */
+@Name("de.smetzger.bigpoint.gasstation.Purchase")
+@Label("Gas Purchase")
+@Category("Gas Station")
+@Description("A call of buyGas or buyGasAsync, lasting as long as the customer waited (including pumping)")
+@StackTrace(false)
+public class PurchaseEvent extends Event {
+
+	public static final String SOLD="SOLD";
+	public static final String NOT_ENOUGH_GAS="NOT_ENOUGH_GAS";
+	public static final String TOO_EXPENSIVE="TOO_EXPENSIVE";
+	public static final String ABANDONED="ABANDONED";
+
+	@Label("Gas Type")
+	protected String gasType;
+
+	@Label("Liters")
+	protected double liters;
+
+	@Label("Max Price per Liter")
+	protected double maxPricePerLiter;
+
+	@Label("Price per Liter")
+	@Description("The price fixed for the customer (0 if none was fixed)")
+	protected double pricePerLiter;
+
+	@Label("Pump")
+	@Description("Id of the pump that served the customer, -1 if none did")
+	protected int pump;
+
+	@Label("Outcome")
+	protected String outcome;
+
+	/** ends the event and commits it, if it is recorded */
+	public void finish(GasType type, double liters, double maxPricePerLiter, double pricePerLiter, int pump, String outcome){
+		end();
+		if(!shouldCommit())
+			return;
+		this.gasType=type.name();
+		this.liters=liters;
+		this.maxPricePerLiter=maxPricePerLiter;
+		this.pricePerLiter=pricePerLiter;
+		this.pump=pump;
+		this.outcome=outcome;
+		commit();
+	}
+
+}
@@ -0,0 +1,54 @@
+package de.smetzger.bigpoint.gasstation.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** flight recorder event for a reorganization of the queues of one gas type; the duration is the solver time */
+@Name("de.smetzger.bigpoint.gasstation.Reorganization")
+@Label("Queue Reorganization")
+@Category("Gas Station")
+@Description("The queues of a gas type were rebuilt to fit in customers that did not fit anywhere")
+@StackTrace(false)
+public class ReorganizationEvent extends Event {
+
+	@Label("Gas Type")
+	protected String gasType;
+
+	@Label("Pumps")
+	protected int pumps;
+
+	@Label("Customers Considered")
+	@Description("Queued customers and misfits taken into account")
+	protected int customersConsidered;
+
+	@Label("Misfits")
+	protected int misfits;
+
+	@Label("Customers Rejected")
+	protected int customersRejected;
+
+	@Label("Liters Gained")
+	@Description("Liters queued after the reorganization minus liters queued before")
+	protected double litersGained;
+
+	/** ends the event and commits it, if it is recorded */
+	public void finish(GasType type, int pumps, int customersConsidered, int misfits, int customersRejected, double litersGained){
+		end();
+		if(!shouldCommit())
+			return;
+		this.gasType=type.name();
+		this.pumps=pumps;
+		this.customersConsidered=customersConsidered;
+		this.misfits=misfits;
+		this.customersRejected=customersRejected;
+		this.litersGained=litersGained;
+		commit();
+	}
+
+}
@@ -0,0 +1,115 @@
+package de.smetzger.bigpoint.gasstation.journal;
+
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.HEADER_SIZE;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.OFFSET_GAS_TYPE;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.OFFSET_KIND;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.OFFSET_LITERS;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.OFFSET_PRICE;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.OFFSET_PRICE_VERSION;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.OFFSET_PUMP;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.OFFSET_SEQUENCE;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.OFFSET_TIMESTAMP;
+import static de.smetzger.bigpoint.gasstation.journal.TransactionJournal.RECORD_SIZE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal.Kind;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** sequential reader for a {@link TransactionJournal}, e.g. for audits or to replay the sales of a day.
+ *  works as a cursor over the mapped file: {@link #next()} moves to the next record
+ *  and the getters return the fields of the current record, so reading does not create any objects.
+ *  <pre>
+ *  while(reader.next())
+ *      total+=reader.getLiters()*reader.getPrice();
+ *  </pre>
+ */
+public class JournalReader implements Closeable {
+
+	protected final FileChannel channel;
+	protected final int recordsPerRegion;
+	private final long regionCount;
+
+	private MappedByteBuffer region=null;
+	private int regionIndex=-1;
+	private int slot;
+	private int base=-RECORD_SIZE; //offset of the current record in the region
+
+	public JournalReader(Path file) throws IOException{
+		channel=FileChannel.open(file, StandardOpenOption.READ);
+		recordsPerRegion=TransactionJournal.checkHeader(channel, 0);
+		long regionBytes=(long)recordsPerRegion*RECORD_SIZE;
+		regionCount=(channel.size()-HEADER_SIZE)/regionBytes;
+		slot=recordsPerRegion; //forces mapping the first region
+	}
+
+	/** moves to the next record
+	 *  @return true if there is one, false at the end of the journal */
+	public boolean next() throws IOException{
+		if(slot==recordsPerRegion){
+			if(regionIndex+1>=regionCount)
+				return false;
+			long regionBytes=(long)recordsPerRegion*RECORD_SIZE;
+			region=channel.map(MapMode.READ_ONLY, HEADER_SIZE+(++regionIndex)*regionBytes, regionBytes);
+			slot=0;
+		}
+		if(region.get(slot*RECORD_SIZE+OFFSET_KIND)==0) //not written (yet)
+			return false;
+		base=slot*RECORD_SIZE;
+		slot++;
+		return true;
+	}
+
+	public long getTimestamp(){
+		return region.getLong(base+OFFSET_TIMESTAMP);
+	}
+
+	public long getSequence(){
+		return region.getLong(base+OFFSET_SEQUENCE);
+	}
+
+	public Kind getKind(){
+		return Kind.fromCode(region.get(base+OFFSET_KIND));
+	}
+
+	public GasType getGasType(){
+		return GasType.values()[region.get(base+OFFSET_GAS_TYPE)];
+	}
+
+	public double getLiters(){
+		return region.getDouble(base+OFFSET_LITERS);
+	}
+
+	/** @return the price per liter */
+	public double getPrice(){
+		return region.getDouble(base+OFFSET_PRICE);
+	}
+
+	public long getPriceVersion(){
+		return region.getLong(base+OFFSET_PRICE_VERSION);
+	}
+
+	/** @return the id of the pump or {@link TransactionJournal#NO_PUMP} */
+	public int getPump(){
+		return region.getInt(base+OFFSET_PUMP);
+	}
+
+	@Override
+	public String toString(){
+		return "[#"+getSequence()+" "+getKind()+", gas: "+getGasType()+", liters: "+getLiters()
+				+", price: "+getPrice()+" (v"+getPriceVersion()+"), pump: "+getPump()+"]";
+	}
+
+	@Override
+	public void close() throws IOException{
+		channel.close();
+	}
+
+}
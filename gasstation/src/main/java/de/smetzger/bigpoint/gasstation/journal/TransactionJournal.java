@@ -0,0 +1,254 @@
+package de.smetzger.bigpoint.gasstation.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** an append-only journal of completed sales and cancellations in a memory-mapped file.
+ *
+ *  every transaction is written as a fixed-size binary record (see {@link #RECORD_SIZE})
+ *  directly into the mapped region, which only costs a short critical section and no system call.
+ *  making the records durable (forcing the mapped pages to disk) is done in batches by a background
+ *  thread every commit interval (group commit), callers that need durability can wait for it via {@link #sync()}.
+ *
+ *  the file is mapped in regions of a fixed number of records, when a region is full the next one is mapped
+ *  and the full one is left to the background thread to force.
+ *  an existing journal is continued, i.e. new records are appended after the last complete record.
+ */
+public class TransactionJournal implements Closeable {
+
+	/** the kind of transaction a record represents (code 0 marks the end of the journal) */
+	public enum Kind {
+		SALE, CANCELLED_NO_GAS, CANCELLED_TOO_EXPENSIVE, ABANDONED;
+
+		byte code(){
+			return (byte)(ordinal()+1);
+		}
+
+		static Kind fromCode(byte code){
+			return values()[code-1];
+		}
+	}
+
+	static final int MAGIC=0x47534a31; //'GSJ1'
+	static final int HEADER_SIZE=64;
+
+	/** record layout: timestamp, sequence, liters, price, price version, pump, kind, gas type, (padding) */
+	public static final int RECORD_SIZE=48;
+	static final int OFFSET_TIMESTAMP=0;
+	static final int OFFSET_SEQUENCE=8;
+	static final int OFFSET_LITERS=16;
+	static final int OFFSET_PRICE=24;
+	static final int OFFSET_PRICE_VERSION=32;
+	static final int OFFSET_PUMP=40;
+	static final int OFFSET_KIND=44;
+	static final int OFFSET_GAS_TYPE=45;
+
+	/** pump id used for transactions that were not assigned to any pump */
+	public static final int NO_PUMP=-1;
+
+	public static final int DEFAULT_RECORDS_PER_REGION=1<<20;
+	public static final long DEFAULT_COMMIT_INTERVAL_MILLIS=5;
+
+	protected final FileChannel channel;
+	protected final int recordsPerRegion;
+	protected final long commitIntervalMillis;
+
+	private MappedByteBuffer region; //currently mapped region
+	private List<MappedByteBuffer> fullRegions=new ArrayList<MappedByteBuffer>(); //filled up, but not forced yet
+	private int regionIndex;		 //index of the mapped region within the file
+	private int slot;                //next free record slot within the region
+	private long sequence;           //sequence number of the next record
+
+	private long forcedSequence;     //all records below this sequence are on disk
+	private boolean closed=false;
+
+	private final Thread committer;
+
+	/** opens (or creates) a journal with default region size and commit interval */
+	public TransactionJournal(Path file) throws IOException{
+		this(file, DEFAULT_RECORDS_PER_REGION, DEFAULT_COMMIT_INTERVAL_MILLIS);
+	}
+
+	/** opens (or creates) a journal
+	 *  @param file					the journal file
+	 *  @param recordsPerRegion		number of records mapped at once
+	 *  @param commitIntervalMillis	maximal time between appending a record and forcing it to disk */
+	public TransactionJournal(Path file, int recordsPerRegion, long commitIntervalMillis) throws IOException{
+		if(recordsPerRegion<=0 || commitIntervalMillis<=0)
+			throw new IllegalArgumentException("region size and commit interval have to be positive");
+		this.recordsPerRegion=recordsPerRegion;
+		this.commitIntervalMillis=commitIntervalMillis;
+		channel=FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		if(channel.size()==0)
+			writeHeader();
+		else
+			checkHeader(channel, recordsPerRegion);
+
+		//find the end of an existing journal (the first slot without a kind)
+		long existing=0;
+		for(regionIndex=0;;regionIndex++){
+			region=mapRegion(regionIndex);
+			for(slot=0;slot<recordsPerRegion;slot++,existing++)
+				if(region.get(slot*RECORD_SIZE+OFFSET_KIND)==0)
+					break;
+			if(slot<recordsPerRegion)
+				break;
+		}
+		sequence=existing;
+		forcedSequence=existing;
+
+		committer=new Thread(this::commitLoop, "journal-committer");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	private void writeHeader() throws IOException{
+		ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(RECORD_SIZE).putInt(recordsPerRegion).putLong(System.currentTimeMillis());
+		header.clear();
+		channel.write(header, 0);
+		channel.force(true);
+	}
+
+	/** validates the header of a journal file and returns the number of records per region it was written with */
+	static int checkHeader(FileChannel channel, int expectedRecordsPerRegion) throws IOException{
+		ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		header.flip();
+		if(header.remaining()<12 || header.getInt()!=MAGIC || header.getInt()!=RECORD_SIZE)
+			throw new IOException("not a transaction journal");
+		int recordsPerRegion=header.getInt();
+		if(expectedRecordsPerRegion>0 && recordsPerRegion!=expectedRecordsPerRegion)
+			throw new IOException("journal was written with "+recordsPerRegion+" records per region");
+		return recordsPerRegion;
+	}
+
+	private MappedByteBuffer mapRegion(int index) throws IOException{
+		long regionBytes=(long)recordsPerRegion*RECORD_SIZE;
+		return channel.map(MapMode.READ_WRITE, HEADER_SIZE+index*regionBytes, regionBytes);
+	}
+
+	/** appends a transaction; the record is written directly into the mapped region,
+	 *  its kind is written last and thus marks the record as complete
+	 *  @param kind				sale or reason of the cancellation
+	 *  @param pump				id of the pump or {@link #NO_PUMP}
+	 *  @return the sequence number of the record */
+	synchronized public long append(Kind kind, GasType type, double liters, double pricePerLiter, long priceVersion, int pump){
+		if(closed)
+			throw new IllegalStateException("journal is closed");
+		if(slot==recordsPerRegion)
+			nextRegion();
+		int base=slot*RECORD_SIZE;
+		region.putLong(base+OFFSET_TIMESTAMP, System.currentTimeMillis());
+		region.putLong(base+OFFSET_SEQUENCE, sequence);
+		region.putDouble(base+OFFSET_LITERS, liters);
+		region.putDouble(base+OFFSET_PRICE, pricePerLiter);
+		region.putLong(base+OFFSET_PRICE_VERSION, priceVersion);
+		region.putInt(base+OFFSET_PUMP, pump);
+		region.put(base+OFFSET_GAS_TYPE, (byte)type.ordinal());
+		region.put(base+OFFSET_KIND, kind.code());
+		slot++;
+		return sequence++;
+	}
+
+	/** maps the next region, the full one is forced by the committer */
+	private void nextRegion(){
+		try {
+			MappedByteBuffer full=region;
+			region=mapRegion(regionIndex+1);
+			regionIndex++;
+			fullRegions.add(full);
+			slot=0;
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot extend journal", e);
+		}
+	}
+
+	/** background loop forcing all records appended since the last commit in one go;
+	 *  the pages are forced outside the lock, so appending threads are never held up by the disk */
+	private void commitLoop(){
+		while(true){
+			long target;
+			List<MappedByteBuffer> toForce;
+			synchronized(this){
+				try {
+					wait(commitIntervalMillis);
+				} catch (InterruptedException e) {
+					// handled by rechecking closed flag
+				}
+				if(closed)
+					return;
+				if(forcedSequence==sequence)
+					continue;
+				target=sequence;
+				toForce=takeUnforced();
+			}
+			for(MappedByteBuffer r:toForce)
+				r.force();
+			synchronized(this){
+				if(target>forcedSequence)
+					forcedSequence=target;
+				notifyAll();
+			}
+		}
+	}
+
+	/** @return the regions filled up since the last commit and the current one, to be forced (called holding the lock) */
+	private List<MappedByteBuffer> takeUnforced(){
+		List<MappedByteBuffer> unforced=fullRegions;
+		fullRegions=new ArrayList<MappedByteBuffer>();
+		unforced.add(region);
+		return unforced;
+	}
+
+	/** makes all appended records durable and wakes up threads waiting in {@link #sync()} */
+	synchronized private void commit(){
+		if(forcedSequence==sequence)
+			return;
+		for(MappedByteBuffer r:takeUnforced())
+			r.force();
+		forcedSequence=sequence;
+		notifyAll();
+	}
+
+	/** waits until all records appended before this call are forced to disk (at most one commit interval) */
+	synchronized public void sync() throws InterruptedException{
+		long target=sequence;
+		while(forcedSequence<target && !closed)
+			wait();
+	}
+
+	/** @return number of records in the journal */
+	synchronized public long size(){
+		return sequence;
+	}
+
+	@Override
+	public void close() throws IOException{
+		synchronized(this){
+			if(closed)
+				return;
+			commit();
+			closed=true;
+			notifyAll();
+		}
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+
+}
@@ -0,0 +1,67 @@
+package de.smetzger.bigpoint.gasstation.net;
+
+import java.nio.ByteBuffer;
+
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** the binary protocol between {@link StationClient} and {@link StationServer}.
+ *
+ *  both directions are streams of fixed-length messages (big endian), without any framing:
+ *  a request is id, liters, max price per liter and gas type (ordinal), padded to {@link #REQUEST_SIZE},
+ *  a response is id, cost and outcome (ordinal), padded to {@link #RESPONSE_SIZE}.
+ *  a client may send any number of requests without waiting (pipelining),
+ *  the responses of a connection come back in the order of its requests.
+ */
+final class Protocol {
+
+	static final int REQUEST_SIZE=32;
+	static final int OFFSET_REQUEST_LITERS=8;
+	static final int OFFSET_REQUEST_PRICE=16;
+	static final int OFFSET_REQUEST_GAS_TYPE=24;
+
+	static final int RESPONSE_SIZE=24;
+	static final int OFFSET_RESPONSE_COST=8;
+	static final int OFFSET_RESPONSE_OUTCOME=16;
+
+	private static final GasType[] GAS_TYPES=GasType.values();
+	private static final Outcome[] OUTCOMES=Outcome.values();
+
+	private Protocol(){
+	}
+
+	/** appends a request at the position of the buffer (which needs {@link #REQUEST_SIZE} bytes left) */
+	static void putRequest(ByteBuffer buffer, long id, GasType type, double liters, double maxPricePerLiter){
+		int base=buffer.position();
+		buffer.putLong(base, id);
+		buffer.putDouble(base+OFFSET_REQUEST_LITERS, liters);
+		buffer.putDouble(base+OFFSET_REQUEST_PRICE, maxPricePerLiter);
+		buffer.put(base+OFFSET_REQUEST_GAS_TYPE, (byte)type.ordinal());
+		for(int i=OFFSET_REQUEST_GAS_TYPE+1;i<REQUEST_SIZE;i++)
+			buffer.put(base+i, (byte)0);
+		buffer.position(base+REQUEST_SIZE);
+	}
+
+	/** appends a response at the position of the buffer (which needs {@link #RESPONSE_SIZE} bytes left) */
+	static void putResponse(ByteBuffer buffer, long id, Outcome outcome, double cost){
+		int base=buffer.position();
+		buffer.putLong(base, id);
+		buffer.putDouble(base+OFFSET_RESPONSE_COST, cost);
+		buffer.put(base+OFFSET_RESPONSE_OUTCOME, (byte)outcome.ordinal());
+		for(int i=OFFSET_RESPONSE_OUTCOME+1;i<RESPONSE_SIZE;i++)
+			buffer.put(base+i, (byte)0);
+		buffer.position(base+RESPONSE_SIZE);
+	}
+
+	/** @return the gas type of a code, null if there is none */
+	static GasType gasType(int code){
+		return (code>=0 && code<GAS_TYPES.length)?GAS_TYPES[code]:null;
+	}
+
+	/** @return the outcome of a code, null if there is none */
+	static Outcome outcome(int code){
+		return (code>=0 && code<OUTCOMES.length)?OUTCOMES[code]:null;
+	}
+
+}
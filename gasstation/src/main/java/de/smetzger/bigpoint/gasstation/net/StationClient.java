@@ -0,0 +1,182 @@
+package de.smetzger.bigpoint.gasstation.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.smetzger.bigpoint.gasstation.flow.PurchaseRequest;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/** a connection to a {@link StationServer}.
+ *
+ *  requests are collected in a send buffer and written when it is full or on {@link #flush()},
+ *  so many requests can be sent without waiting for any response (pipelining) and with few system calls.
+ *  a reader thread receives the responses, which come in the order of the requests, and completes their futures.
+ *  the client may be used by several threads.
+ */
+public class StationClient implements Closeable {
+
+	protected final SocketChannel channel;
+	private final ByteBuffer out=ByteBuffer.allocateDirect(StationServer.BUFFER_SIZE);
+
+	//requests sent (or buffered) and not answered yet, in the order they were sent
+	private final ConcurrentLinkedQueue<Pending> pending=new ConcurrentLinkedQueue<Pending>();
+	//ids of the purchases of buyGas
+	private final AtomicLong nextId=new AtomicLong();
+
+	private final Thread reader;
+	private boolean closed=false;
+	private IOException failure=null;
+
+	private static final class Pending {
+		final PurchaseRequest request;
+		final CompletableFuture<PurchaseResult> result=new CompletableFuture<PurchaseResult>();
+
+		Pending(PurchaseRequest request){
+			this.request=request;
+		}
+	}
+
+	/** connects to a server on the loopback interface */
+	public StationClient(int port) throws IOException{
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	public StationClient(InetSocketAddress address) throws IOException{
+		channel=SocketChannel.open(address);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		reader=new Thread(this::receive, "station-client");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/** buffers a request (it is written once the buffer is full or on {@link #flush()})
+	 *  @return a future completed with the result, or exceptionally with an IOException if the connection is lost */
+	synchronized public CompletableFuture<PurchaseResult> send(PurchaseRequest request) throws IOException{
+		if(closed)
+			throw (failure!=null)?new IOException("connection lost", failure):new IOException("client is closed");
+		if(out.remaining()<Protocol.REQUEST_SIZE)
+			write();
+		Pending p=new Pending(request);
+		pending.add(p); //before the request can be answered
+		Protocol.putRequest(out, request.getId(), request.getGasType(), request.getLiters(), request.getMaxPricePerLiter());
+		return p.result;
+	}
+
+	/** writes all buffered requests */
+	synchronized public void flush() throws IOException{
+		write();
+	}
+
+	private void write() throws IOException{
+		out.flip();
+		while(out.hasRemaining())
+			channel.write(out);
+		out.clear();
+	}
+
+	/** buys gas at the station like {@link net.bigpoint.assessment.gasstation.GasStation#buyGas(GasType, double, double)},
+	 *  waiting for the response
+	 *  @throws IOException	if the connection is lost or the purchase failed at the station for any other reason */
+	public double buyGas(GasType type, double amountInLiters, double maxPricePerLiter)
+			throws IOException, NotEnoughGasException, GasTooExpensiveException{
+		CompletableFuture<PurchaseResult> future;
+		synchronized(this){
+			future=send(new PurchaseRequest(nextId.incrementAndGet(), type, amountInLiters, maxPricePerLiter));
+			flush();
+		}
+		PurchaseResult result;
+		try {
+			result=future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for the station", e);
+		} catch (ExecutionException e) {
+			throw new IOException("connection lost", e.getCause());
+		}
+		switch(result.getOutcome()){
+		case SOLD:
+			return result.getCost();
+		case NOT_ENOUGH_GAS:
+			throw new NotEnoughGasException();
+		case TOO_EXPENSIVE:
+			throw new GasTooExpensiveException();
+		default:
+			throw new IOException("purchase failed at the station");
+		}
+	}
+
+	/** @return the number of requests not answered yet */
+	public int getNumberOfPendingRequests(){
+		return pending.size();
+	}
+
+	/** closes the connection, requests not answered yet fail */
+	@Override
+	public void close() throws IOException{
+		synchronized(this){
+			closed=true;
+		}
+		channel.close();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** the reader loop */
+	private void receive(){
+		ByteBuffer in=ByteBuffer.allocateDirect(StationServer.BUFFER_SIZE);
+		IOException lost=null;
+		try {
+			while(channel.read(in)>=0){
+				in.flip();
+				while(in.remaining()>=Protocol.RESPONSE_SIZE){
+					int base=in.position();
+					long id=in.getLong(base);
+					double cost=in.getDouble(base+Protocol.OFFSET_RESPONSE_COST);
+					Outcome outcome=Protocol.outcome(in.get(base+Protocol.OFFSET_RESPONSE_OUTCOME));
+					in.position(base+Protocol.RESPONSE_SIZE);
+					Pending p=pending.poll();
+					if(p==null || p.request.getId()!=id || outcome==null)
+						throw new IOException("unexpected response #"+id);
+					p.result.complete(new PurchaseResult(p.request, outcome, cost,
+							(outcome==Outcome.FAILED)?new IOException("purchase failed at the station"):null));
+				}
+				in.compact();
+			}
+			lost=new IOException("connection closed by the server");
+		} catch (IOException e) {
+			lost=e;
+		} finally {
+			synchronized(this){
+				closed=true;
+				if(failure==null)
+					failure=lost;
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+			Pending p;
+			while((p=pending.poll())!=null)
+				p.result.completeExceptionally((lost!=null)?lost:new IOException("client is closed"));
+		}
+	}
+
+}
@@ -0,0 +1,445 @@
+package de.smetzger.bigpoint.gasstation.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
+
+import de.smetzger.bigpoint.gasstation.AsyncGasStation;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/** serves a gas station over TCP on the loopback interface, speaking the binary {@link Protocol}.
+ *
+ *  a single thread handles all connections with a selector: it decodes the requests straight from the receive buffer
+ *  and hands them to the station, an {@link AsyncGasStation} directly, any other station on a pool of workers
+ *  (as its buyGas blocks until the customer is served).
+ *  handing a purchase to an asynchronous station does not wait for the customer, but it still runs the station's
+ *  own work for it on the selector thread: the greedy station queues the customer under its lock, which may include
+ *  reorganizing the queues, and all connections stall meanwhile.
+ *  for such stations pass an executor, the purchases are then handed to the station on it.
+ *  the purchases of a connection run concurrently, but their responses are sent in the order of the requests:
+ *  every connection has a ring of {@link #MAX_PIPELINED} slots, a finished purchase fills in its slot
+ *  and the selector thread writes out the finished slots from the oldest one on, many responses per system call.
+ *  if all slots of a connection are taken, the server stops reading from it until responses went out,
+ *  so a client sending faster than the station serves is slowed down by TCP flow control.
+ */
+public class StationServer implements Closeable {
+
+	/** number of purchases a connection may have in progress (a power of 2) */
+	public static final int MAX_PIPELINED=1024;
+	/** number of workers for stations that are not asynchronous */
+	public static final int DEFAULT_WORKERS=64;
+
+	static final int BUFFER_SIZE=64*1024;
+
+	protected final GasStation station;
+	//the same station if it can take purchases asynchronously, null otherwise
+	protected final AsyncGasStation asyncStation;
+	protected final Executor workers;
+	//whether the purchases of an asynchronous station are handed to it on the workers (instead of the selector thread)
+	protected final boolean asyncOnWorkers;
+	//workers created by this server (to be shut down on close), null if given or not needed
+	private final ThreadPoolExecutor ownWorkers;
+
+	protected final ServerSocketChannel acceptor;
+	protected final Selector selector;
+	private final Thread loop;
+
+	//connections with finished purchases, to be flushed by the selector thread
+	private final ConcurrentLinkedQueue<Connection> ready=new ConcurrentLinkedQueue<Connection>();
+
+	private volatile boolean closed=false;
+	private volatile long requests=0; //only written by the selector thread
+	private volatile long acceptFailures=0; //only written by the selector thread
+	private final AtomicInteger connections=new AtomicInteger();
+
+	/** starts a server for the station
+	 *  @param port	port on the loopback interface, 0 for any free port */
+	public StationServer(GasStation station, int port) throws IOException{
+		this(station, port, null);
+	}
+
+	/** starts a server for the station
+	 *  @param port		port on the loopback interface, 0 for any free port
+	 *  @param workers	runs the purchases of a station that is not asynchronous (null for an own pool of {@link #DEFAULT_WORKERS}),
+	 *  				hands the purchases to an asynchronous station (null to do so on the selector thread) */
+	public StationServer(GasStation station, int port, Executor workers) throws IOException{
+		this.station=station;
+		this.asyncStation=(station instanceof AsyncGasStation)?(AsyncGasStation)station:null;
+		this.asyncOnWorkers=(asyncStation!=null && workers!=null);
+		if(workers==null && asyncStation==null){
+			ownWorkers=createWorkers(DEFAULT_WORKERS);
+			workers=ownWorkers;
+		}
+		else
+			ownWorkers=null;
+		this.workers=workers;
+
+		selector=Selector.open();
+		acceptor=ServerSocketChannel.open();
+		acceptor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		acceptor.configureBlocking(false);
+		acceptor.register(selector, SelectionKey.OP_ACCEPT);
+
+		loop=new Thread(this::serve, "station-server");
+		loop.setDaemon(true);
+		loop.start();
+	}
+
+	private static ThreadPoolExecutor createWorkers(int threads){
+		final AtomicInteger count=new AtomicInteger();
+		ThreadPoolExecutor pool=new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "station-server-worker-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/** @return the address clients connect to */
+	public InetSocketAddress getAddress() throws IOException{
+		return (InetSocketAddress)acceptor.getLocalAddress();
+	}
+
+	public int getPort() throws IOException{
+		return getAddress().getPort();
+	}
+
+	/** @return the number of requests received so far */
+	public long getNumberOfRequests(){
+		return requests;
+	}
+
+	/** @return the number of connections that could not be accepted (e.g. too many open files) */
+	public long getNumberOfAcceptFailures(){
+		return acceptFailures;
+	}
+
+	/** @return the number of open connections */
+	public int getNumberOfConnections(){
+		return connections.get();
+	}
+
+	/** stops accepting and closes all connections (purchases in progress are not answered anymore) */
+	@Override
+	public void close() throws IOException{
+		closed=true;
+		selector.wakeup();
+		try {
+			loop.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(ownWorkers!=null)
+			ownWorkers.shutdown();
+	}
+
+	/** the selector loop */
+	private void serve(){
+		try {
+			while(!closed){
+				selector.select();
+				for(Iterator<SelectionKey> i=selector.selectedKeys().iterator();i.hasNext();){
+					SelectionKey key=i.next();
+					i.remove();
+					if(!key.isValid())
+						continue;
+					if(key.isAcceptable()){
+						accept();
+						continue;
+					}
+					Connection connection=(Connection)key.attachment();
+					try {
+						if(key.isReadable())
+							connection.receive();
+						else
+							connection.process();
+					} catch (IOException | RuntimeException e) { //only this connection is lost
+						connection.close();
+					}
+				}
+				Connection connection;
+				while((connection=ready.poll())!=null){
+					try {
+						connection.completed();
+					} catch (IOException | RuntimeException e) {
+						connection.close();
+					}
+				}
+			}
+		} catch (IOException e) {
+			// the selector broke, the server ends
+		} finally {
+			closed=true;
+			for(SelectionKey key:selector.keys())
+				if(key.attachment() instanceof Connection)
+					((Connection)key.attachment()).close();
+			try {
+				acceptor.close();
+				selector.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/** accepts a connection; a connection that fails to be set up is dropped, the server and the other connections go on */
+	private void accept(){
+		SocketChannel channel=null;
+		try {
+			channel=acceptor.accept();
+			if(channel==null)
+				return;
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			new Connection(channel);
+			connections.incrementAndGet();
+		} catch (IOException e) {
+			acceptFailures++;
+			if(channel!=null)
+				try {
+					channel.close();
+				} catch (IOException e2) {
+					// nothing left to do
+				}
+		}
+	}
+
+	/** @return true for an amount or price a purchase can be made with (finite, not negative) */
+	static boolean valid(double value){
+		return value>=0 && value<Double.POSITIVE_INFINITY;
+	}
+
+	/** maps the exception a purchase failed with to its outcome */
+	static Outcome outcomeOf(Throwable failure){
+		if(failure instanceof CompletionException && failure.getCause()!=null)
+			failure=failure.getCause();
+		if(failure instanceof NotEnoughGasException)
+			return Outcome.NOT_ENOUGH_GAS;
+		if(failure instanceof GasTooExpensiveException)
+			return Outcome.TOO_EXPENSIVE;
+		return Outcome.FAILED;
+	}
+
+	/** a client connection; apart from {@link #complete(int, Outcome, double)} only used by the selector thread */
+	private final class Connection {
+
+		final SocketChannel channel;
+		final SelectionKey key;
+		final ByteBuffer in=ByteBuffer.allocateDirect(BUFFER_SIZE);
+		final ByteBuffer out=ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		//the ring of purchases in progress, slot = request number % MAX_PIPELINED
+		final long[] ids=new long[MAX_PIPELINED];
+		final double[] costs=new double[MAX_PIPELINED];
+		final byte[] outcomes=new byte[MAX_PIPELINED];
+		final AtomicIntegerArray finished=new AtomicIntegerArray(MAX_PIPELINED);
+		long head=0; //oldest request not answered yet
+		long tail=0; //next request
+
+		boolean endOfInput=false;
+		boolean closed=false;
+		//queued in ready (not flushed yet)
+		final AtomicBoolean signalled=new AtomicBoolean();
+
+		Connection(SocketChannel channel) throws IOException{
+			this.channel=channel;
+			this.key=channel.register(selector, SelectionKey.OP_READ, this);
+		}
+
+		void receive() throws IOException{
+			if(channel.read(in)<0)
+				endOfInput=true;
+			process();
+		}
+
+		/** called for connections that were signalled */
+		void completed() throws IOException{
+			signalled.set(false);
+			if(!closed)
+				process();
+		}
+
+		/** sends finished responses, takes new requests as far as there are free slots and updates the interest */
+		void process() throws IOException{
+			flush();
+			dispatch();
+			if(endOfInput && head==tail && out.position()==0){
+				close();
+				return;
+			}
+			int ops=0;
+			if(out.position()>0)
+				ops|=SelectionKey.OP_WRITE;
+			if(!endOfInput && tail-head<MAX_PIPELINED)
+				ops|=SelectionKey.OP_READ;
+			if(key.interestOps()!=ops)
+				key.interestOps(ops);
+		}
+
+		/** writes the finished responses in order, until one is still in progress or the socket is full */
+		private void flush() throws IOException{
+			while(true){
+				boolean more=false;
+				while(head<tail && out.remaining()>=Protocol.RESPONSE_SIZE){
+					int slot=(int)(head&(MAX_PIPELINED-1));
+					if(finished.get(slot)==0)
+						break;
+					finished.lazySet(slot, 0);
+					Protocol.putResponse(out, ids[slot], Protocol.outcome(outcomes[slot]), costs[slot]);
+					head++;
+					more=(head<tail);
+				}
+				if(out.position()==0)
+					return;
+				out.flip();
+				channel.write(out);
+				boolean drained=!out.hasRemaining();
+				out.compact();
+				if(!drained || !more)
+					return;
+			}
+		}
+
+		/** hands the requests in the receive buffer to the station, as far as there are free slots */
+		private void dispatch(){
+			in.flip();
+			while(in.remaining()>=Protocol.REQUEST_SIZE && tail-head<MAX_PIPELINED){
+				int base=in.position();
+				long id=in.getLong(base);
+				double liters=in.getDouble(base+Protocol.OFFSET_REQUEST_LITERS);
+				double price=in.getDouble(base+Protocol.OFFSET_REQUEST_PRICE);
+				GasType type=Protocol.gasType(in.get(base+Protocol.OFFSET_REQUEST_GAS_TYPE));
+				in.position(base+Protocol.REQUEST_SIZE);
+
+				int slot=(int)(tail&(MAX_PIPELINED-1));
+				ids[slot]=id;
+				tail++;
+				requests++;
+				if(type==null || !valid(liters) || !valid(price)) //never hand malformed requests to the station
+					complete(slot, Outcome.FAILED, 0);
+				else
+					start(slot, type, liters, price);
+			}
+			in.compact();
+		}
+
+		private void start(int slot, GasType type, double liters, double price){
+			Purchase purchase=new Purchase(this, slot, type, liters, price);
+			try {
+				if(asyncStation!=null && !asyncOnWorkers)
+					purchase.startAsync();
+				else
+					workers.execute(purchase);
+			} catch (RuntimeException e) { // e.g. a closed station or rejected by the workers
+				complete(slot, Outcome.FAILED, 0);
+			}
+		}
+
+		/** fills in the result of a purchase (called by any thread) and has the selector thread send it */
+		void complete(int slot, Outcome outcome, double cost){
+			costs[slot]=cost;
+			outcomes[slot]=(byte)outcome.ordinal();
+			finished.set(slot, 1); //publishes cost and outcome
+			if(signalled.compareAndSet(false, true)){
+				ready.add(this);
+				if(Thread.currentThread()!=loop) //the selector thread looks at the ready connections anyway
+					selector.wakeup();
+			}
+		}
+
+		void close(){
+			if(closed)
+				return;
+			closed=true;
+			key.cancel();
+			connections.decrementAndGet();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/** a purchase in progress, completed by the station (asynchronous) or run by a worker
+	 *  (blocking, or handing it to the asynchronous station) */
+	private final class Purchase implements Runnable, BiConsumer<Double, Throwable> {
+
+		final Connection connection;
+		final int slot;
+		final GasType type;
+		final double liters;
+		final double price;
+
+		Purchase(Connection connection, int slot, GasType type, double liters, double price){
+			this.connection=connection;
+			this.slot=slot;
+			this.type=type;
+			this.liters=liters;
+			this.price=price;
+		}
+
+		@Override
+		public void accept(Double cost, Throwable failure) {
+			if(failure==null)
+				connection.complete(slot, Outcome.SOLD, cost);
+			else
+				connection.complete(slot, outcomeOf(failure), 0);
+		}
+
+		/** hands the purchase to the asynchronous station */
+		void startAsync(){
+			asyncStation.buyGasAsync(type, liters, price).whenComplete(this);
+		}
+
+		@Override
+		public void run() {
+			if(asyncStation!=null){
+				try {
+					startAsync();
+				} catch (RuntimeException e) { // e.g. a closed station
+					connection.complete(slot, Outcome.FAILED, 0);
+				}
+				return;
+			}
+			double cost;
+			try {
+				cost=station.buyGas(type, liters, price);
+			} catch (Exception e) {
+				connection.complete(slot, outcomeOf(e), 0);
+				return;
+			}
+			connection.complete(slot, Outcome.SOLD, cost);
+		}
+	}
+
+}
@@ -0,0 +1,261 @@
+package de.smetzger.bigpoint.gasstation.sharded;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.smetzger.bigpoint.gasstation.PriceBoard;
+import de.smetzger.bigpoint.gasstation.RollingRates;
+import de.smetzger.bigpoint.gasstation.StationStatistics;
+import de.smetzger.bigpoint.gasstation.greedy.AttendantScheduler;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/** a gas station that spreads its pumps over several independent greedy stations (shards),
+ *  each with its own lock, queues and attendants, so purchases at different shards do not contend.
+ *
+ *  a purchase is routed using the capacity summaries of the shards:
+ *  first to a shard that can queue the customer right away, otherwise to one that could serve him after reorganizing its queues.
+ *  if the chosen shard cannot serve the customer, the next candidate is tried.
+ *  shards are tried starting at a rotating position, so purchases are spread evenly.
+ *
+ *  all shards sell from the same price board, so a price change takes effect at every shard at once
+ *  and the price version of a sale means the same at every shard.
+ *
+ *  as queues are only optimized within a shard, the station may sell somewhat less gas than a single greedy station
+ *  when pumps of the same type end up in different shards.
+ */
+public class ShardedGasStation implements GasStation, AutoCloseable {
+
+	//the independent station engines
+	protected final StevesGreedyGasStation[] shards;
+
+	//all pumps (the shards only know their part)
+	protected List<GasPump> pumps=new ArrayList<GasPump>();
+
+	//the prices, shared by all shards
+	protected final PriceBoard prices=new PriceBoard();
+
+	//the figures are counted here, as a purchase may be rejected by several shards before it finally fails
+	//(and so they can be read as one consistent snapshot)
+	protected final StationStatistics statistics=new StationStatistics();
+	//rolling rates of the whole station, for the same reason kept here and not summed up over the shards
+	protected volatile RollingRates rates=new RollingRates();
+
+	//cleared while draining, new purchases are refused then
+	protected volatile boolean accepting=true;
+
+	//start position for the next shard search
+	protected AtomicInteger nextShard=new AtomicInteger();
+
+	/** creates a station with one shard per available processor */
+	public ShardedGasStation(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** constructor
+	 *  @param numberOfShards	number of independent station engines */
+	public ShardedGasStation(int numberOfShards){
+		if(numberOfShards<1)
+			throw new IllegalArgumentException("at least one shard needed");
+		shards=new StevesGreedyGasStation[numberOfShards];
+		for(int i=0;i<numberOfShards;i++)
+			shards[i]=new StevesGreedyGasStation(AttendantScheduler.getShared(), prices);
+	}
+
+	/**
+	 * Add a gas pump to this station.
+	 * The pump goes to the shard with the fewest pumps of its type.
+	 *
+	 * @param pump
+	 *            the gas pump
+	 */
+	synchronized public void addGasPump(GasPump pump) {
+		StevesGreedyGasStation target=shards[0];
+		for(StevesGreedyGasStation shard:shards)
+			if(shard.getNumberOfPumps(pump.getGasType())<target.getNumberOfPumps(pump.getGasType()))
+				target=shard;
+		target.addGasPump(pump);
+		pumps.add(pump);
+	}
+
+	/**
+	 * Get all gas pumps that are currently associated with this gas station.
+	 *
+	 * @return A collection of all gas pumps.
+	 */
+	public Collection<GasPump> getGasPumps() {
+		return pumps;
+	}
+
+	/**
+	 * Simulates a customer wanting to buy a specific amount of gas.
+	 *
+	 * @param type
+	 *            The type of gas the customer wants to buy
+	 * @param amountInLiters
+	 *            The amount of gas the customer wants to buy. Nothing less than this amount is acceptable!
+	 * @param maxPricePerLiter
+	 *            The maximum price the customer is willing to pay per liter
+	 * @return the price the customer has to pay for this transaction
+	 * @throws NotEnoughGasException
+	 *             thrown in case no shard could provide the gas
+	 * @throws GasTooExpensiveException
+	 *             thrown if gas is not sold at the requested price (or any lower price)
+	 * @throws IllegalStateException
+	 *             if the station is draining or closed
+	 */
+	public double buyGas(GasType type, double amountInLiters,
+			double maxPricePerLiter) throws NotEnoughGasException,
+			GasTooExpensiveException {
+
+		if(!accepting)
+			throw new IllegalStateException("station is draining");
+		rates.recordArrival(type);
+		int start=Math.floorMod(nextShard.getAndIncrement(), shards.length);
+		boolean[] tried=new boolean[shards.length];
+
+		//first choice: shards that can queue the customer without reorganizing,
+		//then shards that might serve him after a reorganization
+		for(int round=0;round<2;round++){
+			for(int i=0;i<shards.length;i++){
+				int index=(start+i)%shards.length;
+				StevesGreedyGasStation shard=shards[index];
+				double capacity=(round==0)?shard.getMaxQueueableAmount(type):shard.getMaxRemainingAmount(type);
+				if(tried[index] || capacity<amountInLiters)
+					continue;
+				tried[index]=true;
+				try {
+					double cost=shard.buyGas(type, amountInLiters, maxPricePerLiter);
+					statistics.recordSale(amountInLiters, cost);
+					rates.recordSale(type, amountInLiters);
+					return cost;
+				} catch (NotEnoughGasException e) {
+					//try the next shard
+				} catch (GasTooExpensiveException e) {
+					statistics.recordCancellationTooExpensive();
+					rates.recordRejection(type);
+					throw e;
+				}
+			}
+		}
+
+		statistics.recordCancellationNoGas();
+		rates.recordRejection(type);
+		throw new NotEnoughGasException();
+	}
+
+	/** (re)opens the station for purchases after {@link #drain()} */
+	public void start(){
+		for(StevesGreedyGasStation shard:shards)
+			shard.start();
+		accepting=true;
+	}
+
+	/** refuses new purchases (with an IllegalStateException) and waits until the customers of all shards are served */
+	public void drain(){
+		accepting=false;
+		for(StevesGreedyGasStation shard:shards)
+			shard.drain();
+	}
+
+	/** drains the station and closes all shards, the station cannot be used afterwards */
+	@Override
+	public void close(){
+		accepting=false;
+		for(StevesGreedyGasStation shard:shards)
+			shard.close();
+	}
+
+
+	/**
+	 * @return the total revenue generated (over all shards)
+	 */
+	public double getRevenue() {
+		return statistics.snapshot().getRevenue();
+	}
+
+	/**
+	 * Returns the number of successful sales (over all shards). This should not include cancelled sales.
+	 *
+	 * @return the number of sales that were successful
+	 */
+	public int getNumberOfSales() {
+		return statistics.snapshot().getNumberOfSales();
+	}
+
+	/**
+	 * @return the number of cancelled transactions due to not enough gas being available
+	 */
+	public int getNumberOfCancellationsNoGas() {
+		return statistics.snapshot().getNumberOfCancellationsNoGas();
+	}
+
+	/**
+	 * Returns the number of cancelled transactions due to the gas being more expensive than what the customer wanted to pay
+	 *
+	 * @return the number of cancelled transactions
+	 */
+	public int getNumberOfCancellationsTooExpensive() {
+		return statistics.snapshot().getNumberOfCancellationsTooExpensive();
+	}
+
+	/** @return all figures of the station from the same instant (a sale counts once the shard returned it) */
+	public StationStatistics.Snapshot getStatistics() {
+		return statistics.snapshot();
+	}
+
+	/** @return arrivals, sales, liters and rejections per second and gas type over sliding windows
+	 *         (of the whole station, a purchase tried at several shards counts once) */
+	public RollingRates getRollingRates() {
+		return rates;
+	}
+	
+	/** @return the number of shards */
+	public int getNumberOfShards() {
+		return shards.length;
+	}
+
+
+	/**
+	 * Get the price for a specific type of gas
+	 *
+	 * @param type
+	 *            the type of gas
+	 * @return the price per liter for this type of gas
+	 */
+	public double getPrice(GasType type) {
+		return prices.getPrice(type);
+	}
+
+
+	/**
+	 * Set a new price for a specific type of gas (for all shards at once)
+	 *
+	 * @param type
+	 *            the type of gas
+	 * @param price
+	 *            the new price per liter for this type of gas
+	 */
+	public void setPrice(GasType type, double price) {
+		prices.setPrice(type, price);
+	}
+
+	/** sets the prices of several gas types in one atomic update (for all shards at once) */
+	public void setPrices(Map<GasType, Double> newPrices) {
+		prices.setPrices(newPrices);
+	}
+
+	/** @return the currently valid prices including their version */
+	public PriceBoard.Snapshot getPriceSnapshot() {
+		return prices.getSnapshot();
+	}
+
+}
@@ -0,0 +1,141 @@
+package de.smetzger.bigpoint.gasstation.trace;
+
+import java.nio.ByteBuffer;
+
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/** a call recorded by a {@link TraceRecordingGasStation}: a pump added, a price set or a purchase with its outcome */
+public class TraceRecord {
+
+	/** the kind of call (code 0 is not used) */
+	public enum Kind {
+		PUMP, PRICE, PURCHASE;
+
+		byte code(){
+			return (byte)(ordinal()+1);
+		}
+
+		static Kind fromCode(byte code){
+			return values()[code-1];
+		}
+	}
+
+	static final int MAGIC=0x47535431; //'GST1'
+	static final int HEADER_SIZE=16;
+
+	/** record layout: start, latency, liters, price, cost, kind, gas type, outcome, (padding) */
+	public static final int RECORD_SIZE=48;
+	static final int OFFSET_START=0;
+	static final int OFFSET_LATENCY=8;
+	static final int OFFSET_LITERS=16;
+	static final int OFFSET_PRICE=24;
+	static final int OFFSET_COST=32;
+	static final int OFFSET_KIND=40;
+	static final int OFFSET_GAS_TYPE=41;
+	static final int OFFSET_OUTCOME=42;
+
+	protected final Kind kind;
+	protected final long startNanos;
+	protected final long latencyNanos;
+	protected final GasType gasType;
+	protected final double liters;
+	protected final double price;
+	protected final Outcome outcome;
+	protected final double cost;
+
+	/** constructor
+	 *  @param startNanos	time of the call since the recording started
+	 *  @param latencyNanos	time the call took (purchases only)
+	 *  @param liters		liters bought or the amount of gas of a pump
+	 *  @param price		max price per liter of a purchase or the price set
+	 *  @param outcome		outcome of a purchase, null otherwise
+	 *  @param cost			price paid for a purchase (0 unless sold) */
+	public TraceRecord(Kind kind, long startNanos, long latencyNanos, GasType gasType, double liters, double price,
+			Outcome outcome, double cost){
+		this.kind=kind;
+		this.startNanos=startNanos;
+		this.latencyNanos=latencyNanos;
+		this.gasType=gasType;
+		this.liters=liters;
+		this.price=price;
+		this.outcome=outcome;
+		this.cost=cost;
+	}
+
+	/** writes a record at the position of the buffer (which needs {@link #RECORD_SIZE} bytes left) */
+	static void write(ByteBuffer buffer, Kind kind, long startNanos, long latencyNanos, GasType gasType, double liters,
+			double price, Outcome outcome, double cost){
+		int base=buffer.position();
+		buffer.putLong(base+OFFSET_START, startNanos);
+		buffer.putLong(base+OFFSET_LATENCY, latencyNanos);
+		buffer.putDouble(base+OFFSET_LITERS, liters);
+		buffer.putDouble(base+OFFSET_PRICE, price);
+		buffer.putDouble(base+OFFSET_COST, cost);
+		buffer.put(base+OFFSET_KIND, kind.code());
+		buffer.put(base+OFFSET_GAS_TYPE, (byte)gasType.ordinal());
+		buffer.put(base+OFFSET_OUTCOME, (byte)((outcome==null)?-1:outcome.ordinal()));
+		for(int i=OFFSET_OUTCOME+1;i<RECORD_SIZE;i++)
+			buffer.put(base+i, (byte)0);
+		buffer.position(base+RECORD_SIZE);
+	}
+
+	/** reads the record at the position of the buffer */
+	static TraceRecord readFrom(ByteBuffer buffer){
+		int base=buffer.position();
+		byte outcome=buffer.get(base+OFFSET_OUTCOME);
+		TraceRecord record=new TraceRecord(Kind.fromCode(buffer.get(base+OFFSET_KIND)),
+				buffer.getLong(base+OFFSET_START), buffer.getLong(base+OFFSET_LATENCY),
+				GasType.values()[buffer.get(base+OFFSET_GAS_TYPE)],
+				buffer.getDouble(base+OFFSET_LITERS), buffer.getDouble(base+OFFSET_PRICE),
+				(outcome<0)?null:Outcome.values()[outcome], buffer.getDouble(base+OFFSET_COST));
+		buffer.position(base+RECORD_SIZE);
+		return record;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** @return the time of the call since the recording started */
+	public long getStartNanos() {
+		return startNanos;
+	}
+
+	/** @return the time a purchase took until its outcome was known */
+	public long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	public GasType getGasType() {
+		return gasType;
+	}
+
+	/** @return liters bought, or the amount of gas of a pump */
+	public double getLiters() {
+		return liters;
+	}
+
+	/** @return the max price per liter of a purchase, or the price set */
+	public double getPrice() {
+		return price;
+	}
+
+	/** @return the outcome of a purchase, null for other calls */
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/** @return the price paid for a purchase (0 unless sold) */
+	public double getCost() {
+		return cost;
+	}
+
+	@Override
+	public String toString(){
+		return "["+kind+" at "+startNanos/1000+"us, gas: "+gasType+", liters: "+liters+", price: "+price
+				+(kind==Kind.PURCHASE?" -> "+outcome+(outcome==Outcome.SOLD?" "+cost:"")+" in "+latencyNanos/1000+"us":"")+"]";
+	}
+
+}
@@ -0,0 +1,212 @@
+package de.smetzger.bigpoint.gasstation.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+import de.smetzger.bigpoint.gasstation.trace.TraceRecord.Kind;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/** a gas station that passes all calls on to another station and records them into a binary trace file,
+ *  to be replayed later by a {@link TraceReplayer} (e.g. to reproduce an incident).
+ *
+ *  recorded are the pumps added, the prices set and every purchase with its start time, latency, outcome and cost
+ *  (a purchase is recorded when it finishes, the replayer sorts the records by start time).
+ *  the records are fixed-size (see {@link TraceRecord#RECORD_SIZE}) and collected in a buffer,
+ *  which is handed to a background thread writing it to the file when it is full and on {@link #close()},
+ *  so recording costs a short critical section and no I/O. the calls never fail because of the trace,
+ *  records that could not be written are counted instead (see {@link #getNumberOfLostRecords()}).
+ */
+public class TraceRecordingGasStation implements GasStation, Closeable {
+
+	/** number of records buffered before writing */
+	public static final int DEFAULT_BUFFERED_RECORDS=4096;
+
+	protected final GasStation station;
+	protected final FileChannel channel;
+	protected final long origin=System.nanoTime();
+
+	private final int bufferedRecords;
+	private ByteBuffer buffer;
+	private long records=0;
+	private boolean closed=false;
+
+	//writes the full buffers in the order they were handed over, and gives them back for reuse
+	private final ExecutorService writer;
+	private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers=new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicLong lostRecords=new AtomicLong();
+
+	public TraceRecordingGasStation(GasStation station, Path file) throws IOException{
+		this(station, file, DEFAULT_BUFFERED_RECORDS);
+	}
+
+	/** constructor, the file is created or overwritten
+	 *  @param station			the station serving the calls
+	 *  @param bufferedRecords	number of records buffered before writing */
+	public TraceRecordingGasStation(GasStation station, Path file, int bufferedRecords) throws IOException{
+		if(bufferedRecords<1)
+			throw new IllegalArgumentException("at least one record has to be buffered");
+		this.station=station;
+		channel=FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header=ByteBuffer.allocate(TraceRecord.HEADER_SIZE);
+		header.putInt(TraceRecord.MAGIC).putInt(TraceRecord.RECORD_SIZE).putLong(System.currentTimeMillis());
+		header.flip();
+		channel.write(header);
+		this.bufferedRecords=bufferedRecords;
+		buffer=ByteBuffer.allocateDirect(bufferedRecords*TraceRecord.RECORD_SIZE);
+		writer=Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "trace-writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		//the pumps the station already has are part of the trace
+		for(GasPump pump:station.getGasPumps())
+			record(Kind.PUMP, 0, 0, pump.getGasType(), pump.getRemainingAmount(), 0, null, 0);
+	}
+
+	private synchronized void record(Kind kind, long start, long latency, GasType type, double liters, double price,
+			Outcome outcome, double cost){
+		if(closed)
+			return; //calls after closing are still served, just not recorded
+		if(!buffer.hasRemaining())
+			handOver();
+		TraceRecord.write(buffer, kind, start, latency, type, liters, price, outcome, cost);
+		records++;
+	}
+
+	/** hands the buffer to the writer and continues with a free one (called holding the lock) */
+	private void handOver(){
+		final ByteBuffer full=buffer;
+		full.flip();
+		ByteBuffer next=freeBuffers.poll();
+		buffer=(next!=null)?next:ByteBuffer.allocateDirect(bufferedRecords*TraceRecord.RECORD_SIZE);
+		writer.execute(new Runnable(){
+			@Override
+			public void run() {
+				try {
+					while(full.hasRemaining())
+						channel.write(full);
+				} catch (IOException e) {
+					lostRecords.addAndGet(full.remaining()/TraceRecord.RECORD_SIZE);
+				} finally {
+					full.clear();
+					freeBuffers.add(full);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void addGasPump(GasPump pump) {
+		record(Kind.PUMP, System.nanoTime()-origin, 0, pump.getGasType(), pump.getRemainingAmount(), 0, null, 0);
+		station.addGasPump(pump);
+	}
+
+	@Override
+	public Collection<GasPump> getGasPumps() {
+		return station.getGasPumps();
+	}
+
+	@Override
+	public double buyGas(GasType type, double amountInLiters, double maxPricePerLiter)
+			throws NotEnoughGasException, GasTooExpensiveException {
+		long start=System.nanoTime();
+		Outcome outcome=Outcome.FAILED;
+		double cost=0;
+		try {
+			cost=station.buyGas(type, amountInLiters, maxPricePerLiter);
+			outcome=Outcome.SOLD;
+			return cost;
+		} catch (NotEnoughGasException e) {
+			outcome=Outcome.NOT_ENOUGH_GAS;
+			throw e;
+		} catch (GasTooExpensiveException e) {
+			outcome=Outcome.TOO_EXPENSIVE;
+			throw e;
+		} finally {
+			long end=System.nanoTime();
+			record(Kind.PURCHASE, start-origin, end-start, type, amountInLiters, maxPricePerLiter, outcome, cost);
+		}
+	}
+
+	@Override
+	public double getRevenue() {
+		return station.getRevenue();
+	}
+
+	@Override
+	public int getNumberOfSales() {
+		return station.getNumberOfSales();
+	}
+
+	@Override
+	public int getNumberOfCancellationsNoGas() {
+		return station.getNumberOfCancellationsNoGas();
+	}
+
+	@Override
+	public int getNumberOfCancellationsTooExpensive() {
+		return station.getNumberOfCancellationsTooExpensive();
+	}
+
+	@Override
+	public double getPrice(GasType type) {
+		return station.getPrice(type);
+	}
+
+	@Override
+	public void setPrice(GasType type, double price) {
+		record(Kind.PRICE, System.nanoTime()-origin, 0, type, 0, price, null, 0);
+		station.setPrice(type, price);
+	}
+
+	/** @return the number of records so far */
+	synchronized public long getNumberOfRecords(){
+		return records;
+	}
+
+	/** @return the number of records that could not be written to the file */
+	public long getNumberOfLostRecords(){
+		return lostRecords.get();
+	}
+
+	/** writes the buffered records and closes the trace file (the station itself is not closed) */
+	@Override
+	public void close() throws IOException{
+		synchronized(this){
+			if(closed)
+				return;
+			closed=true;
+			handOver();
+		}
+		writer.shutdown();
+		try {
+			while(!writer.awaitTermination(1, TimeUnit.SECONDS));
+			channel.force(true);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
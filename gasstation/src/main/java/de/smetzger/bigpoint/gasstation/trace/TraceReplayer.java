@@ -0,0 +1,303 @@
+package de.smetzger.bigpoint.gasstation.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import de.smetzger.bigpoint.gasstation.StevesSimpleGasStation;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+import de.smetzger.bigpoint.gasstation.trace.TraceRecord.Kind;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/** replays a trace written by a {@link TraceRecordingGasStation} against a station and compares the outcomes and latencies.
+ *
+ *  the calls are issued at their recorded times, divided by the speed (1 for real time, {@link #MAX_SPEED} for no waiting at all).
+ *  pumps and prices are set by the replaying thread when their time comes, purchases run on a pool of threads,
+ *  as buyGas blocks until the customer is served. the replayed latency of a purchase counts from the time it was due,
+ *  so waiting for a free thread of the pool shows as well. at higher speeds the purchases overlap more than they did originally,
+ *  at maximum speed the order of price changes relative to purchases is not kept.
+ *  <pre>
+ *  java ... TraceReplayer incident.trace greedy 10
+ *  </pre>
+ */
+public class TraceReplayer {
+
+	/** replays without waiting between calls */
+	public static final double MAX_SPEED=Double.POSITIVE_INFINITY;
+	/** number of purchases replayed at the same time at most */
+	public static final int DEFAULT_THREADS=256;
+
+	//all records, sorted by start time
+	protected final List<TraceRecord> records;
+
+	public TraceReplayer(Path file) throws IOException{
+		this(read(file));
+	}
+
+	public TraceReplayer(List<TraceRecord> records){
+		List<TraceRecord> sorted=new ArrayList<TraceRecord>(records);
+		//stable, so pumps and prices recorded at the same time stay in their order
+		Collections.sort(sorted, new Comparator<TraceRecord>(){
+			@Override
+			public int compare(TraceRecord r1, TraceRecord r2) {
+				return Long.compare(r1.getStartNanos(), r2.getStartNanos());
+			}
+		});
+		this.records=Collections.unmodifiableList(sorted);
+	}
+
+	/** reads all records of a trace file (in the order they were written) */
+	public static List<TraceRecord> read(Path file) throws IOException{
+		try(FileChannel channel=FileChannel.open(file, StandardOpenOption.READ)){
+			ByteBuffer buffer=ByteBuffer.allocate((int)channel.size());
+			while(buffer.hasRemaining() && channel.read(buffer)>=0);
+			buffer.flip();
+			if(buffer.remaining()<TraceRecord.HEADER_SIZE || buffer.getInt()!=TraceRecord.MAGIC
+					|| buffer.getInt()!=TraceRecord.RECORD_SIZE)
+				throw new IOException("not a trace");
+			buffer.position(TraceRecord.HEADER_SIZE);
+			List<TraceRecord> records=new ArrayList<TraceRecord>(buffer.remaining()/TraceRecord.RECORD_SIZE);
+			while(buffer.remaining()>=TraceRecord.RECORD_SIZE)
+				records.add(TraceRecord.readFrom(buffer));
+			return records;
+		}
+	}
+
+	public List<TraceRecord> getRecords(){
+		return records;
+	}
+
+	/** replays the trace with {@link #DEFAULT_THREADS}
+	 *  @param station	a station without any pumps (they are added from the trace)
+	 *  @param speed	factor the recorded times are divided by, {@link #MAX_SPEED} to not wait at all */
+	public Report replay(GasStation station, double speed) throws InterruptedException{
+		return replay(station, speed, DEFAULT_THREADS);
+	}
+
+	/** replays the trace
+	 *  @param station	a station without any pumps (they are added from the trace)
+	 *  @param speed	factor the recorded times are divided by, {@link #MAX_SPEED} to not wait at all
+	 *  @param threads	number of purchases replayed at the same time at most
+	 *  @return the comparison of the original and the replayed purchases */
+	public Report replay(final GasStation station, double speed, int threads) throws InterruptedException{
+		if(!(speed>0))
+			throw new IllegalArgumentException("speed has to be positive");
+		final List<TraceRecord> purchases=new ArrayList<TraceRecord>();
+		for(TraceRecord r:records)
+			if(r.getKind()==Kind.PURCHASE)
+				purchases.add(r);
+		final Outcome[] outcomes=new Outcome[purchases.size()];
+		final double[] costs=new double[purchases.size()];
+		final long[] latencies=new long[purchases.size()];
+
+		final AtomicInteger count=new AtomicInteger();
+		ThreadPoolExecutor pool=new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "trace-replay-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		long begin=System.nanoTime();
+		int purchase=0;
+		for(TraceRecord r:records){
+			long due=System.nanoTime();
+			if(speed!=MAX_SPEED){
+				due=begin+(long)(r.getStartNanos()/speed);
+				for(long wait=due-System.nanoTime();wait>0;wait=due-System.nanoTime())
+					LockSupport.parkNanos(wait);
+			}
+			switch(r.getKind()){
+			case PUMP:
+				station.addGasPump(new GasPump(r.getGasType(), r.getLiters()));
+				break;
+			case PRICE:
+				station.setPrice(r.getGasType(), r.getPrice());
+				break;
+			case PURCHASE:
+				final TraceRecord p=r;
+				final int index=purchase++;
+				//the latency counts from the time the purchase was due, including the wait for a free thread
+				final long start=due;
+				pool.execute(new Runnable(){
+					@Override
+					public void run() {
+						try {
+							costs[index]=station.buyGas(p.getGasType(), p.getLiters(), p.getPrice());
+							outcomes[index]=Outcome.SOLD;
+						} catch (NotEnoughGasException e) {
+							outcomes[index]=Outcome.NOT_ENOUGH_GAS;
+						} catch (GasTooExpensiveException e) {
+							outcomes[index]=Outcome.TOO_EXPENSIVE;
+						} catch (RuntimeException e) {
+							outcomes[index]=Outcome.FAILED;
+						}
+						latencies[index]=System.nanoTime()-start;
+					}
+				});
+				break;
+			}
+		}
+		pool.shutdown();
+		while(!pool.awaitTermination(1, TimeUnit.SECONDS));
+		return new Report(purchases, outcomes, costs, latencies, System.nanoTime()-begin);
+	}
+
+	/** the outcomes and latencies of the purchases of a trace, originally and replayed */
+	public static class Report {
+
+		protected final int purchases;
+		protected final int[] originalOutcomes=new int[Outcome.values().length];
+		protected final int[] replayedOutcomes=new int[Outcome.values().length];
+		protected final int differentOutcomes;
+		protected final double originalRevenue;
+		protected final double replayedRevenue;
+		//sorted latencies
+		protected final long[] originalLatencies;
+		protected final long[] replayedLatencies;
+		protected final long originalNanos;
+		protected final long replayNanos;
+
+		Report(List<TraceRecord> originals, Outcome[] outcomes, double[] costs, long[] latencies, long replayNanos){
+			purchases=originals.size();
+			originalLatencies=new long[purchases];
+			replayedLatencies=latencies.clone();
+			int different=0;
+			double originalRevenue=0, replayedRevenue=0;
+			long originalEnd=0;
+			for(int i=0;i<purchases;i++){
+				TraceRecord r=originals.get(i);
+				originalOutcomes[r.getOutcome().ordinal()]++;
+				replayedOutcomes[outcomes[i].ordinal()]++;
+				if(r.getOutcome()!=outcomes[i])
+					different++;
+				originalRevenue+=r.getCost();
+				replayedRevenue+=costs[i];
+				originalLatencies[i]=r.getLatencyNanos();
+				originalEnd=Math.max(originalEnd, r.getStartNanos()+r.getLatencyNanos());
+			}
+			Arrays.sort(originalLatencies);
+			Arrays.sort(replayedLatencies);
+			this.differentOutcomes=different;
+			this.originalRevenue=originalRevenue;
+			this.replayedRevenue=replayedRevenue;
+			this.originalNanos=originalEnd;
+			this.replayNanos=replayNanos;
+		}
+
+		public int getNumberOfPurchases() {
+			return purchases;
+		}
+
+		/** @return the number of purchases with the given outcome in the trace */
+		public int getOriginalOutcomes(Outcome outcome) {
+			return originalOutcomes[outcome.ordinal()];
+		}
+
+		/** @return the number of purchases with the given outcome in the replay */
+		public int getReplayedOutcomes(Outcome outcome) {
+			return replayedOutcomes[outcome.ordinal()];
+		}
+
+		/** @return the number of purchases that ended differently in the replay */
+		public int getNumberOfDifferentOutcomes() {
+			return differentOutcomes;
+		}
+
+		public double getOriginalRevenue() {
+			return originalRevenue;
+		}
+
+		public double getReplayedRevenue() {
+			return replayedRevenue;
+		}
+
+		/** @param percentile	e.g. 50 for the median, 100 for the maximum */
+		public long getOriginalLatencyNanos(double percentile) {
+			return percentile(originalLatencies, percentile);
+		}
+
+		/** @param percentile	e.g. 50 for the median, 100 for the maximum */
+		public long getReplayedLatencyNanos(double percentile) {
+			return percentile(replayedLatencies, percentile);
+		}
+
+		/** @return the time from the start of the recording until the last purchase finished */
+		public long getOriginalNanos() {
+			return originalNanos;
+		}
+
+		/** @return the time the replay took */
+		public long getReplayNanos() {
+			return replayNanos;
+		}
+
+		private static long percentile(long[] sorted, double percentile){
+			if(sorted.length==0)
+				return 0;
+			int index=(int)Math.ceil(percentile/100*sorted.length)-1;
+			return sorted[Math.max(0, Math.min(sorted.length-1, index))];
+		}
+
+		@Override
+		public String toString(){
+			StringBuilder s=new StringBuilder();
+			s.append(String.format("%-16s %12s %12s%n", purchases+" purchases", "original", "replayed"));
+			for(Outcome o:Outcome.values())
+				s.append(String.format("%-16s %12d %12d%n", o, getOriginalOutcomes(o), getReplayedOutcomes(o)));
+			s.append(String.format("%-16s %12.2f %12.2f%n", "revenue", originalRevenue, replayedRevenue));
+			for(double p:new double[]{50, 90, 99, 100})
+				s.append(String.format("%-16s %12.3f %12.3f%n", "latency p"+(int)p+" ms",
+						getOriginalLatencyNanos(p)/1e6, getReplayedLatencyNanos(p)/1e6));
+			s.append(String.format("%-16s %12.3f %12.3f%n", "duration ms", originalNanos/1e6, replayNanos/1e6));
+			s.append(differentOutcomes+" purchases ended differently");
+			return s.toString();
+		}
+	}
+
+	/** replays a trace file and prints the report
+	 *  @param args	trace file, station (simple or greedy, default greedy), speed (a factor or max, default 1) */
+	public static void main(String[] args) throws IOException, InterruptedException{
+		if(args.length<1 || args.length>3){
+			System.err.println("usage: TraceReplayer <trace file> [simple|greedy] [<speed>|max]");
+			System.exit(1);
+		}
+		String kind=(args.length>1)?args[1]:"greedy";
+		double speed=(args.length>2)?("max".equals(args[2])?MAX_SPEED:Double.parseDouble(args[2])):1;
+		TraceReplayer replayer=new TraceReplayer(Paths.get(args[0]));
+		if("simple".equals(kind))
+			System.out.println(replayer.replay(new StevesSimpleGasStation(), speed));
+		else if("greedy".equals(kind)){
+			try(StevesGreedyGasStation station=new StevesGreedyGasStation()){
+				System.out.println(replayer.replay(station, speed));
+			}
+		}
+		else{
+			System.err.println("unknown station "+kind);
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package de.smetzger.bigpoint.gasstation.flow.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.flow.GasStationProcessor;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseRequest;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+
+
+public class TestsGasStationProcessor {
+
+	/** collects the results, asking for one at a time */
+	protected static class Collector implements Flow.Subscriber<PurchaseResult> {
+		final GasStationProcessor processor;
+		final List<PurchaseResult> results=new ArrayList<PurchaseResult>();
+		final CountDownLatch done=new CountDownLatch(1);
+		Flow.Subscription subscription;
+		int maxPending=0;
+
+		Collector(GasStationProcessor processor){
+			this.processor=processor;
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription=subscription;
+			subscription.request(1);
+		}
+
+		public void onNext(PurchaseResult item) {
+			maxPending=Math.max(maxPending, processor.getNumberOfPendingPurchases());
+			results.add(item);
+			subscription.request(1);
+		}
+
+		public void onError(Throwable throwable) {
+			done.countDown();
+		}
+
+		public void onComplete() {
+			done.countDown();
+		}
+	}
+
+	@Test
+	public void testStreamWithBackpressure() throws InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.addGasPump(new GasPump(GasType.SUPER, 10));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setPrice(GasType.SUPER, 2);
+
+		//4 diesel slots, 2 super slots
+		GasStationProcessor processor=new GasStationProcessor(station, 2);
+		Collector collector=new Collector(processor);
+		processor.subscribe(collector);
+
+		SubmissionPublisher<PurchaseRequest> publisher=new SubmissionPublisher<PurchaseRequest>();
+		publisher.subscribe(processor);
+		for(int i=0;i<12;i++)
+			publisher.submit(new PurchaseRequest(i, GasType.DIESEL, 2, 2));
+		publisher.submit(new PurchaseRequest(12, GasType.DIESEL, 30, 2));
+		publisher.submit(new PurchaseRequest(13, GasType.SUPER, 2, 1));
+		publisher.close();
+
+		assertTrue("stream completed", collector.done.await(10, TimeUnit.SECONDS));
+		assertEquals("14 results", 14, collector.results.size());
+		int sold=0;
+		for(PurchaseResult r:collector.results){
+			if(r.getOutcome()==Outcome.SOLD)
+				sold++;
+			else if(r.getRequest().getId()==12)
+				assertEquals("not enough gas", Outcome.NOT_ENOUGH_GAS, r.getOutcome());
+			else
+				assertEquals("too expensive", Outcome.TOO_EXPENSIVE, r.getOutcome());
+		}
+		assertEquals("12 sold", 12, sold);
+		assertEquals("12 sold", 12, station.getNumberOfSales());
+		assertEquals("48 revenue", 48d, station.getRevenue(), 0.001);
+		assertTrue("demand limited by the free diesel slots", collector.maxPending<=4);
+	}
+
+	@Test
+	public void testRefusedPurchases() throws InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		GasStationProcessor processor=new GasStationProcessor(station, 2);
+		//pumps added after the processor was created count as well
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.setPrice(GasType.DIESEL, 2);
+		station.drain();
+		Collector collector=new Collector(processor);
+		processor.subscribe(collector);
+
+		//more purchases than slots, all refused by the draining station
+		SubmissionPublisher<PurchaseRequest> publisher=new SubmissionPublisher<PurchaseRequest>();
+		publisher.subscribe(processor);
+		for(int i=0;i<6;i++)
+			publisher.submit(new PurchaseRequest(i, GasType.DIESEL, 2, 2));
+		publisher.close();
+
+		assertTrue("stream completed", collector.done.await(10, TimeUnit.SECONDS));
+		assertEquals("6 results", 6, collector.results.size());
+		for(PurchaseResult r:collector.results)
+			assertEquals("failed", Outcome.FAILED, r.getOutcome());
+		assertTrue("demand limited by the diesel slots", collector.maxPending<=2);
+	}
+
+}
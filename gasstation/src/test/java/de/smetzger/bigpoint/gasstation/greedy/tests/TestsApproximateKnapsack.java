@@ -0,0 +1,57 @@
+package de.smetzger.bigpoint.gasstation.greedy.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.greedy.ApproximateKnapsack;
+
+
+public class TestsApproximateKnapsack {
+
+	protected static double sum(double[] liters, boolean[] selected){
+		double sum=0;
+		for(int i=0;i<liters.length;i++)
+			if(selected[i])
+				sum+=liters[i];
+		return sum;
+	}
+	
+	@Test
+	public void testSimpleInstance(){
+		double[] liters={5,11,4,6};
+		boolean[] selected=ApproximateKnapsack.solve(liters, 11, 0.1);
+		assertEquals("11 liters", 11d, sum(liters, selected), 0.00001);
+	}
+	
+	@Test
+	public void testGuaranteeAgainstEnumeration(){
+		Random rand=new Random(42);
+		for(int run=0;run<500;run++){
+			int n=1+rand.nextInt(12);
+			double[] liters=new double[n];
+			for(int i=0;i<n;i++)
+				liters[i]=1+rand.nextInt(60)+(rand.nextBoolean()?0.5:0);
+			double capacity=rand.nextInt(200);
+			double epsilon=0.05+rand.nextDouble()*0.5;
+			
+			double approx=sum(liters, ApproximateKnapsack.solve(liters, capacity, epsilon));
+			double optimal=0;
+			for(int mask=0;mask<(1<<n);mask++){
+				double liter=0;
+				for(int i=0;i<n;i++)
+					if((mask>>i&1)==1)
+						liter+=liters[i];
+				if(liter<=capacity)
+					optimal=Math.max(optimal, liter);
+			}
+			
+			assertTrue("fits", approx<=capacity);
+			assertTrue("within epsilon", approx>=(1-epsilon)*optimal-0.00001);
+		}
+	}
+	
+}
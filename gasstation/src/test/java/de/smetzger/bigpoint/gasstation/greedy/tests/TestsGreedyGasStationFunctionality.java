@@ -2,6 +2,15 @@ package de.smetzger.bigpoint.gasstation.greedy.tests;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import net.bigpoint.assessment.gasstation.GasPump;
 import net.bigpoint.assessment.gasstation.GasStation;
 import net.bigpoint.assessment.gasstation.GasType;
@@ -10,6 +19,11 @@ import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
 
 import org.junit.Test;
 
+import de.smetzger.bigpoint.gasstation.LockStatistics;
+import de.smetzger.bigpoint.gasstation.greedy.AdaptiveStrategy;
+import de.smetzger.bigpoint.gasstation.greedy.AttendantScheduler;
+import de.smetzger.bigpoint.gasstation.greedy.PlacementPolicy;
+import de.smetzger.bigpoint.gasstation.greedy.QueueDiscipline;
 import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
 import de.smetzger.bigpoint.gasstation.tests.Client;
 import de.smetzger.bigpoint.gasstation.tests.Client.DelayedCustomer;
@@ -284,4 +298,425 @@ public class TestsGreedyGasStationFunctionality {
 	
 	
 	
+	@Test
+	public void testWorkStealing(){
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.setPrice(GasType.DIESEL, 2);
+		
+		//all four fit the first pump, the idle second one has to take over some of them
+		Thread[] threads=new Thread[4];
+		for(int i=0;i<threads.length;i++){
+			threads[i]=new Thread(new Client(station,5,GasType.DIESEL,5));
+			threads[i].start();
+		}
+		
+		for(Thread t:threads)
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		
+		assertEquals("4 sold", 4, station.getNumberOfSales());
+		assertTrue("customers handed over", station.getNumberOfStolenCustomers()>0);
+		assertEquals("40 revenue", 40d, station.getRevenue(),0.00001);
+	}
+	
+	@Test
+	public void testTimeoutAndInterrupt() throws InterruptedException{
+		final StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.setPrice(GasType.DIESEL, 2);
+		
+		Thread first=new Thread(new Client(station,5,GasType.DIESEL,5));
+		first.start();
+		Thread.sleep(50); //first customer is pumping
+		
+		//second customer is queued behind him, but does not wait long enough
+		boolean timedOut=false;
+		try {
+			station.buyGas(GasType.DIESEL, 5, 5, 100, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			timedOut=true;
+		} catch (NotEnoughGasException | GasTooExpensiveException e) {
+			//not expected
+		}
+		assertTrue("timed out", timedOut);
+		assertEquals("his gas is available again", 5d, station.getMaxQueueableAmount(GasType.DIESEL), 0.00001);
+		
+		//third customer gets interrupted while waiting
+		final boolean[] interrupted={false};
+		Thread third=new Thread(new Runnable(){
+			public void run() {
+				try {
+					station.buyGasInterruptibly(GasType.DIESEL, 5, 5);
+				} catch (InterruptedException e) {
+					interrupted[0]=true;
+				} catch (NotEnoughGasException | GasTooExpensiveException e) {
+					//not expected
+				}
+			}
+		});
+		third.start();
+		Thread.sleep(50);
+		third.interrupt();
+		third.join();
+		first.join();
+		
+		assertTrue("interrupted", interrupted[0]);
+		assertEquals("2 abandoned", 2, station.getNumberOfAbandonedPurchases());
+		assertEquals("1 sold", 1, station.getNumberOfSales());
+		assertEquals("5 liters left", 5d, station.getMaxRemainingAmount(GasType.DIESEL), 0.00001);
+	}
+	
+	@Test
+	public void testLockStatistics() throws InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setLockMonitoring(true);
+		
+		Thread[] threads=new Thread[4];
+		for(int i=0;i<threads.length;i++){
+			threads[i]=new Thread(new Client(station,5,GasType.DIESEL,5));
+			threads[i].start();
+		}
+		//draining waits along with the customers
+		Thread.sleep(200);
+		station.drain();
+		for(Thread t:threads)
+			t.join();
+		
+		assertEquals("4 sold", 4, station.getNumberOfSales());
+		boolean found=false;
+		for(LockStatistics s:station.getLockStatistics())
+			if(s.getSection().equals("station.queueAtMatchingPumpAttendant")){
+				found=true;
+				assertEquals("4 purchases", 4, s.getAcquisitions());
+				//the customers waited about 2 seconds for their gas, but that is not holding the lock
+				assertTrue("waiting for the gas is not holding", s.getHoldNanos()<TimeUnit.MILLISECONDS.toNanos(500));
+			}
+			else if(s.getSection().equals("station.customerServed"))
+				assertEquals("4 served", 4, s.getAcquisitions());
+			else if(s.getSection().equals("station.drain")){
+				assertEquals("1 drain", 1, s.getAcquisitions());
+				assertTrue("waiting to drain is not holding", s.getHoldNanos()<TimeUnit.MILLISECONDS.toNanos(500));
+			}
+		assertTrue("purchase section measured", found);
+	}
+	
+	@Test
+	public void testEarliestCompletionPlacement(){
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		GasPump p1=new GasPump(GasType.DIESEL, 100);
+		GasPump p2=new GasPump(GasType.DIESEL, 100);
+		station.addGasPump(p1);
+		station.addGasPump(p2);
+		station.setPrice(GasType.DIESEL, 2);
+		station.setWorkStealing(false);
+		station.setPlacementPolicy(PlacementPolicy.EARLIEST_COMPLETION);
+		
+		//first fit would queue all of them at the first pump
+		Thread[] threads=new Thread[4];
+		for(int i=0;i<threads.length;i++){
+			threads[i]=new Thread(new Client(station,5,GasType.DIESEL,5));
+			threads[i].start();
+		}
+		
+		for(Thread t:threads)
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		
+		assertEquals("4 sold", 4, station.getNumberOfSales());
+		assertEquals("pump 1 served two", 90d, p1.getRemainingAmount(),0.00001);
+		assertEquals("pump 2 served two", 90d, p2.getRemainingAmount(),0.00001);
+	}
+	
+	@Test
+	public void testCoalescedReorganization(){
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setReorganizationWindow(100);
+		station.setFeasibilityCheck(false); //no arrangement sells more, reorganize anyway to see the misfits coalesced
+		
+		//while the first one pumps, two of the others cannot be queued, 
+		//both misfits are solved by one reorganization
+		Client[] clients={new Client(station,2,GasType.DIESEL,5), 
+				new DelayedCustomer(station,9,GasType.DIESEL,5,50), new DelayedCustomer(station,9,GasType.DIESEL,5,50),
+				new DelayedCustomer(station,8,GasType.DIESEL,5,50), new DelayedCustomer(station,8,GasType.DIESEL,5,50)};
+		Thread[] threads=new Thread[clients.length];
+		for(int i=0;i<threads.length;i++){
+			threads[i]=new Thread(clients[i]);
+			threads[i].start();
+		}
+		
+		for(Thread t:threads)
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		
+		assertEquals("3 sold", 3, station.getNumberOfSales());
+		assertEquals("2 outagas", 2, station.getNumberOfCancellationsNoGas());
+		assertEquals("1 reorganization", 1, station.getNumberOfReorganizations());
+		assertEquals("40 revenue", 40d, station.getRevenue(),0.00001);
+	}
+	
+	@Test
+	public void testSkippedReorganization(){
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.setPrice(GasType.DIESEL, 2);
+		
+		//while the first one pumps, 9l and 9l fill the pump, the 8l misfit could only replace one of them
+		Thread t1=new Thread(new Client(station,2,GasType.DIESEL,5));
+		Thread t2=new Thread(new DelayedCustomer(station,9,GasType.DIESEL,5,50));
+		Thread t3=new Thread(new DelayedCustomer(station,9,GasType.DIESEL,5,100));
+		Thread t4=new Thread(new DelayedCustomer(station,8,GasType.DIESEL,5,150));
+		for(Thread t:new Thread[]{t1, t2, t3, t4})
+			t.start();
+		try {
+			for(Thread t:new Thread[]{t1, t2, t3, t4})
+				t.join();
+		} catch (InterruptedException e) {
+			// ignore
+		}
+		
+		assertEquals("3 sold", 3, station.getNumberOfSales());
+		assertEquals("1 outagas", 1, station.getNumberOfCancellationsNoGas());
+		assertEquals("no reorganization", 0, station.getNumberOfReorganizations());
+		assertEquals("1 skipped", 1, station.getNumberOfSkippedReorganizations());
+	}
+	
+	@Test
+	public void testQueueBalancing() throws InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		GasPump p1=new GasPump(GasType.DIESEL, 12);
+		GasPump p2=new GasPump(GasType.DIESEL, 12);
+		station.addGasPump(p1);
+		station.addGasPump(p2);
+		station.setPrice(GasType.DIESEL, 2);
+		station.setWorkStealing(false);
+		station.setQueueBalancing(true);
+		
+		//4l pumping at each pump
+		List<CompletableFuture<Double>> purchases=new ArrayList<CompletableFuture<Double>>();
+		purchases.add(station.buyGasAsync(GasType.DIESEL, 4, 5));
+		awaitBusy(station, 0);
+		station.setPlacementPolicy(PlacementPolicy.EARLIEST_COMPLETION);
+		purchases.add(station.buyGasAsync(GasType.DIESEL, 4, 5));
+		awaitBusy(station, 1);
+		station.setPlacementPolicy(PlacementPolicy.FIRST_FIT);
+		
+		//1l, 1l and 2l queued at the first pump, 5l at the second, the 5l misfit fits neither
+		for(double liters:new double[]{1, 1, 2, 5, 5})
+			purchases.add(station.buyGasAsync(GasType.DIESEL, liters, 5));
+		//the first pump selects 1l, 2l and 5l, the second one 1l and 5l: balancing moves a 1l customer over
+		assertEquals("1 reorganization", 1, station.getNumberOfReorganizations());
+		assertEquals("one move", 1, station.getNumberOfBalancingSteps());
+		
+		for(CompletableFuture<Double> purchase:purchases)
+			purchase.join();
+		assertEquals("7 sold", 7, station.getNumberOfSales());
+		assertEquals("11l from the first pump", 1d, p1.getRemainingAmount(), 0.00001);
+		assertEquals("11l from the second pump", 1d, p2.getRemainingAmount(), 0.00001);
+	}
+	
+	/** waits until the pump with the given id serves a customer */
+	protected void awaitBusy(StevesGreedyGasStation station, int pump) throws InterruptedException{
+		long deadline=System.currentTimeMillis()+1000;
+		while(!station.getPumpStateTable().isBusy(pump) && System.currentTimeMillis()<deadline)
+			Thread.sleep(1);
+		assertTrue("pump "+pump+" busy", station.getPumpStateTable().isBusy(pump));
+	}
+	
+	@Test
+	public void testSolutionCache(){
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 15));
+		station.addGasPump(new GasPump(GasType.SUPER, 15));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setPrice(GasType.SUPER, 2);
+		
+		//the same instance (4l pumping, 5l queued, 11l misfit) at two pumps
+		for(GasType type:new GasType[]{GasType.DIESEL, GasType.SUPER}){
+			Thread t1=new Thread(new Client(station,4,type,5));
+			Thread t2=new Thread(new DelayedCustomer(station,5,type,5,100));
+			Thread t3=new Thread(new DelayedCustomer(station,11,type,5,200));
+			t1.start();
+			t2.start();
+			t3.start();
+			try {
+				t1.join();
+				t2.join();
+				t3.join();
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+		
+		assertEquals("4 sold", 4, station.getNumberOfSales());
+		assertEquals("60 revenue", 60d, station.getRevenue(),0.00001);
+		assertEquals("1 miss", 1, station.getSolutionCache().getMisses());
+		assertEquals("1 hit", 1, station.getSolutionCache().getHits());
+	}
+	
+	@Test
+	public void testAdaptiveSwitchToFirstFit(){
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 15));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setAdaptiveLatencyBound(1); //any reorganization is too slow
+		
+		//the 11l misfit is still solved by a reorganization, which exceeds the bound
+		Thread t1=new Thread(new Client(station,4,GasType.DIESEL,5));
+		Thread t2=new Thread(new DelayedCustomer(station,5,GasType.DIESEL,5,100));
+		Thread t3=new Thread(new DelayedCustomer(station,11,GasType.DIESEL,5,200));
+		//from now on misfits are rejected right away
+		Thread t4=new Thread(new DelayedCustomer(station,6,GasType.DIESEL,5,300));
+		t1.start();
+		t2.start();
+		t3.start();
+		t4.start();
+		try {
+			t1.join();
+			t2.join();
+			t3.join();
+			t4.join();
+		} catch (InterruptedException e) {
+			// ignore
+		}
+		
+		assertEquals("2 sold", 2, station.getNumberOfSales());
+		assertEquals("2 outagas", 2, station.getNumberOfCancellationsNoGas());
+		assertEquals("1 reorganization", 1, station.getNumberOfReorganizations());
+		assertEquals("first fit", AdaptiveStrategy.Mode.FIRST_FIT, station.getAdaptiveStrategy().getMode(GasType.DIESEL));
+	}
+	
+	@Test
+	public void testManyPumps() throws NotEnoughGasException, GasTooExpensiveException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		GasPump[] pumps=new GasPump[500];
+		for(int i=0;i<pumps.length;i++){
+			pumps[i]=new GasPump(GasType.DIESEL, (i==321)?2:0.5);
+			station.addGasPump(pumps[i]);
+		}
+		station.setPrice(GasType.DIESEL, 2);
+		
+		assertEquals("500 pumps", 500, station.getNumberOfPumps(GasType.DIESEL));
+		assertEquals("max remaining", 2d, station.getMaxRemainingAmount(GasType.DIESEL), 0.00001);
+		assertEquals("max queueable", 2d, station.getMaxQueueableAmount(GasType.DIESEL), 0.00001);
+		assertEquals("no super", 0d, station.getMaxQueueableAmount(GasType.SUPER), 0.00001);
+		
+		//only one pump has enough gas, first fit has to find it
+		station.buyGas(GasType.DIESEL, 1, 2);
+		assertEquals("served by the only pump that fits", 1d, pumps[321].getRemainingAmount(), 0.00001);
+		assertEquals("the others untouched", 0.5d, pumps[320].getRemainingAmount(), 0.00001);
+		assertEquals("max remaining after the sale", 1d, station.getMaxRemainingAmount(GasType.DIESEL), 0.00001);
+		
+		try {
+			station.buyGas(GasType.DIESEL, 1.5, 2);
+			assertTrue("not enough gas expected", false);
+		} catch (NotEnoughGasException e) {
+			//expected, no pump has that much left
+		}
+		station.close();
+	}
+	
+	@Test
+	public void testSchedulerLifecycle() throws NotEnoughGasException, GasTooExpensiveException, InterruptedException{
+		AttendantScheduler scheduler=new AttendantScheduler(2, 50);
+		StevesGreedyGasStation station=new StevesGreedyGasStation(scheduler);
+		for(int i=0;i<20;i++)
+			station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.setPrice(GasType.DIESEL, 2);
+		assertEquals("no threads before any purchase", 0, scheduler.getThreads());
+		
+		Thread[] threads=new Thread[4];
+		for(int i=0;i<threads.length;i++){
+			threads[i]=new Thread(new Client(station,2,GasType.DIESEL,5));
+			threads[i].start();
+		}
+		Thread.sleep(50);
+		assertTrue("at most 2 threads for 20 pumps", scheduler.getThreads()<=2);
+		
+		//drain lets the queued customers finish, new ones are refused
+		station.drain();
+		for(Thread t:threads)
+			t.join();
+		assertEquals("4 sold", 4, station.getNumberOfSales());
+		try {
+			station.buyGas(GasType.DIESEL, 1, 5);
+			assertTrue("refused while drained", false);
+		} catch (IllegalStateException e) {
+			//expected
+		}
+		
+		station.start();
+		assertEquals("open again", 2d, station.buyGas(GasType.DIESEL, 1, 5), 0.00001);
+		
+		station.close();
+		assertTrue("closed", station.isClosed());
+		Thread.sleep(200);
+		assertEquals("idle workers ended", 0, scheduler.getThreads());
+		scheduler.shutdown();
+	}
+	
+	@Test
+	public void testQueueDisciplines() throws InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 100));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setWorkStealing(false);
+		station.setQueueDiscipline(QueueDiscipline.SHORTEST_JOB_FIRST);
+		
+		//while the first one pumps, the others queue up in the order 5l, 2l, 1l, and are served shortest first
+		final List<Double> served=Collections.synchronizedList(new ArrayList<Double>());
+		List<CompletableFuture<Double>> purchases=new ArrayList<CompletableFuture<Double>>();
+		for(final double liters:new double[]{3, 5, 2, 1}){
+			purchases.add(station.buyGasAsync(GasType.DIESEL, liters, 5, Runnable::run).thenApply(cost->{
+				served.add(liters);
+				return cost;
+			}));
+			Thread.sleep(20);
+		}
+		for(CompletableFuture<Double> f:purchases)
+			f.join();
+		assertEquals("shortest first", Arrays.asList(3d, 1d, 2d, 5d), served);
+		
+		//earliest deadline first: the customer leaving earlier is served first, although he came later
+		//(the one before him waits as long as it takes, a timeout too large for a deadline)
+		station.setQueueDiscipline(QueueDiscipline.EARLIEST_DEADLINE_FIRST);
+		served.clear();
+		Thread first=new Thread(new Client(station,3,GasType.DIESEL,5));
+		first.start();
+		Thread.sleep(20);
+		Thread[] threads=new Thread[2];
+		for(int i=0;i<threads.length;i++){
+			final double liters=2+i;
+			final long timeout=(i==0)?Long.MAX_VALUE:5000;
+			threads[i]=new Thread(()->{
+				try {
+					station.buyGas(GasType.DIESEL, liters, 5, timeout, TimeUnit.MILLISECONDS);
+					served.add(liters);
+				} catch (Exception e) {
+					//not expected, shows as missing purchase
+				}
+			});
+			threads[i].start();
+			Thread.sleep(20);
+		}
+		first.join();
+		for(Thread t:threads)
+			t.join();
+		assertEquals("earliest deadline first", Arrays.asList(3d, 2d), served);
+	}
+	
 }
@@ -0,0 +1,62 @@
+package de.smetzger.bigpoint.gasstation.greedy.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.greedy.QueueBalancer;
+
+
+public class TestsQueueBalancer {
+
+	@Test
+	public void testSimpleInstance(){
+		//all on the first pump, two of them belong on the second
+		double[] liters={5,5,5,5};
+		int[] assignment={0,0,0,0};
+		int steps=QueueBalancer.balance(liters, assignment, new double[]{30, 10}, 100);
+		assertEquals("two moves", 2, steps);
+		assertEquals("10 liters each", 10d, QueueBalancer.makespan(liters, assignment, 2), 0.00001);
+
+		//a swap: 7 and 3 at the first pump, 5 at the second, which has no room for another customer
+		liters=new double[]{7, 3, 5};
+		assignment=new int[]{0, 0, 1};
+		QueueBalancer.balance(liters, assignment, new double[]{10, 7}, 100);
+		assertEquals("7 and 5 swapped", "[1, 0, 0]", Arrays.toString(assignment));
+		assertEquals("8 at the busiest", 8d, QueueBalancer.makespan(liters, assignment, 2), 0.00001);
+	}
+
+	@Test
+	public void testRandomInstances(){
+		Random rand=new Random(42);
+		for(int run=0;run<200;run++){
+			int pumps=1+rand.nextInt(5);
+			int n=rand.nextInt(20);
+			double[] capacities=new double[pumps];
+			double[] liters=new double[n];
+			int[] assignment=new int[n];
+			double[] loads=new double[pumps];
+			for(int i=0;i<n;i++){
+				liters[i]=1+rand.nextInt(20);
+				assignment[i]=rand.nextInt(pumps);
+				loads[assignment[i]]+=liters[i];
+			}
+			for(int p=0;p<pumps;p++)
+				capacities[p]=loads[p]+rand.nextInt(30);
+			double before=QueueBalancer.makespan(liters, assignment, pumps);
+
+			QueueBalancer.balance(liters, assignment, capacities, 1000);
+			assertTrue("not worse", QueueBalancer.makespan(liters, assignment, pumps)<=before);
+			double[] after=new double[pumps];
+			for(int i=0;i<n;i++)
+				after[assignment[i]]+=liters[i];
+			for(int p=0;p<pumps;p++)
+				assertTrue("run "+run+": capacity of pump "+p, after[p]<=capacities[p]+0.00001);
+		}
+	}
+
+}
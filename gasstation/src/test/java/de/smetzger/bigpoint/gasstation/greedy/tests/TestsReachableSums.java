@@ -0,0 +1,78 @@
+package de.smetzger.bigpoint.gasstation.greedy.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.greedy.ReachableSums;
+
+
+public class TestsReachableSums {
+
+	@Test
+	public void testSimpleSums(){
+		ReachableSums sums=new ReachableSums(ReachableSums.units(20));
+		sums.add(9);
+		sums.add(9);
+		assertTrue("exact", sums.isExact());
+		assertEquals("18 liters", ReachableSums.units(18), sums.getTotalUnits());
+		assertTrue("9 reachable", sums.contains(ReachableSums.units(9)));
+		assertFalse("8 not reachable", sums.contains(ReachableSums.units(8)));
+		assertEquals("at most 17: 9", ReachableSums.units(9), sums.highestAtMost(ReachableSums.units(17)));
+		sums.add(0.5);
+		assertEquals("at most 10: 9.5", ReachableSums.units(9.5), sums.highestAtMost(ReachableSums.units(10)));
+
+		sums.add(0.001); //no whole number of units
+		assertFalse("not exact", sums.isExact());
+		assertEquals("anything considered reachable", 123, sums.highestAtMost(123));
+	}
+
+	@Test
+	public void testInvalidAmounts(){
+		double[] invalid={-5, -0.01, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for(double liters:invalid){
+			assertFalse(liters+" not whole", ReachableSums.isWhole(liters));
+			ReachableSums sums=new ReachableSums(ReachableSums.units(20));
+			sums.add(9);
+			sums.add(liters);
+			assertFalse(liters+" makes the sums inexact", sums.isExact());
+			assertEquals(liters+" not counted", ReachableSums.units(9), sums.getTotalUnits());
+			assertEquals(liters+": anything considered reachable", 123, sums.highestAtMost(123));
+		}
+	}
+
+	@Test
+	public void testAgainstEnumeration(){
+		Random rand=new Random(42);
+		for(int run=0;run<200;run++){
+			int n=1+rand.nextInt(10);
+			double[] liters=new double[n];
+			for(int i=0;i<n;i++)
+				liters[i]=rand.nextInt(3000)/100d;
+			long max=rand.nextInt(15000);
+
+			//the amounts spread over two sets, combined again by the sumset
+			ReachableSums sums=new ReachableSums(max), other=new ReachableSums(max);
+			for(int i=0;i<n;i++)
+				(i%2==0?sums:other).add(liters[i]);
+			sums.addAll(other);
+
+			boolean[] reachable=new boolean[(int)max+1];
+			for(int mask=0;mask<(1<<n);mask++){
+				long units=0;
+				for(int i=0;i<n;i++)
+					if((mask>>i&1)==1)
+						units+=ReachableSums.units(liters[i]);
+				if(units<=max)
+					reachable[(int)units]=true;
+			}
+			for(int units=0;units<=max;units++)
+				assertEquals("run "+run+", "+units+" units", reachable[units], sums.contains(units));
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package de.smetzger.bigpoint.gasstation.greedy.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.greedy.PlacementPolicy;
+import de.smetzger.bigpoint.gasstation.greedy.QueueDiscipline;
+import de.smetzger.bigpoint.gasstation.greedy.StationSnapshot;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+import de.smetzger.bigpoint.gasstation.tests.Client;
+import de.smetzger.bigpoint.gasstation.tests.Client.DelayedCustomer;
+
+
+public class TestsStationSnapshot {
+
+	@Test
+	public void testSnapshotWithQueuedCustomers() throws IOException, InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 15));
+		station.addGasPump(new GasPump(GasType.SUPER, 10));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setPrice(GasType.SUPER, 3);
+		
+		//one customer pumping, two queued behind him
+		Thread t1=new Thread(new Client(station,5,GasType.DIESEL,5));
+		Thread t2=new Thread(new DelayedCustomer(station,4,GasType.DIESEL,5,50));
+		Thread t3=new Thread(new DelayedCustomer(station,3,GasType.DIESEL,5,50));
+		t1.start();
+		t2.start();
+		t3.start();
+		long deadline=System.currentTimeMillis()+400;
+		while(StationSnapshot.capture(station).getNumberOfQueuedCustomers()<3 && System.currentTimeMillis()<deadline)
+			Thread.sleep(10);
+		
+		File file=File.createTempFile("snapshot", ".bin");
+		file.deleteOnExit();
+		StationSnapshot.capture(station).write(file.toPath());
+		
+		StationSnapshot snapshot=StationSnapshot.read(file.toPath());
+		assertEquals("2 pumps", 2, snapshot.getNumberOfPumps());
+		assertEquals("3 customers", 3, snapshot.getNumberOfQueuedCustomers());
+		
+		StevesGreedyGasStation restored=snapshot.restore();
+		assertEquals("diesel price", 2, restored.getPrice(GasType.DIESEL), 0.00001);
+		assertEquals("super price", 3, restored.getPrice(GasType.SUPER), 0.00001);
+		assertEquals("price version", station.getPriceSnapshot().getVersion(), restored.getPriceSnapshot().getVersion());
+		
+		//the restored station serves the queued customers on its own
+		while(restored.getNumberOfSales()<3)
+			Thread.sleep(100);
+		assertEquals("24 revenue", 24d, restored.getRevenue(), 0.00001);
+		assertEquals("3l left", 3d, restored.getGasPumps().iterator().next().getRemainingAmount(), 0.00001);
+		
+		t1.join();
+		t2.join();
+		t3.join();
+		assertEquals("same revenue as original", station.getRevenue(), restored.getRevenue(), 0.00001);
+	}
+	
+	@Test
+	public void testSnapshotWithCollectedMisfits() throws IOException, InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 20));
+		station.setPrice(GasType.DIESEL, 1);
+		station.setReorganizationWindow(300);
+		
+		//4l pumping, 6l and 6l queued, the 8l misfit is collected for a reorganization
+		List<CompletableFuture<Double>> purchases=new ArrayList<CompletableFuture<Double>>();
+		for(double liters:new double[]{4, 6, 6})
+			purchases.add(station.buyGasAsync(GasType.DIESEL, liters, 1));
+		long start=System.nanoTime();
+		purchases.add(station.buyGasAsync(GasType.DIESEL, 8, 1));
+		assertTrue("the caller does not wait for the window", System.nanoTime()-start<200000000L);
+		
+		File file=File.createTempFile("snapshot", ".bin");
+		file.deleteOnExit();
+		StationSnapshot.capture(station).write(file.toPath());
+		StationSnapshot snapshot=StationSnapshot.read(file.toPath());
+		assertEquals("3 customers", 3, snapshot.getNumberOfQueuedCustomers());
+		assertEquals("1 misfit", 1, snapshot.getNumberOfCollectedMisfits());
+		
+		//the restored station reorganizes for the misfit right away instead of losing it
+		StevesGreedyGasStation restored=snapshot.restore();
+		assertEquals("reorganized", 1, restored.getNumberOfReorganizations());
+		
+		int served=0;
+		for(CompletableFuture<Double> f:purchases)
+			try {
+				f.join();
+				served++;
+			} catch (CompletionException e) {
+				//one 6l customer is turned away
+			}
+		assertEquals("3 served", 3, served);
+		assertEquals("original reorganized", 1, station.getNumberOfReorganizations());
+		
+		long deadline=System.currentTimeMillis()+5000;
+		while(restored.getNumberOfSales()<3 && System.currentTimeMillis()<deadline)
+			Thread.sleep(100);
+		assertEquals("3 restored sales", 3, restored.getNumberOfSales());
+	}
+	
+	@Test
+	public void testSnapshotWithConfiguration() throws IOException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.setPlacementPolicy(PlacementPolicy.EARLIEST_COMPLETION);
+		station.setQueueDiscipline(QueueDiscipline.SHORTEST_JOB_FIRST);
+		station.setReorganizationWindow(50);
+		station.setWorkStealing(false);
+		station.setSolutionCache(0, 1);
+		station.setAdaptiveLatencyBound(1000000);
+		station.addGasPump(new GasPump(GasType.DIESEL, 15));
+		
+		File file=File.createTempFile("snapshot", ".bin");
+		file.deleteOnExit();
+		StationSnapshot.capture(station).write(file.toPath());
+		StevesGreedyGasStation restored=StationSnapshot.read(file.toPath()).restore();
+		
+		assertEquals("placement", PlacementPolicy.EARLIEST_COMPLETION, restored.getPlacementPolicy());
+		assertEquals("discipline", QueueDiscipline.SHORTEST_JOB_FIRST, restored.getQueueDiscipline());
+		assertEquals("window", 50, restored.getReorganizationWindow());
+		assertFalse("no work stealing", restored.isWorkStealing());
+		assertNull("no solution cache", restored.getSolutionCache());
+		assertNotNull("adaptive", restored.getAdaptiveStrategy());
+	}
+	
+	@Test
+	public void testFailedPeriodicWrites() throws IOException, InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 15));
+		File dir=File.createTempFile("snapshots", "");
+		dir.delete(); //the directory does not exist, so writing fails
+		
+		ScheduledExecutorService executor=Executors.newSingleThreadScheduledExecutor();
+		try {
+			StationSnapshot.PeriodicWriter writer=StationSnapshot.writePeriodically(station,
+					new File(dir, "snapshot.bin").toPath(), 10, TimeUnit.MILLISECONDS, executor);
+			Thread.sleep(100);
+			assertTrue("failures counted", writer.getNumberOfFailures()>1);
+			assertNotNull("last failure", writer.getLastFailure());
+			assertFalse("still writing", writer.getFuture().isDone());
+			writer.getFuture().cancel(false);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+}
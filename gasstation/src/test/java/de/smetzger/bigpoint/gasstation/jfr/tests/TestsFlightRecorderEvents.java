@@ -0,0 +1,135 @@
+package de.smetzger.bigpoint.gasstation.jfr.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+import de.smetzger.bigpoint.gasstation.tests.Client;
+
+
+public class TestsFlightRecorderEvents {
+
+	protected void buy(StevesGreedyGasStation station, GasType type, double liters, double maxPrice){
+		try {
+			station.buyGas(type, liters, maxPrice);
+		} catch (NotEnoughGasException | GasTooExpensiveException e) {
+			//Ignore
+		}
+	}
+
+	protected boolean failed(CompletableFuture<Double> purchase){
+		try {
+			purchase.join();
+			return false;
+		} catch (CompletionException e) {
+			return true;
+		}
+	}
+
+	@Test
+	public void testEventsRecorded() throws IOException, InterruptedException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.setPrice(GasType.DIESEL, 2);
+
+		Path file=Files.createTempFile("gasstation", ".jfr");
+		try(Recording recording=new Recording()){
+			recording.enable("de.smetzger.bigpoint.gasstation.Purchase");
+			recording.enable("de.smetzger.bigpoint.gasstation.PumpCycle");
+			recording.enable("de.smetzger.bigpoint.gasstation.Reorganization");
+			recording.start();
+			Thread first=new Thread(new Client(station,2,GasType.DIESEL,2));
+			first.start();
+			Thread.sleep(50); //pumping
+			Thread second=new Thread(new Client(station,6,GasType.DIESEL,2));
+			second.start();
+			Thread.sleep(50); //queued
+			buy(station, GasType.DIESEL, 4, 1);
+			buy(station, GasType.DIESEL, 8, 2); //replaces the second customer after a reorganization
+			first.join();
+			second.join();
+			recording.stop();
+			recording.dump(file);
+		}
+
+		int sold=0, tooExpensive=0, notEnoughGas=0, cycles=0, reorganizations=0;
+		try{
+			for(RecordedEvent e:RecordingFile.readAllEvents(file)){
+				String name=e.getEventType().getName();
+				if(name.endsWith("Purchase")){
+					String outcome=e.getString("outcome");
+					if(outcome.equals("SOLD"))
+						sold++;
+					else if(outcome.equals("TOO_EXPENSIVE"))
+						tooExpensive++;
+					else if(outcome.equals("NOT_ENOUGH_GAS"))
+						notEnoughGas++;
+				}
+				else if(name.endsWith("PumpCycle"))
+					cycles++;
+				else if(name.endsWith("Reorganization"))
+					reorganizations++;
+			}
+		}finally{
+			Files.delete(file);
+		}
+		assertEquals("2 sold", 2, sold);
+		assertEquals("1 too expensive", 1, tooExpensive);
+		assertEquals("1 not enough gas", 1, notEnoughGas);
+		assertEquals("2 pump cycles", 2, cycles);
+		assertEquals("1 reorganization", 1, reorganizations);
+	}
+
+	@Test
+	public void testAsyncPurchaseEvents() throws IOException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.setPrice(GasType.DIESEL, 2);
+
+		Path file=Files.createTempFile("gasstation", ".jfr");
+		try(Recording recording=new Recording()){
+			recording.enable("de.smetzger.bigpoint.gasstation.Purchase");
+			recording.start();
+			CompletableFuture<Double> sold=station.buyGasAsync(GasType.DIESEL, 2, 2);
+			CompletableFuture<Double> tooExpensive=station.buyGasAsync(GasType.DIESEL, 2, 1);
+			CompletableFuture<Double> notEnoughGas=station.buyGasAsync(GasType.DIESEL, 12, 2);
+			assertEquals("4 paid", 4d, sold.join(), 0.00001);
+			assertTrue("too expensive", failed(tooExpensive));
+			assertTrue("not enough gas", failed(notEnoughGas));
+			recording.stop();
+			recording.dump(file);
+		}
+
+		List<String> outcomes=new ArrayList<String>();
+		try{
+			for(RecordedEvent e:RecordingFile.readAllEvents(file))
+				if(e.getEventType().getName().endsWith("Purchase"))
+					outcomes.add(e.getString("outcome"));
+		}finally{
+			Files.delete(file);
+		}
+		Collections.sort(outcomes);
+		assertEquals("one event per purchase", Arrays.asList("NOT_ENOUGH_GAS", "SOLD", "TOO_EXPENSIVE"), outcomes);
+	}
+
+}
@@ -0,0 +1,153 @@
+package de.smetzger.bigpoint.gasstation.journal.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.StevesSimpleGasStation;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+import de.smetzger.bigpoint.gasstation.journal.JournalReader;
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal;
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal.Kind;
+
+
+public class TestsTransactionJournal {
+
+	@Test
+	public void testAppendAcrossRegionsAndReopen() throws IOException, InterruptedException{
+		File file=File.createTempFile("journal", ".bin");
+		file.delete();
+		file.deleteOnExit();
+		
+		TransactionJournal journal=new TransactionJournal(file.toPath(), 4, 1);
+		for(int i=0;i<10;i++)
+			journal.append(Kind.SALE, GasType.DIESEL, i, 2, 7, i%3);
+		journal.sync();
+		journal.close();
+		
+		//continue the existing journal
+		journal=new TransactionJournal(file.toPath(), 4, 1);
+		assertEquals("10 records", 10, journal.size());
+		journal.append(Kind.CANCELLED_NO_GAS, GasType.SUPER, 11, 3, 8, TransactionJournal.NO_PUMP);
+		journal.close();
+		
+		JournalReader reader=new JournalReader(file.toPath());
+		for(int i=0;i<10;i++){
+			assertTrue("record "+i, reader.next());
+			assertEquals("sequence", i, reader.getSequence());
+			assertEquals("sale", Kind.SALE, reader.getKind());
+			assertEquals("liters", i, reader.getLiters(), 0.00001);
+			assertEquals("pump", i%3, reader.getPump());
+			assertEquals("price version", 7, reader.getPriceVersion());
+		}
+		assertTrue("appended record", reader.next());
+		assertEquals("no gas", Kind.CANCELLED_NO_GAS, reader.getKind());
+		assertEquals("gas type", GasType.SUPER, reader.getGasType());
+		assertFalse("end of journal", reader.next());
+		reader.close();
+	}
+	
+	@Test
+	public void testStationJournal() throws IOException{
+		File file=File.createTempFile("journal", ".bin");
+		file.delete();
+		file.deleteOnExit();
+		
+		TransactionJournal journal=new TransactionJournal(file.toPath());
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 15));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setJournal(journal);
+		
+		double[] liters={80,3,5,4,5};
+		for(double l:liters)
+			try {
+				station.buyGas(GasType.DIESEL, l, 2);
+			} catch (NotEnoughGasException | GasTooExpensiveException e) {
+				//Ignore
+			}
+		journal.close();
+		
+		int sales=0, noGas=0;
+		double revenue=0;
+		JournalReader reader=new JournalReader(file.toPath());
+		while(reader.next()){
+			if(reader.getKind()==Kind.SALE){
+				sales++;
+				revenue+=reader.getLiters()*reader.getPrice();
+				assertEquals("pump", 0, reader.getPump());
+			}
+			else if(reader.getKind()==Kind.CANCELLED_NO_GAS)
+				noGas++;
+		}
+		reader.close();
+		
+		assertEquals("sales", station.getNumberOfSales(), sales);
+		assertEquals("no gas", station.getNumberOfCancellationsNoGas(), noGas);
+		assertEquals("revenue", station.getRevenue(), revenue, 0.00001);
+	}
+	
+	@Test
+	public void testClosedJournal() throws IOException, NotEnoughGasException, GasTooExpensiveException{
+		File file=File.createTempFile("journal", ".bin");
+		file.delete();
+		file.deleteOnExit();
+		
+		TransactionJournal journal=new TransactionJournal(file.toPath());
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 15));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setJournal(journal);
+		journal.close();
+		
+		//the sale still goes through, the journal failure is only counted
+		assertEquals("6 cost", 6d, station.buyGas(GasType.DIESEL, 3, 2), 0.00001);
+		assertEquals("1 sale", 1, station.getNumberOfSales());
+		assertEquals("1 journal failure", 1, station.getNumberOfJournalFailures());
+	}
+	
+	@Test
+	public void testClosedJournalSimpleStation() throws IOException, NotEnoughGasException, GasTooExpensiveException{
+		File file=File.createTempFile("journal", ".bin");
+		file.delete();
+		file.deleteOnExit();
+		
+		TransactionJournal journal=new TransactionJournal(file.toPath());
+		StevesSimpleGasStation station=new StevesSimpleGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 5));
+		station.setPrice(GasType.DIESEL, 2);
+		station.setJournal(journal);
+		journal.close();
+		
+		//every outcome goes through as without a journal, the failures are only counted
+		assertEquals("6 cost", 6d, station.buyGas(GasType.DIESEL, 3, 2), 0.00001);
+		try {
+			station.buyGas(GasType.DIESEL, 1, 1);
+			fail("too expensive");
+		} catch (GasTooExpensiveException e) {
+			//expected
+		}
+		try {
+			station.buyGas(GasType.DIESEL, 3, 2);
+			fail("not enough gas");
+		} catch (NotEnoughGasException e) {
+			//expected
+		}
+		//the attendant was freed every time
+		assertEquals("4 cost", 4d, station.buyGas(GasType.DIESEL, 2, 2), 0.00001);
+		assertEquals("2 sales", 2, station.getNumberOfSales());
+		assertEquals("4 journal failures", 4, station.getNumberOfJournalFailures());
+	}
+	
+}
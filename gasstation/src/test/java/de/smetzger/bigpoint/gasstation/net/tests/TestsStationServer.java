@@ -0,0 +1,171 @@
+package de.smetzger.bigpoint.gasstation.net.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.StevesSimpleGasStation;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseRequest;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+import de.smetzger.bigpoint.gasstation.net.StationClient;
+import de.smetzger.bigpoint.gasstation.net.StationServer;
+
+
+public class TestsStationServer {
+
+	@Test
+	public void testPurchases() throws IOException, NotEnoughGasException, GasTooExpensiveException{
+		StevesSimpleGasStation station=new StevesSimpleGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.setPrice(GasType.DIESEL, 2);
+
+		try(StationServer server=new StationServer(station, 0); StationClient client=new StationClient(server.getPort())){
+			assertEquals("sold", 2d, client.buyGas(GasType.DIESEL, 1, 2), 0.00001);
+			try {
+				client.buyGas(GasType.DIESEL, 1, 1);
+				fail("too expensive");
+			} catch (GasTooExpensiveException e) {
+				//expected
+			}
+			try {
+				client.buyGas(GasType.DIESEL, 20, 2);
+				fail("not enough gas");
+			} catch (NotEnoughGasException e) {
+				//expected
+			}
+			assertEquals("3 requests", 3, server.getNumberOfRequests());
+			assertEquals("one connection", 1, server.getNumberOfConnections());
+		}
+		assertEquals("sold at the station", 1, station.getNumberOfSales());
+	}
+
+	@Test
+	public void testPipelining() throws IOException, InterruptedException, ExecutionException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.SUPER, 100));
+		station.addGasPump(new GasPump(GasType.SUPER, 100));
+		station.setPrice(GasType.SUPER, 1);
+
+		//mostly quick rejections, every 100th request a short sale, so responses finish out of order
+		int n=5000;
+		try(StationServer server=new StationServer(station, 0); StationClient client=new StationClient(server.getPort())){
+			List<CompletableFuture<PurchaseResult>> results=new ArrayList<CompletableFuture<PurchaseResult>>();
+			for(int i=0;i<n;i++)
+				results.add(client.send(new PurchaseRequest(i, GasType.SUPER, 0.01, (i%100==0)?1:0.5)));
+			client.flush();
+
+			long previous=-1;
+			for(int i=0;i<n;i++){
+				PurchaseResult r=results.get(i).get();
+				assertTrue("in order of the requests", r.getRequest().getId()>previous);
+				previous=r.getRequest().getId();
+				assertEquals("outcome of #"+i, (i%100==0)?Outcome.SOLD:Outcome.TOO_EXPENSIVE, r.getOutcome());
+			}
+			assertEquals("all answered", 0, client.getNumberOfPendingRequests());
+			assertEquals("all received", n, server.getNumberOfRequests());
+		}
+		assertEquals("sales", n/100, station.getNumberOfSales());
+		assertEquals("rejections", n-n/100, station.getNumberOfCancellationsTooExpensive());
+	}
+
+	@Test
+	public void testServerClosed() throws IOException, NotEnoughGasException, GasTooExpensiveException{
+		StevesSimpleGasStation station=new StevesSimpleGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.setPrice(GasType.DIESEL, 2);
+
+		StationServer server=new StationServer(station, 0);
+		try(StationClient client=new StationClient(server.getPort())){
+			client.buyGas(GasType.DIESEL, 1, 2);
+			server.close();
+			try {
+				client.buyGas(GasType.DIESEL, 1, 2);
+				fail("connection lost");
+			} catch (IOException e) {
+				//expected
+			}
+		}
+	}
+
+	@Test
+	public void testReorganizationOnWorkers() throws IOException, InterruptedException, ExecutionException, 
+			NotEnoughGasException, GasTooExpensiveException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 30));
+		station.addGasPump(new GasPump(GasType.SUPER, 10));
+		station.setPrice(GasType.DIESEL, 1);
+		station.setPrice(GasType.SUPER, 1);
+		station.setWorkStealing(false);
+		station.setReorganizationWindow(200);
+
+		ExecutorService workers=Executors.newFixedThreadPool(4);
+		try(StationServer server=new StationServer(station, 0, workers);
+				StationClient first=new StationClient(server.getPort()); StationClient second=new StationClient(server.getPort())){
+			//6l and 9l and 9l (in any order, as the workers queue them), one in service, the others queued
+			List<CompletableFuture<PurchaseResult>> results=new ArrayList<CompletableFuture<PurchaseResult>>();
+			double[] liters={6, 9, 9};
+			for(int i=0;i<liters.length;i++)
+				results.add(first.send(new PurchaseRequest(i, GasType.DIESEL, liters[i], 1)));
+			first.flush();
+			Thread.sleep(100);
+			//the 12l misfit waits for the window to reorganize (while the first customer is still pumping)
+			results.add(first.send(new PurchaseRequest(liters.length, GasType.DIESEL, 12, 1)));
+			first.flush();
+
+			//meanwhile the other connection is served
+			long start=System.nanoTime();
+			assertEquals("sold", 0.1, second.buyGas(GasType.SUPER, 0.1, 1), 0.00001);
+			assertTrue("not held up by the window", System.nanoTime()-start<500000000L);
+			for(CompletableFuture<PurchaseResult> r:results)
+				r.get();
+		} finally {
+			workers.shutdown();
+		}
+		assertEquals("1 reorganization", 1, station.getNumberOfReorganizations());
+	}
+
+	@Test
+	public void testMalformedRequests() throws IOException, InterruptedException, ExecutionException, 
+			NotEnoughGasException, GasTooExpensiveException{
+		StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.setPrice(GasType.DIESEL, 1);
+
+		try(StationServer server=new StationServer(station, 0);
+				StationClient first=new StationClient(server.getPort()); StationClient second=new StationClient(server.getPort())){
+			List<CompletableFuture<PurchaseResult>> results=new ArrayList<CompletableFuture<PurchaseResult>>();
+			results.add(first.send(new PurchaseRequest(0, GasType.DIESEL, -5, 1)));
+			results.add(first.send(new PurchaseRequest(1, GasType.DIESEL, Double.NaN, 1)));
+			results.add(first.send(new PurchaseRequest(2, GasType.DIESEL, Double.POSITIVE_INFINITY, 1)));
+			results.add(first.send(new PurchaseRequest(3, GasType.DIESEL, 1, -1)));
+			results.add(first.send(new PurchaseRequest(4, GasType.DIESEL, 1, Double.NaN)));
+			first.flush();
+			for(CompletableFuture<PurchaseResult> r:results)
+				assertEquals("rejected "+r.get().getRequest(), Outcome.FAILED, r.get().getOutcome());
+
+			//the server still answers both connections
+			assertEquals("sold to the other client", 1d, second.buyGas(GasType.DIESEL, 1, 1), 0.00001);
+			assertEquals("sold to the same client", 1d, first.buyGas(GasType.DIESEL, 1, 1), 0.00001);
+			assertEquals("both connected", 2, server.getNumberOfConnections());
+		}
+		assertEquals("only the valid sales", 2, station.getNumberOfSales());
+	}
+
+}
@@ -0,0 +1,162 @@
+package de.smetzger.bigpoint.gasstation.scaling;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/** measures throughput and latency of a station for a given number of caller threads and pumps.
+ *
+ *  every caller buys small amounts of gas in a loop (closed system), pumps have more gas than can be sold during a run.
+ *  as pumping takes a fixed time per liter, the best possible throughput is known:
+ *  per gas type, min(callers, pumps) purchases can be served in parallel.
+ *  the efficiency of a run is the measured throughput relative to this ideal,
+ *  i.e. 1 means the station adds no overhead and never lets a caller wait for a pump that is free.
+ */
+public class ScalingBenchmark {
+
+	/** the gas types callers and pumps use */
+	public enum Mix {
+		/** everything DIESEL */
+		SINGLE_TYPE,
+		/** callers and pumps spread round robin over all gas types */
+		ALL_TYPES;
+
+		GasType typeOf(int index){
+			return (this==SINGLE_TYPE)?GasType.DIESEL:GasType.values()[index%GasType.values().length];
+		}
+	}
+
+	/** the figures of one run */
+	public static class Result {
+		public final int threads;
+		public final int pumps;
+		public final Mix mix;
+		public final long purchases;
+		public final double throughput;		//purchases per second
+		public final double p99Millis;		//99th percentile of the purchase latency
+		public final double efficiency;		//throughput relative to the ideal
+
+		Result(int threads, int pumps, Mix mix, long purchases, double throughput, double p99Millis, double efficiency){
+			this.threads=threads;
+			this.pumps=pumps;
+			this.mix=mix;
+			this.purchases=purchases;
+			this.throughput=throughput;
+			this.p99Millis=p99Millis;
+			this.efficiency=efficiency;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("[threads: %5d, pumps: %5d, mix: %-11s purchases: %7d, throughput: %9.1f/s, p99: %8.2fms, efficiency: %.3f]",
+					threads, pumps, mix+",", purchases, throughput, p99Millis, efficiency);
+		}
+	}
+
+	protected final double liters;
+	protected final long warmupMillis;
+	protected final long measureMillis;
+	protected final double serviceSeconds;
+
+	/** constructor
+	 *  @param liters	amount of every purchase (small, so pumping does not dominate the run time) */
+	public ScalingBenchmark(double liters, long warmupMillis, long measureMillis){
+		this.liters=liters;
+		this.warmupMillis=warmupMillis;
+		this.measureMillis=measureMillis;
+		this.serviceSeconds=calibrate(liters);
+	}
+
+	/** @return the time a pump needs for the given amount, in seconds */
+	protected static double calibrate(double liters){
+		GasPump pump=new GasPump(GasType.DIESEL, 100*liters);
+		pump.pumpGas(liters); //warm up
+		int rounds=20;
+		long start=System.nanoTime();
+		for(int i=0;i<rounds;i++)
+			pump.pumpGas(liters);
+		return (System.nanoTime()-start)/1e9/rounds;
+	}
+
+	/** runs callers against the given (new, empty) station, which gets the pumps added first */
+	public Result run(final GasStation station, int threads, int pumps, final Mix mix) throws InterruptedException{
+		int[] pumpsPerType=new int[GasType.values().length];
+		int[] threadsPerType=new int[GasType.values().length];
+		for(int i=0;i<pumps;i++){
+			GasType type=mix.typeOf(i);
+			station.addGasPump(new GasPump(type, 1e9));
+			pumpsPerType[type.ordinal()]++;
+		}
+		for(GasType type:GasType.values())
+			station.setPrice(type, 1);
+
+		final long measureStart=System.nanoTime()+warmupMillis*1000000;
+		final long measureEnd=measureStart+measureMillis*1000000;
+		final CountDownLatch ready=new CountDownLatch(threads);
+		final long[][] latencies=new long[threads][];
+		final int[] counts=new int[threads];
+		Thread[] callers=new Thread[threads];
+		for(int i=0;i<threads;i++){
+			final int index=i;
+			final GasType type=mix.typeOf(i);
+			threadsPerType[type.ordinal()]++;
+			callers[i]=new Thread(new Runnable(){
+				public void run() {
+					long[] own=new long[1024];
+					int count=0;
+					ready.countDown();
+					long t0;
+					while((t0=System.nanoTime())<measureEnd){
+						try {
+							station.buyGas(type, liters, 2);
+						} catch (NotEnoughGasException | GasTooExpensiveException e) {
+							continue; //not expected, but not measured either
+						}
+						long t1=System.nanoTime();
+						if(t0>=measureStart && t1<=measureEnd){
+							if(count==own.length)
+								own=Arrays.copyOf(own, count*2);
+							own[count++]=t1-t0;
+						}
+					}
+					latencies[index]=own;
+					counts[index]=count;
+				}
+			}, "caller-"+i);
+			callers[i].start();
+		}
+		ready.await();
+		for(Thread t:callers)
+			t.join();
+		if(station instanceof AutoCloseable)
+			try {
+				((AutoCloseable)station).close();
+			} catch (Exception e) {
+				//ignore, the station is not used anymore
+			}
+
+		int total=0;
+		for(int c:counts)
+			total+=c;
+		long[] all=new long[total];
+		int pos=0;
+		for(int i=0;i<threads;i++){
+			System.arraycopy(latencies[i], 0, all, pos, counts[i]);
+			pos+=counts[i];
+		}
+		Arrays.sort(all);
+		double p99=(total==0)?0:all[Math.min(total-1, (int)Math.ceil(total*0.99)-1)]/1e6;
+
+		double throughput=total/(measureMillis/1000d);
+		double ideal=0;
+		for(int t=0;t<pumpsPerType.length;t++)
+			ideal+=Math.min(pumpsPerType[t], threadsPerType[t])/serviceSeconds;
+		return new Result(threads, pumps, mix, total, throughput, p99, (ideal==0)?0:throughput/ideal);
+	}
+
+}
@@ -0,0 +1,206 @@
+package de.smetzger.bigpoint.gasstation.scaling;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import net.bigpoint.assessment.gasstation.GasStation;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.StevesSimpleGasStation;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+import de.smetzger.bigpoint.gasstation.scaling.ScalingBenchmark.Mix;
+import de.smetzger.bigpoint.gasstation.scaling.ScalingBenchmark.Result;
+import de.smetzger.bigpoint.gasstation.sharded.ShardedGasStation;
+
+/** scaling regression suite: sweeps the number of caller threads (with a fixed number of pumps)
+ *  and the number of pumps (with a fixed number of callers) for both stations and all gas type mixes,
+ *  and fails if the efficiency of any point dropped below the stored baseline (minus a tolerance).
+ *  independent of the baseline, every curve is also checked within the run: the efficiency of a point
+ *  must not drop below the efficiency of the first point of its curve by more than a (larger) tolerance,
+ *  so a station that stops scaling fails on any machine, even without a recorded baseline.
+ *  a third curve sweeps the number of shards of the sharded station (fixed callers and pumps),
+ *  it fails as well if more shards sell less than one shard in the same run.
+ *
+ *  not part of the normal build, run it with <code>mvn test -Pscaling</code>.
+ *  system properties:
+ *  <ul>
+ *  <li>scaling.threads / scaling.pumps: comma separated points of the two curves (default 1..1024 and 4..4096)</li>
+ *  <li>scaling.fixedPumps / scaling.fixedThreads: the other dimension of each curve (default 64)</li>
+ *  <li>scaling.stations: simple,greedy (default both); scaling.mixes: SINGLE_TYPE,ALL_TYPES (default both)</li>
+ *  <li>scaling.shards: comma separated points of the shard curve (default 1,2,4,8)</li>
+ *  <li>scaling.measureMillis / scaling.warmupMillis: length of each run (default 1000 / 300)</li>
+ *  <li>scaling.tolerance: accepted relative drop of the efficiency against the baseline (default 0.25)</li>
+ *  <li>scaling.curveTolerance: accepted relative drop of the efficiency along a curve (default 0.5)</li>
+ *  <li>scaling.record=true: writes the measured figures as new baseline (to scaling.baselineFile,
+ *      default src/test/resources/scaling-baseline.properties of the project) instead of comparing</li>
+ *  </ul>
+ *  the figures of every run are written to target/scaling-results.properties of the project
+ *  (the directory in the basedir property Maven sets, else the working directory).
+ *  points without a baseline value are only checked along their curve.
+ *  a baseline only makes sense for the machine it was recorded on, so record it on the machine the suite runs on.
+ */
+public class TestsScaling {
+
+	static final String BASELINE="/scaling-baseline.properties";
+
+	protected final Properties baseline=new Properties();
+	protected final Properties results=new Properties();
+	protected final List<String> regressions=new ArrayList<String>();
+	protected final List<String> unchecked=new ArrayList<String>(); //points without a baseline value
+
+	protected final boolean record=Boolean.getBoolean("scaling.record");
+	protected final double tolerance=Double.parseDouble(System.getProperty("scaling.tolerance", "0.25"));
+	protected final double curveTolerance=Double.parseDouble(System.getProperty("scaling.curveTolerance", "0.5"));
+	protected final Path basedir=Paths.get(System.getProperty("basedir", "."));
+	protected final ScalingBenchmark benchmark=new ScalingBenchmark(0.05,
+			Long.getLong("scaling.warmupMillis", 300), Long.getLong("scaling.measureMillis", 1000));
+
+	public TestsScaling() throws IOException{
+		try(InputStream in=TestsScaling.class.getResourceAsStream(BASELINE)){
+			if(in!=null)
+				baseline.load(in);
+		}
+	}
+
+	protected static int[] points(String property, String defaults){
+		String[] values=System.getProperty(property, defaults).split(",");
+		int[] points=new int[values.length];
+		for(int i=0;i<values.length;i++)
+			points[i]=Integer.parseInt(values[i].trim());
+		return points;
+	}
+
+	protected static List<String> names(String property, String defaults){
+		List<String> names=new ArrayList<String>();
+		for(String name:System.getProperty(property, defaults).split(","))
+			names.add(name.trim());
+		return names;
+	}
+
+	protected static GasStation createStation(String name){
+		if(name.equals("simple"))
+			return new StevesSimpleGasStation();
+		if(name.equals("greedy"))
+			return new StevesGreedyGasStation();
+		if(name.startsWith("sharded")) //followed by the number of shards
+			return new ShardedGasStation(Integer.parseInt(name.substring("sharded".length())));
+		throw new IllegalArgumentException("unknown station: "+name);
+	}
+
+	@Test
+	public void testThreadScaling() throws Exception{
+		int pumps=Integer.getInteger("scaling.fixedPumps", 64);
+		for(String station:names("scaling.stations", "simple,greedy"))
+			for(String mix:names("scaling.mixes", "SINGLE_TYPE,ALL_TYPES")){
+				Result first=null;
+				for(int threads:points("scaling.threads", "1,4,16,64,256,1024")){
+					String key=station+".threads."+mix+".p"+pumps+".t"+threads;
+					Result r=measure(key, station, threads, pumps, Mix.valueOf(mix));
+					first=checkCurve(key, first, r);
+				}
+			}
+		finish();
+	}
+
+	@Test
+	public void testPumpScaling() throws Exception{
+		int threads=Integer.getInteger("scaling.fixedThreads", 64);
+		for(String station:names("scaling.stations", "simple,greedy"))
+			for(String mix:names("scaling.mixes", "SINGLE_TYPE,ALL_TYPES")){
+				Result first=null;
+				for(int pumps:points("scaling.pumps", "4,16,64,256,1024,4096")){
+					String key=station+".pumps."+mix+".t"+threads+".p"+pumps;
+					Result r=measure(key, station, threads, pumps, Mix.valueOf(mix));
+					first=checkCurve(key, first, r);
+				}
+			}
+		finish();
+	}
+
+	@Test
+	public void testShardScaling() throws Exception{
+		int threads=Integer.getInteger("scaling.fixedThreads", 64);
+		int pumps=Integer.getInteger("scaling.fixedPumps", 64);
+		//shards only pay off with a processor for each of them, with fewer they just split the pumps into smaller pools
+		int processors=Runtime.getRuntime().availableProcessors();
+		for(String mix:names("scaling.mixes", "SINGLE_TYPE,ALL_TYPES")){
+			Result single=null;
+			for(int shards:points("scaling.shards", "1,2,4,8")){
+				Result r=measure("sharded.shards."+mix+".t"+threads+".p"+pumps+".s"+shards, "sharded"+shards, threads, pumps, Mix.valueOf(mix));
+				if(shards==1)
+					single=r;
+				else if(single!=null && shards<=processors && r.throughput<single.throughput*(1-tolerance))
+					regressions.add("sharded."+mix+": "+shards+" shards "+String.format("%.1f/s", r.throughput)
+							+" < 1 shard "+String.format("%.1f/s", single.throughput));
+			}
+		}
+		finish();
+	}
+
+	/** runs one point and compares it to the baseline */
+	protected Result measure(String key, String station, int threads, int pumps, Mix mix) throws InterruptedException{
+		Result r=benchmark.run(createStation(station), threads, pumps, mix);
+		System.out.println(station+" "+r);
+		results.setProperty(key+".efficiency", String.format("%.4f", r.efficiency));
+		results.setProperty(key+".throughput", String.format("%.1f", r.throughput));
+		results.setProperty(key+".p99Millis", String.format("%.2f", r.p99Millis));
+
+		String expected=baseline.getProperty(key+".efficiency");
+		if(!record && expected==null)
+			unchecked.add(key);
+		if(!record && expected!=null && r.efficiency<Double.parseDouble(expected)*(1-tolerance))
+			regressions.add(key+": efficiency "+String.format("%.3f", r.efficiency)+" < baseline "+expected);
+		return r;
+	}
+
+	/** compares the efficiency of a point to the first point of its curve (measured in the same run)
+	 *  @return the first point of the curve */
+	protected Result checkCurve(String key, Result first, Result r){
+		if(first==null)
+			return r;
+		if(r.efficiency<first.efficiency*(1-curveTolerance))
+			regressions.add(key+": efficiency "+String.format("%.3f", r.efficiency)+" < first point of the curve "
+					+String.format("%.3f", first.efficiency));
+		return first;
+	}
+
+	/** writes the results (and the new baseline when recording), then fails on regressions */
+	protected void finish() throws IOException{
+		merge(basedir.resolve(Paths.get("target", "scaling-results.properties")), results, "scaling suite results");
+		if(record)
+			merge(System.getProperty("scaling.baselineFile")!=null?Paths.get(System.getProperty("scaling.baselineFile"))
+					:basedir.resolve(Paths.get("src", "test", "resources", "scaling-baseline.properties")),
+					results, "scaling suite baseline, recorded with -Dscaling.record=true on "+System.getProperty("os.name")
+					+", "+Runtime.getRuntime().availableProcessors()+" processors");
+		if(!unchecked.isEmpty())
+			System.err.println("WARNING: no baseline for "+unchecked.size()+" points (e.g. "+unchecked.get(0)+"), "
+					+"they are only checked along their curve; record one with -Dscaling.record=true");
+		assertTrue("scaling regressions: "+regressions, regressions.isEmpty());
+	}
+
+	/** adds the figures to the ones already in the file */
+	protected static void merge(Path file, Properties figures, String comment) throws IOException{
+		Properties all=new Properties();
+		if(Files.exists(file))
+			try(InputStream in=Files.newInputStream(file)){
+				all.load(in);
+			}
+		all.putAll(figures);
+		if(file.getParent()!=null)
+			Files.createDirectories(file.getParent());
+		try(OutputStream out=Files.newOutputStream(file)){
+			all.store(out, comment);
+		}
+	}
+
+}
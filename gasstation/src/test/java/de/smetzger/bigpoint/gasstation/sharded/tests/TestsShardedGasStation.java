@@ -0,0 +1,128 @@
+package de.smetzger.bigpoint.gasstation.sharded.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.StationStatistics;
+import de.smetzger.bigpoint.gasstation.sharded.ShardedGasStation;
+import de.smetzger.bigpoint.gasstation.tests.Client;
+
+
+public class TestsShardedGasStation {
+
+	protected GasStation generateStation(){		
+		GasStation station=new ShardedGasStation(2);
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.addGasPump(new GasPump(GasType.SUPER, 15));
+		
+		station.setPrice(GasType.DIESEL, 2);
+		station.setPrice(GasType.SUPER, 2);
+		
+		return station;
+	}
+	
+	protected void buy(GasStation station, GasType type, double liters, double maxPrice){
+		try {
+			station.buyGas(type, liters, maxPrice);
+		} catch (NotEnoughGasException | GasTooExpensiveException e) {
+			//Ignore
+		}
+	}
+	
+	@Test
+	public void testRoutingAndFallback(){
+		GasStation station=generateStation();
+		
+		buy(station, GasType.DIESEL, 8, 2);  //one diesel pump in each shard, 
+		buy(station, GasType.DIESEL, 8, 2);  //so both purchases succeed
+		buy(station, GasType.DIESEL, 3, 2);  //rejected by every shard, but counted once
+		buy(station, GasType.DIESEL, 2, 2);
+		buy(station, GasType.DIESEL, 2, 2);  //served by the other shard
+		buy(station, GasType.SUPER, 16, 2);
+		buy(station, GasType.SUPER, 15, 1);
+		buy(station, GasType.SUPER, 15, 2);  //only one shard has super
+		
+		assertEquals("5 sold", 5, station.getNumberOfSales());
+		assertEquals("2 outagas", 2, station.getNumberOfCancellationsNoGas());
+		assertEquals("1 too expensive", 1, station.getNumberOfCancellationsTooExpensive());
+		assertEquals("70 revenue", 70d, station.getRevenue(), 0.001);
+	}
+	
+	@Test
+	public void testParallelPurchases() throws InterruptedException{
+		GasStation station=generateStation();
+		Thread[] threads=new Thread[4];
+		for(int i=0;i<threads.length;i++){
+			threads[i]=new Thread(new Client(station,5,GasType.DIESEL,5));
+			threads[i].start();
+		}
+		for(Thread t:threads)
+			t.join();
+		
+		assertEquals("4 sold", 4, station.getNumberOfSales());
+		assertEquals("0 outagas", 0, station.getNumberOfCancellationsNoGas());
+		assertEquals("40 revenue", 40d, station.getRevenue(), 0.001);
+	}
+	
+	@Test
+	public void testPricesForAllShards(){
+		ShardedGasStation station=(ShardedGasStation)generateStation();
+		Map<GasType, Double> prices=new EnumMap<GasType, Double>(GasType.class);
+		prices.put(GasType.DIESEL, 3d);
+		prices.put(GasType.SUPER, 4d);
+		station.setPrices(prices);
+		assertEquals("one version per update", 3, station.getPriceSnapshot().getVersion());
+		
+		buy(station, GasType.DIESEL, 8, 3);  //one diesel pump in each shard,
+		buy(station, GasType.DIESEL, 8, 3);  //both sell at the new price
+		buy(station, GasType.SUPER, 5, 3);
+		
+		StationStatistics.Snapshot figures=station.getStatistics();
+		assertEquals("2 sold", 2, figures.getNumberOfSales());
+		assertEquals("16 liters", 16d, figures.getLiters(), 0.001);
+		assertEquals("48 revenue", 48d, figures.getRevenue(), 0.001);
+		assertEquals("1 too expensive", 1, figures.getNumberOfCancellationsTooExpensive());
+	}
+	
+	@Test
+	public void testDrainAndClose() throws InterruptedException{
+		ShardedGasStation station=(ShardedGasStation)generateStation();
+		Thread[] threads=new Thread[2];
+		for(int i=0;i<threads.length;i++){
+			threads[i]=new Thread(new Client(station,10,GasType.DIESEL,5));
+			threads[i].start();
+		}
+		Thread.sleep(400); //both pumping (for a second), even if the first purchases start slowly
+		
+		//draining waits for the customers of both shards
+		station.drain();
+		assertEquals("2 sold", 2, station.getNumberOfSales());
+		try {
+			station.buyGas(GasType.DIESEL, 1, 5);
+			assertTrue("refused while drained", false);
+		} catch (IllegalStateException e) {
+			//expected
+		} catch (NotEnoughGasException | GasTooExpensiveException e) {
+			assertTrue("refused while drained", false);
+		}
+		station.start();
+		buy(station, GasType.SUPER, 1, 5);
+		station.close();
+		assertEquals("3 sold", 3, station.getNumberOfSales());
+		for(Thread t:threads)
+			t.join();
+	}
+	
+}
@@ -10,6 +10,7 @@ import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
 
 import org.junit.Test;
 
+import de.smetzger.bigpoint.gasstation.PumpStateTable;
 import de.smetzger.bigpoint.gasstation.StevesSimpleGasStation;
 import de.smetzger.bigpoint.gasstation.tests.Client.DelayedCustomer;
 
@@ -280,4 +281,52 @@ public class TestsGasStationFunctionality {
 	}
 	
 	
+	@Test
+	public void testPumpStateTable() throws NotEnoughGasException, GasTooExpensiveException{
+		StevesSimpleGasStation station=new StevesSimpleGasStation();
+		for(int i=0;i<1000;i++)
+			station.addGasPump(new GasPump((i%2==0)?GasType.DIESEL:GasType.SUPER, (i==999)?5:1));
+		station.setPrice(GasType.SUPER, 2);
+		
+		PumpStateTable table=station.getPumpStateTable();
+		assertEquals("1000 rows", 1000, table.size());
+		assertTrue("about 22 bytes per pump", table.getMemoryFootprint()<=1024*22+100);
+		assertEquals("first super pump with enough gas", 999, table.findIdle(GasType.SUPER, 2));
+		assertEquals("no diesel pump with enough gas", PumpStateTable.NONE, table.findIdle(GasType.DIESEL, 2));
+		
+		table.reserve(999, 2);
+		assertEquals("only match busy", PumpStateTable.ALL_BUSY, table.findIdle(GasType.SUPER, 2));
+		table.release(999, 5);
+		
+		assertEquals("sold at the only matching pump", 4d, station.buyGas(GasType.SUPER, 2, 2), 0.00001);
+		assertEquals("row updated", 3d, table.getRemainingAmount(999), 0.00001);
+		assertTrue("idle again", !table.isBusy(999));
+	}
+	
+	@Test
+	public void testPumpStateTableGrowingWhileUpdated() throws InterruptedException{
+		final PumpStateTable table=new PumpStateTable(1);
+		table.add(0, GasType.DIESEL, 0);
+		final int updates=200000;
+		
+		//the owner of pump 0 keeps writing its row while further pumps are added (and the arrays grow)
+		Thread owner=new Thread(new Runnable(){
+			public void run() {
+				for(int i=1;i<=updates;i++)
+					table.update(0, i, i-1, true, i%7);
+			}
+		});
+		owner.start();
+		for(int i=1;i<1000;i++)
+			table.add(i, GasType.SUPER, i);
+		owner.join();
+		
+		assertEquals("1000 rows", 1000, table.size());
+		assertEquals("last update kept", updates, table.getRemainingAmount(0), 0.00001);
+		assertEquals("last projection kept", updates-1, table.getProjectedAmount(0), 0.00001);
+		assertEquals("last queue length kept", updates%7, table.getQueueLength(0));
+		assertEquals("added rows copied", 998d, table.getRemainingAmount(998), 0.00001);
+		assertEquals("busy diesel pump with most queued", 0, table.findMostQueued(GasType.DIESEL, 1));
+	}
+	
 }
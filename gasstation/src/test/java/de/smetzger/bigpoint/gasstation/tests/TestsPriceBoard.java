@@ -0,0 +1,140 @@
+package de.smetzger.bigpoint.gasstation.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.PriceBoard;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+import de.smetzger.bigpoint.gasstation.journal.JournalReader;
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal;
+import de.smetzger.bigpoint.gasstation.journal.TransactionJournal.Kind;
+
+
+public class TestsPriceBoard {
+
+	@Test
+	public void testConsistentSnapshots() throws InterruptedException{
+		final PriceBoard board=new PriceBoard();
+		final int updatesPerWriter=50000;
+		final AtomicInteger torn=new AtomicInteger();
+		final AtomicInteger versionErrors=new AtomicInteger();
+		final AtomicBoolean done=new AtomicBoolean();
+
+		Thread[] writers=new Thread[2];
+		for(int i=0;i<writers.length;i++){
+			final int writer=i+1;
+			writers[i]=new Thread(new Runnable(){
+				public void run() {
+					Map<GasType, Double> prices=new EnumMap<GasType, Double>(GasType.class);
+					for(int j=0;j<updatesPerWriter;j++){
+						//all types get the same price, unique per writer and update
+						for(GasType type:GasType.values())
+							prices.put(type, writer*1000000d+j);
+						board.setPrices(prices);
+					}
+				}
+			});
+		}
+		Thread reader=new Thread(new Runnable(){
+			public void run() {
+				PriceBoard.Snapshot last=board.getSnapshot();
+				while(!done.get()){
+					PriceBoard.Snapshot s=board.getSnapshot();
+					//prices of one update are only seen together
+					double first=s.getPrice(GasType.values()[0]);
+					for(GasType type:GasType.values())
+						if(s.getPrice(type)!=first)
+							torn.incrementAndGet();
+					//every newly published snapshot has a higher version
+					if(s!=last && s.getVersion()<=last.getVersion())
+						versionErrors.incrementAndGet();
+					last=s;
+				}
+			}
+		});
+		reader.start();
+		for(Thread t:writers)
+			t.start();
+		for(Thread t:writers)
+			t.join();
+		done.set(true);
+		reader.join();
+
+		assertEquals("one version per update", 2*updatesPerWriter, board.getSnapshot().getVersion());
+		assertEquals("no mixed snapshots", 0, torn.get());
+		assertEquals("strictly increasing versions", 0, versionErrors.get());
+	}
+
+	@Test
+	public void testSalesRecordPriceVersion() throws IOException, InterruptedException{
+		File file=File.createTempFile("journal", ".bin");
+		file.delete();
+		file.deleteOnExit();
+
+		TransactionJournal journal=new TransactionJournal(file.toPath());
+		final StevesGreedyGasStation station=new StevesGreedyGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 1000));
+		station.addGasPump(new GasPump(GasType.DIESEL, 1000));
+		station.setJournal(journal);
+		final AtomicBoolean done=new AtomicBoolean();
+
+		//the only writer sets the price to the version it publishes
+		Thread changer=new Thread(new Runnable(){
+			public void run() {
+				while(!done.get())
+					station.setPrice(GasType.DIESEL, station.getPriceSnapshot().getVersion()+1);
+			}
+		});
+		Thread[] buyers=new Thread[4];
+		for(int i=0;i<buyers.length;i++){
+			buyers[i]=new Thread(new Runnable(){
+				public void run() {
+					for(int j=0;j<20;j++)
+						try {
+							station.buyGas(GasType.DIESEL, 0.05, Double.MAX_VALUE);
+						} catch (NotEnoughGasException | GasTooExpensiveException e) {
+							//Ignore
+						}
+				}
+			});
+		}
+		changer.start();
+		for(Thread t:buyers)
+			t.start();
+		for(Thread t:buyers)
+			t.join();
+		done.set(true);
+		changer.join();
+		journal.close();
+
+		int sales=0;
+		double revenue=0;
+		JournalReader reader=new JournalReader(file.toPath());
+		while(reader.next()){
+			assertEquals("sale", Kind.SALE, reader.getKind());
+			assertEquals("price of the recorded version", reader.getPriceVersion(), reader.getPrice(), 0.00001);
+			sales++;
+			revenue+=reader.getLiters()*reader.getPrice();
+		}
+		reader.close();
+
+		assertEquals("all sales", 80, sales);
+		assertEquals("revenue of the recorded prices", station.getRevenue(), revenue, 0.00001);
+		assertTrue("prices changed", station.getPriceSnapshot().getVersion()>1);
+	}
+
+}
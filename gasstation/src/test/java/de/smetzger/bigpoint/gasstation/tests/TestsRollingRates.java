@@ -0,0 +1,66 @@
+package de.smetzger.bigpoint.gasstation.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.RollingRates;
+import de.smetzger.bigpoint.gasstation.StevesSimpleGasStation;
+
+
+public class TestsRollingRates {
+
+	@Test
+	public void testWindows() throws InterruptedException{
+		RollingRates rates=new RollingRates(10, 50);
+		assertEquals("longest window", 490, rates.getMaxWindowMillis());
+		for(int i=0;i<100;i++){
+			rates.recordArrival(GasType.DIESEL);
+			rates.recordSale(GasType.DIESEL, 2);
+		}
+		rates.recordRejection(GasType.SUPER);
+		Thread.sleep(200);
+
+		//(every read divides by the time passed until then, so figures read one after the other differ slightly)
+		double sales=rates.getSalesRate(GasType.DIESEL, 400);
+		double liters=rates.getLitersRate(GasType.DIESEL, 400);
+		double arrivals=rates.getArrivalRate(GasType.DIESEL, 400);
+		assertTrue("about 100 sales in 200ms: "+sales, sales>300 && sales<600);
+		assertEquals("2 liters per sale", 2*sales, liters, 0.05*sales);
+		assertEquals("one arrival per sale", sales, arrivals, 0.05*sales);
+		assertEquals("no diesel rejections", 0, rates.getRejectionRate(GasType.DIESEL, 400), 0.00001);
+		assertTrue("super rejection", rates.getRejectionRate(GasType.SUPER, 400)>0);
+		assertEquals("nothing within the last 50ms", 0, rates.getSalesRate(GasType.DIESEL, 50), 0.00001);
+
+		//once the window has passed, the events do not count anymore
+		Thread.sleep(600);
+		assertEquals("expired", 0, rates.getSalesRate(GasType.DIESEL, 400), 0.00001);
+		rates.recordSale(GasType.DIESEL, 1);
+		assertTrue("new sale counted", rates.getSalesRate(GasType.DIESEL, 400)>0);
+	}
+
+	@Test
+	public void testStationRates() throws NotEnoughGasException, GasTooExpensiveException{
+		StevesSimpleGasStation station=new StevesSimpleGasStation();
+		station.addGasPump(new GasPump(GasType.DIESEL, 10));
+		station.setPrice(GasType.DIESEL, 2);
+		station.buyGas(GasType.DIESEL, 1, 2);
+		try {
+			station.buyGas(GasType.DIESEL, 1, 1);
+		} catch (GasTooExpensiveException e) {
+			//expected
+		}
+
+		RollingRates rates=station.getRollingRates();
+		double arrivals=rates.getArrivalRate(GasType.DIESEL, 10000);
+		assertEquals("one of two arrivals sold", arrivals/2, rates.getSalesRate(GasType.DIESEL, 10000), 0.05*arrivals);
+		assertEquals("one of two arrivals rejected", arrivals/2, rates.getRejectionRate(GasType.DIESEL, 10000), 0.05*arrivals);
+	}
+
+}
@@ -0,0 +1,61 @@
+package de.smetzger.bigpoint.gasstation.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.StationStatistics;
+
+
+public class TestsStationStatistics {
+
+	@Test
+	public void testConsistentSnapshots() throws InterruptedException{
+		final StationStatistics statistics=new StationStatistics();
+		final int salesPerWriter=100000;
+		final AtomicInteger torn=new AtomicInteger();
+		final AtomicBoolean done=new AtomicBoolean();
+
+		Thread[] writers=new Thread[2];
+		for(int i=0;i<writers.length;i++){
+			writers[i]=new Thread(new Runnable(){
+				public void run() {
+					for(int j=0;j<salesPerWriter;j++){
+						statistics.recordSale(2, 3);
+						if(j%10==0)
+							statistics.recordCancellationNoGas();
+					}
+				}
+			});
+		}
+		Thread reader=new Thread(new Runnable(){
+			public void run() {
+				while(!done.get()){
+					StationStatistics.Snapshot s=statistics.snapshot();
+					//every sale adds 2 liters and a revenue of 3, together
+					if(s.getLiters()!=2d*s.getNumberOfSales() || s.getRevenue()!=3d*s.getNumberOfSales())
+						torn.incrementAndGet();
+				}
+			}
+		});
+		reader.start();
+		for(Thread t:writers)
+			t.start();
+		for(Thread t:writers)
+			t.join();
+		done.set(true);
+		reader.join();
+
+		StationStatistics.Snapshot s=statistics.snapshot();
+		assertEquals("all sales", 2*salesPerWriter, s.getNumberOfSales());
+		assertEquals("all revenue", 6d*salesPerWriter, s.getRevenue(), 0.00001);
+		assertEquals("all cancellations", 2*salesPerWriter/10, s.getNumberOfCancellationsNoGas());
+		assertEquals("no torn snapshots", 0, torn.get());
+		assertTrue("updates counted", statistics.getNumberOfUpdates()>=2*salesPerWriter);
+	}
+
+}
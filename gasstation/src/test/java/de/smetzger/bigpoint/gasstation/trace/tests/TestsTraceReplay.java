@@ -0,0 +1,103 @@
+package de.smetzger.bigpoint.gasstation.trace.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+import org.junit.Test;
+
+import de.smetzger.bigpoint.gasstation.StevesSimpleGasStation;
+import de.smetzger.bigpoint.gasstation.flow.PurchaseResult.Outcome;
+import de.smetzger.bigpoint.gasstation.greedy.StevesGreedyGasStation;
+import de.smetzger.bigpoint.gasstation.trace.TraceRecord;
+import de.smetzger.bigpoint.gasstation.trace.TraceRecord.Kind;
+import de.smetzger.bigpoint.gasstation.trace.TraceRecordingGasStation;
+import de.smetzger.bigpoint.gasstation.trace.TraceReplayer;
+import de.smetzger.bigpoint.gasstation.tests.Client;
+
+
+public class TestsTraceReplay {
+
+	@Test
+	public void testRecordAndReplay() throws IOException, InterruptedException{
+		File file=File.createTempFile("trace", ".bin");
+		file.deleteOnExit();
+
+		//the pump added before recording is part of the trace as well
+		StevesSimpleGasStation original=new StevesSimpleGasStation();
+		original.addGasPump(new GasPump(GasType.DIESEL, 10));
+		TraceRecordingGasStation station=new TraceRecordingGasStation(original, file.toPath(), 2);
+		station.setPrice(GasType.DIESEL, 2);
+		new Client(station, 1, GasType.DIESEL, 2).run();
+		new Client(station, 1, GasType.DIESEL, 1).run();
+		new Client(station, 20, GasType.DIESEL, 2).run();
+		station.close();
+		assertEquals("5 records", 5, station.getNumberOfRecords());
+
+		List<TraceRecord> records=TraceReplayer.read(file.toPath());
+		assertEquals("5 records read", 5, records.size());
+		assertEquals("pump first", Kind.PUMP, records.get(0).getKind());
+		assertEquals("pump amount", 10d, records.get(0).getLiters(), 0.00001);
+		assertEquals("price", 2d, records.get(1).getPrice(), 0.00001);
+		TraceRecord sale=records.get(2);
+		assertEquals("sold", Outcome.SOLD, sale.getOutcome());
+		assertEquals("cost", 2d, sale.getCost(), 0.00001);
+		assertTrue("pumping took time", sale.getLatencyNanos()>50000000);
+		assertEquals("too expensive", Outcome.TOO_EXPENSIVE, records.get(3).getOutcome());
+		assertEquals("not enough gas", Outcome.NOT_ENOUGH_GAS, records.get(4).getOutcome());
+
+		//the purchases are independent of each other, so even at maximum speed they end the same
+		TraceReplayer replayer=new TraceReplayer(file.toPath());
+		try(StevesGreedyGasStation replayed=new StevesGreedyGasStation()){
+			TraceReplayer.Report report=replayer.replay(replayed, TraceReplayer.MAX_SPEED);
+			assertEquals("3 purchases", 3, report.getNumberOfPurchases());
+			assertEquals("same outcomes", 0, report.getNumberOfDifferentOutcomes());
+			assertEquals("one sale", 1, report.getReplayedOutcomes(Outcome.SOLD));
+			assertEquals("same revenue", report.getOriginalRevenue(), report.getReplayedRevenue(), 0.00001);
+			assertEquals("sold at the replayed station", 1, replayed.getNumberOfSales());
+			assertTrue("report printed", report.toString().contains("0 purchases ended differently"));
+		}
+	}
+
+	@Test
+	public void testReplaySpeed() throws IOException, InterruptedException{
+		File file=File.createTempFile("trace", ".bin");
+		file.deleteOnExit();
+
+		TraceRecordingGasStation station=new TraceRecordingGasStation(new StevesSimpleGasStation(), file.toPath());
+		station.addGasPump(new GasPump(GasType.SUPER, 10));
+		station.setPrice(GasType.SUPER, 1);
+		Thread.sleep(400);
+		new Client(station, 1, GasType.SUPER, 0.5).run();
+		station.close();
+
+		TraceReplayer replayer=new TraceReplayer(file.toPath());
+		TraceReplayer.Report report=replayer.replay(new StevesSimpleGasStation(), 4);
+		assertEquals("same outcome", 0, report.getNumberOfDifferentOutcomes());
+		assertTrue("4 times faster: "+report.getReplayNanos(), report.getReplayNanos()>=95000000 && report.getReplayNanos()<300000000);
+	}
+
+	@Test
+	public void testQueueingShowsInLatency() throws InterruptedException{
+		//two 1l purchases at the same time, but only one replaying thread
+		List<TraceRecord> records=new ArrayList<TraceRecord>();
+		records.add(new TraceRecord(Kind.PUMP, 0, 0, GasType.DIESEL, 10, 0, null, 0));
+		records.add(new TraceRecord(Kind.PRICE, 0, 0, GasType.DIESEL, 0, 1, null, 0));
+		for(int i=0;i<2;i++)
+			records.add(new TraceRecord(Kind.PURCHASE, 0, 100000000, GasType.DIESEL, 1, 1, Outcome.SOLD, 1));
+
+		TraceReplayer.Report report=new TraceReplayer(records).replay(new StevesSimpleGasStation(), TraceReplayer.MAX_SPEED, 1);
+		assertEquals("2 sales", 2, report.getReplayedOutcomes(Outcome.SOLD));
+		//the second one waited for the first one to be done
+		long slowest=report.getReplayedLatencyNanos(100);
+		assertTrue("waiting for the thread counts: "+slowest, slowest>=180000000);
+	}
+
+}